@@ -0,0 +1,216 @@
+package com.weaselogic.getset;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Steady state cost of a set-then-get round trip through generated accessors,
+ * against the same bean written by hand.
+ * <p>
+ * For each schema there are four variants:
+ * <ul>
+ * <li>{@code javac}: direct calls on the hand-written bean in {@link JavacBeans}</li>
+ * <li>{@code generated}: the generated class through {@code static final}
+ * method handles, which the JIT treats as constants and inlines, so this is
+ * what a direct call to the generated accessors costs</li>
+ * <li>{@code reflection}: the generated class through {@link Method#invoke}</li>
+ * <li>{@code methodHandle}: the generated class through method handles held in
+ * instance fields, as a framework would keep them</li>
+ * </ul>
+ * {@code javac} and {@code generated} should be indistinguishable, including for
+ * the {@code !} and {@code !!} setters and their null check.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AccessorBenchmark {
+    private static final Class<?> INT_HOLDER = GeneratedBeans.load("IntHolder");
+    private static final Class<?> OBJECT_HOLDER = GeneratedBeans.load("ObjectHolder");
+    private static final Class<?> NOT_NULL = GeneratedBeans.load("NotNull");
+    private static final Class<?> NEVER_NULL = GeneratedBeans.load("NeverNull");
+
+    private static final MethodHandle INT_HOLDER_GET = GeneratedBeans.getter(INT_HOLDER, "value", int.class);
+    private static final MethodHandle INT_HOLDER_SET = GeneratedBeans.setter(INT_HOLDER, "value", int.class);
+    private static final MethodHandle OBJECT_HOLDER_GET = GeneratedBeans.getter(OBJECT_HOLDER, "string", String.class);
+    private static final MethodHandle OBJECT_HOLDER_SET = GeneratedBeans.setter(OBJECT_HOLDER, "string", String.class);
+    private static final MethodHandle NOT_NULL_GET = GeneratedBeans.getter(NOT_NULL, "string", String.class);
+    private static final MethodHandle NOT_NULL_SET = GeneratedBeans.setter(NOT_NULL, "string", String.class);
+    private static final MethodHandle NEVER_NULL_GET = GeneratedBeans.getter(NEVER_NULL, "string", String.class);
+    private static final MethodHandle NEVER_NULL_SET = GeneratedBeans.setter(NEVER_NULL, "string", String.class);
+
+    private final JavacBeans.IntHolder javacIntHolder = new JavacBeans.IntHolder();
+    private final JavacBeans.ObjectHolder javacObjectHolder = new JavacBeans.ObjectHolder();
+    private final JavacBeans.NotNull javacNotNull = new JavacBeans.NotNull();
+    private final JavacBeans.NeverNull javacNeverNull = new JavacBeans.NeverNull();
+
+    private Object intHolder;
+    private Object objectHolder;
+    private Object notNull;
+    private Object neverNull;
+
+    private Method intHolderGetMethod;
+    private Method intHolderSetMethod;
+    private Method objectHolderGetMethod;
+    private Method objectHolderSetMethod;
+    private Method notNullGetMethod;
+    private Method notNullSetMethod;
+    private Method neverNullGetMethod;
+    private Method neverNullSetMethod;
+
+    private MethodHandle intHolderGet;
+    private MethodHandle intHolderSet;
+    private MethodHandle objectHolderGet;
+    private MethodHandle objectHolderSet;
+    private MethodHandle notNullGet;
+    private MethodHandle notNullSet;
+    private MethodHandle neverNullGet;
+    private MethodHandle neverNullSet;
+
+    private int value = 42;
+    private String string = "forty-two";
+
+    @Setup
+    public void setUp() {
+        intHolder = GeneratedBeans.newInstance(INT_HOLDER);
+        objectHolder = GeneratedBeans.newInstance(OBJECT_HOLDER);
+        notNull = GeneratedBeans.newInstance(NOT_NULL);
+        neverNull = GeneratedBeans.newInstance(NEVER_NULL);
+
+        intHolderGetMethod = GeneratedBeans.getterMethod(INT_HOLDER, "value");
+        intHolderSetMethod = GeneratedBeans.setterMethod(INT_HOLDER, "value", int.class);
+        objectHolderGetMethod = GeneratedBeans.getterMethod(OBJECT_HOLDER, "string");
+        objectHolderSetMethod = GeneratedBeans.setterMethod(OBJECT_HOLDER, "string", String.class);
+        notNullGetMethod = GeneratedBeans.getterMethod(NOT_NULL, "string");
+        notNullSetMethod = GeneratedBeans.setterMethod(NOT_NULL, "string", String.class);
+        neverNullGetMethod = GeneratedBeans.getterMethod(NEVER_NULL, "string");
+        neverNullSetMethod = GeneratedBeans.setterMethod(NEVER_NULL, "string", String.class);
+
+        intHolderGet = INT_HOLDER_GET;
+        intHolderSet = INT_HOLDER_SET;
+        objectHolderGet = OBJECT_HOLDER_GET;
+        objectHolderSet = OBJECT_HOLDER_SET;
+        notNullGet = NOT_NULL_GET;
+        notNullSet = NOT_NULL_SET;
+        neverNullGet = NEVER_NULL_GET;
+        neverNullSet = NEVER_NULL_SET;
+    }
+
+    // IntHolder: value : int
+
+    @Benchmark
+    public int intHolderJavac() {
+        javacIntHolder.setValue(value);
+        return javacIntHolder.getValue();
+    }
+
+    @Benchmark
+    public int intHolderGenerated() throws Throwable {
+        INT_HOLDER_SET.invokeExact(intHolder, value);
+        return (int) INT_HOLDER_GET.invokeExact(intHolder);
+    }
+
+    @Benchmark
+    public Object intHolderReflection() throws Exception {
+        intHolderSetMethod.invoke(intHolder, value);
+        return intHolderGetMethod.invoke(intHolder);
+    }
+
+    @Benchmark
+    public int intHolderMethodHandle() throws Throwable {
+        intHolderSet.invokeExact(intHolder, value);
+        return (int) intHolderGet.invokeExact(intHolder);
+    }
+
+    // ObjectHolder: string : String
+
+    @Benchmark
+    public String objectHolderJavac() {
+        javacObjectHolder.setString(string);
+        return javacObjectHolder.getString();
+    }
+
+    @Benchmark
+    public String objectHolderGenerated() throws Throwable {
+        OBJECT_HOLDER_SET.invokeExact(objectHolder, string);
+        return (String) OBJECT_HOLDER_GET.invokeExact(objectHolder);
+    }
+
+    @Benchmark
+    public Object objectHolderReflection() throws Exception {
+        objectHolderSetMethod.invoke(objectHolder, string);
+        return objectHolderGetMethod.invoke(objectHolder);
+    }
+
+    @Benchmark
+    public String objectHolderMethodHandle() throws Throwable {
+        objectHolderSet.invokeExact(objectHolder, string);
+        return (String) objectHolderGet.invokeExact(objectHolder);
+    }
+
+    // NotNull: string ! String
+
+    @Benchmark
+    public String notNullJavac() {
+        javacNotNull.setString(string);
+        return javacNotNull.getString();
+    }
+
+    @Benchmark
+    public String notNullGenerated() throws Throwable {
+        NOT_NULL_SET.invokeExact(notNull, string);
+        return (String) NOT_NULL_GET.invokeExact(notNull);
+    }
+
+    @Benchmark
+    public Object notNullReflection() throws Exception {
+        notNullSetMethod.invoke(notNull, string);
+        return notNullGetMethod.invoke(notNull);
+    }
+
+    @Benchmark
+    public String notNullMethodHandle() throws Throwable {
+        notNullSet.invokeExact(notNull, string);
+        return (String) notNullGet.invokeExact(notNull);
+    }
+
+    // NeverNull: string !! String
+
+    @Benchmark
+    public String neverNullJavac() {
+        javacNeverNull.setString(string);
+        return javacNeverNull.getString();
+    }
+
+    @Benchmark
+    public String neverNullGenerated() throws Throwable {
+        NEVER_NULL_SET.invokeExact(neverNull, string);
+        return (String) NEVER_NULL_GET.invokeExact(neverNull);
+    }
+
+    @Benchmark
+    public Object neverNullReflection() throws Exception {
+        neverNullSetMethod.invoke(neverNull, string);
+        return neverNullGetMethod.invoke(neverNull);
+    }
+
+    @Benchmark
+    public String neverNullMethodHandle() throws Throwable {
+        neverNullSet.invokeExact(neverNull, string);
+        return (String) neverNullGet.invokeExact(neverNull);
+    }
+}
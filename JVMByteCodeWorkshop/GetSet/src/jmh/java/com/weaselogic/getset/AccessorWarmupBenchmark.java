@@ -0,0 +1,91 @@
+package com.weaselogic.getset;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to first compile: how long a fresh JVM takes to get through a fixed
+ * number of set-then-get round trips, most of which run interpreted or in the
+ * lower compiler tiers until the accessors are compiled.
+ * <p>
+ * Every fork measures one cold run. Generated and hand-written beans are both
+ * called through method handles adapted the same way, so the difference
+ * between {@code generated} and {@code javac} is down to the accessor
+ * bytecode. Loading the bean is not part of the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+public class AccessorWarmupBenchmark {
+    private static final int ROUND_TRIPS = 20000;
+
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+
+    @Param({ "IntHolder", "ObjectHolder", "NotNull", "NeverNull" })
+    public String schema;
+
+    private Object generatedBean;
+    private MethodHandle generatedGet;
+    private MethodHandle generatedSet;
+
+    private Object javacBean;
+    private MethodHandle javacGet;
+    private MethodHandle javacSet;
+
+    private Object argument;
+
+    @Setup
+    public void setUp() throws ClassNotFoundException {
+        boolean intHolder = "IntHolder".equals(schema);
+        String property = intHolder ? "value" : "string";
+        Class<?> type = intHolder ? int.class : String.class;
+        argument = intHolder ? (Object) 42 : "forty-two";
+
+        Class<?> generated = GeneratedBeans.load(schema);
+        generatedBean = GeneratedBeans.newInstance(generated);
+        generatedGet = GeneratedBeans.getter(generated, property, type).asType(GETTER);
+        generatedSet = GeneratedBeans.setter(generated, property, type).asType(SETTER);
+
+        Class<?> javac = Class.forName(JavacBeans.class.getName() + "$" + schema);
+        javacBean = GeneratedBeans.newInstance(javac);
+        javacGet = GeneratedBeans.getter(javac, property, type).asType(GETTER);
+        javacSet = GeneratedBeans.setter(javac, property, type).asType(SETTER);
+    }
+
+    @Benchmark
+    public Object generated() throws Throwable {
+        return roundTrips(generatedBean, generatedGet, generatedSet);
+    }
+
+    @Benchmark
+    public Object javac() throws Throwable {
+        return roundTrips(javacBean, javacGet, javacSet);
+    }
+
+    private Object roundTrips(Object bean, MethodHandle get, MethodHandle set) throws Throwable {
+        Object result = null;
+        for (int i = 0; i < ROUND_TRIPS; i++) {
+            set.invokeExact(bean, argument);
+            result = get.invokeExact(bean);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+package com.weaselogic.getset;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Summing one attribute of the {@code Trade} schema over many rows, held as
+ * beans in a list or in the generated {@code TradeColumns}.
+ * <p>
+ * The beans are shuffled after creation so that, as in a long-lived heap,
+ * list order is not allocation order and each row is a pointer chase.
+ * {@code columnArray} is the scan the columns exist for: one primitive array,
+ * read front to back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnsBenchmark {
+    private static final Class<?> TRADE = GeneratedBeans.load("Trade");
+    private static final Class<?> TRADE_COLUMNS = companion(TRADE, "pkg1.TradeColumns");
+    private static final Class<?> TRADE_CURSOR = companion(TRADE, "pkg1.TradeColumns$Cursor");
+
+    private static final MethodHandle GET_PRICE = GeneratedBeans.getter(TRADE, "price", double.class);
+    private static final MethodHandle SET_PRICE = GeneratedBeans.setter(TRADE, "price", double.class);
+    private static final MethodHandle SET_SYMBOL = GeneratedBeans.setter(TRADE, "symbol", String.class);
+    private static final MethodHandle ADD = virtual(TRADE_COLUMNS, "add", int.class, TRADE);
+    private static final MethodHandle GET_PRICE_AT = virtual(TRADE_COLUMNS, "getPrice", double.class, int.class);
+    private static final MethodHandle PRICE_COLUMN = virtual(TRADE_COLUMNS, "priceColumn", double[].class);
+    private static final MethodHandle SIZE = virtual(TRADE_COLUMNS, "size", int.class);
+    private static final MethodHandle CURSOR = virtual(TRADE_COLUMNS, "cursor", TRADE_CURSOR);
+    private static final MethodHandle NEXT = virtual(TRADE_CURSOR, "next", boolean.class);
+    private static final MethodHandle CURSOR_PRICE = virtual(TRADE_CURSOR, "getPrice", double.class);
+
+    @Param({ "1000", "1000000" })
+    public int rows;
+
+    private List<Object> beans;
+    private Object columns;
+
+    @Setup
+    public void setUp() throws Throwable {
+        Random random = new Random(42);
+        beans = new ArrayList<>(rows);
+        columns = GeneratedBeans.newInstance(TRADE_COLUMNS);
+        for (int i = 0; i < rows; i++) {
+            Object trade = GeneratedBeans.newInstance(TRADE);
+            SET_PRICE.invokeExact(trade, random.nextDouble());
+            SET_SYMBOL.invokeExact(trade, "ACME");
+            beans.add(trade);
+            if ((int) ADD.invokeExact(columns, trade) != i) {
+                throw new IllegalStateException("Rows out of order");
+            }
+        }
+        Collections.shuffle(beans, random);
+    }
+
+    @Benchmark
+    public double beanList() throws Throwable {
+        double sum = 0;
+        for (int i = 0; i < beans.size(); i++) {
+            sum += (double) GET_PRICE.invokeExact(beans.get(i));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double columnGetter() throws Throwable {
+        double sum = 0;
+        int size = (int) SIZE.invokeExact(columns);
+        for (int i = 0; i < size; i++) {
+            sum += (double) GET_PRICE_AT.invokeExact(columns, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double columnArray() throws Throwable {
+        double sum = 0;
+        double[] prices = (double[]) (Object) PRICE_COLUMN.invokeExact(columns);
+        int size = (int) SIZE.invokeExact(columns);
+        for (int i = 0; i < size; i++) {
+            sum += prices[i];
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double cursor() throws Throwable {
+        double sum = 0;
+        Object cursor = (Object) CURSOR.invokeExact(columns);
+        while ((boolean) NEXT.invokeExact(cursor)) {
+            sum += (double) CURSOR_PRICE.invokeExact(cursor);
+        }
+        return sum;
+    }
+
+    private static Class<?> companion(Class<?> bean, String name) {
+        try {
+            return bean.getClassLoader().loadClass(name);
+        } catch (ClassNotFoundException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * @return {@code name} of {@code cls}, taking and returning {@code Object}
+     *         in place of generated types
+     */
+    private static MethodHandle virtual(Class<?> cls, String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            MethodHandle mh = MethodHandles.publicLookup()
+                    .findVirtual(cls, name, MethodType.methodType(returnType, parameterTypes));
+            return mh.asType(mh.type().erase());
+        } catch (ReflectiveOperationException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+}
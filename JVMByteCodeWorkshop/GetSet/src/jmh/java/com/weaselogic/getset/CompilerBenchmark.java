@@ -0,0 +1,165 @@
+package com.weaselogic.getset;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.weaselogic.getset.Compiler.Options;
+
+/**
+ * Cost of the compile path for generated schemas of different shapes.
+ * <p>
+ * {@code gradle jmh} runs this with the GC profiler, so each result comes with
+ * the bytes allocated per operation ({@code gc.alloc.rate.norm}), which is the
+ * number to compare when looking for regressions. Primitives can't have null
+ * constraints, so {@code PRIMITIVE} attributes with {@code !} or {@code !!}
+ * are boxed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompilerBenchmark {
+    public enum Shape {
+        PRIMITIVE("int", "Integer"),
+        OBJECT("java.util.Date"),
+        GENERIC("java.util.HashMap<String, java.util.List<Integer>>"),
+        ARRAY("long[][][]");
+
+        final String type;
+        final String nullableType;
+
+        Shape(String type) {
+            this(type, type);
+        }
+
+        Shape(String type, String nullableType) {
+            this.type = type;
+            this.nullableType = nullableType;
+        }
+
+        /**
+         * @return the attribute type to declare with {@code modifier}
+         */
+        String typeFor(String modifier) {
+            return modifier.equals(":") ? type : nullableType;
+        }
+    }
+
+    private static final String SOURCE_NAME = "Bench.gs";
+
+    private static final String CLASS_NAME = "bench.Bench";
+
+    private static final List<String> NO_GENERIC_PARAMETERS = Collections.emptyList();
+
+    @Param({ "1", "10", "100", "1000" })
+    public int attributes;
+
+    @Param({ "PRIMITIVE", "OBJECT", "GENERIC", "ARRAY" })
+    public Shape shape;
+
+    @Param({ ":", "!", "!!" })
+    public String modifier;
+
+    private String source;
+    private final List<String> names = new ArrayList<>();
+    private final List<String> signatures = new ArrayList<>();
+    private Set<Options> options;
+    private ClassNode tree;
+    private ResolutionCache resolutionCache;
+
+    @Setup
+    public void setUp() throws CompileException {
+        source = schema(attributes, shape.typeFor(modifier), modifier);
+
+        // capture the builder calls the compiler makes, to replay them without parsing
+        final ClassBuilder recorder = new ClassBuilder() {
+            @Override
+            public void addAttribute(String attrName, String attrSignature,
+                                     List<String> genericParameters, Set<Options> attrOptions) {
+                names.add(attrName);
+                signatures.add(attrSignature);
+                options = attrOptions;
+                super.addAttribute(attrName, attrSignature, genericParameters, attrOptions);
+            }
+        };
+        new Compiler(SOURCE_NAME, new StringReader(source), recorder).compile();
+
+        tree = addAttributes();
+        resolutionCache = new ResolutionCache();
+    }
+
+    /**
+     * @return a schema declaring {@code count} attributes of {@code type}
+     */
+    static String schema(int count, String type, String modifier) {
+        StringBuilder sb = new StringBuilder(">> bench\n\nBench\n\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("value").append(i).append(' ').append(modifier).append(' ').append(type).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The whole pipeline as a single file compile sees it: parse, resolve
+     * through the classpath, build the class tree and write it out.
+     */
+    @Benchmark
+    public byte[] compile() throws CompileException {
+        return new Compiler(SOURCE_NAME, new StringReader(source), new ClassBuilder()).compile();
+    }
+
+    /**
+     * The pipeline as batch and runtime compiles run it: streaming builder and a
+     * resolution cache shared between compiles.
+     */
+    @Benchmark
+    public byte[] compileStreaming() throws CompileException {
+        Compiler compiler = new Compiler(SOURCE_NAME, new StringReader(source), new StreamingClassBuilder());
+        compiler.setResolutionCache(resolutionCache);
+        return compiler.compile();
+    }
+
+    /**
+     * Code generation alone: the {@link ClassBuilder} calls the compiler makes
+     * for the schema.
+     */
+    @Benchmark
+    public ClassNode addAttributes() {
+        ClassBuilder cb = new ClassBuilder();
+        ClassNode cn = cb.createClass(CLASS_NAME, null);
+        for (int i = 0; i < names.size(); i++) {
+            cb.addAttribute(names.get(i), signatures.get(i), NO_GENERIC_PARAMETERS, options);
+        }
+        return cn;
+    }
+
+    /**
+     * Serialization alone: writing a finished class tree with a {@link ClassWriter}.
+     */
+    @Benchmark
+    public byte[] serialize() {
+        ClassWriter cw = new ClassWriter(0);
+        tree.accept(cw);
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,180 @@
+package com.weaselogic.getset;
+
+import java.util.concurrent.TimeUnit;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Effect of the {@code final} class modifier on a pipeline call site that
+ * reads one attribute from many beans.
+ * <p>
+ * The call site is a real {@code invokevirtual} of {@code getValue}, in a loop
+ * generated against the bean class, and is timed per bean:
+ * <ul>
+ * <li>{@code plain}: non-final bean, no subclass loaded; the JIT inlines the
+ * getter on the strength of class hierarchy analysis and records a dependency
+ * that a later subclass would invalidate</li>
+ * <li>{@code subclassed}: non-final bean plus two subclasses overriding the
+ * getter, as proxies or mocks would, with instances of all three reaching the
+ * call site; it becomes megamorphic and falls back to a virtual call</li>
+ * <li>{@code final}: the bean compiled with the {@code final} header modifier;
+ * the getter is bound statically, no dependency is recorded, and no subclass can
+ * make the site polymorphic</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FinalAccessorBenchmark {
+    /**
+     * The pipeline stage under test, implemented by generated code.
+     */
+    public interface ValueSum {
+        long sum(Object[] beans);
+    }
+
+    private static class BenchLoader extends ClassLoader {
+        BenchLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] code) {
+            return defineClass(name, code, 0, code.length);
+        }
+    }
+
+    private static final String BEAN = "pkg1/IntHolder";
+
+    private static final int BEANS = 1024;
+
+    @Param({ "plain", "subclassed", "final" })
+    public String mode;
+
+    private Object[] beans;
+    private ValueSum valueSum;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        String header = "final".equals(mode) ? "final IntHolder" : "IntHolder";
+        Class<?> bean = GeneratedBeans.compile(">> pkg1\n" + header + "\nvalue : int\n");
+        BenchLoader loader = new BenchLoader(bean.getClassLoader());
+
+        Class<?>[] types = { bean };
+        if ("subclassed".equals(mode)) {
+            types = new Class<?>[] { bean,
+                    loader.define("pkg1.IntHolder$Proxy1", subclass(BEAN + "$Proxy1")),
+                    loader.define("pkg1.IntHolder$Proxy2", subclass(BEAN + "$Proxy2")) };
+        }
+
+        beans = new Object[BEANS];
+        for (int i = 0; i < BEANS; i++) {
+            beans[i] = types[i % types.length].newInstance();
+            bean.getMethod("setValue", int.class).invoke(beans[i], i);
+        }
+        valueSum = (ValueSum) loader.define("pkg1.IntHolder$ValueSum", valueSum()).newInstance();
+    }
+
+    @Benchmark
+    public long sum() {
+        return valueSum.sum(beans);
+    }
+
+    /**
+     * A subclass that overrides the getter with a call to the inherited one.
+     */
+    private static byte[] subclass(String name) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC + Opcodes.ACC_SUPER, name, null, BEAN, null);
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, BEAN, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "getValue", "()I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, BEAN, "getValue", "()I", false);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * {@code long sum(Object[] beans)} adding up {@code ((IntHolder) bean).getValue()}.
+     */
+    private static byte[] valueSum() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC + Opcodes.ACC_SUPER, BEAN + "$ValueSum", null,
+                "java/lang/Object", new String[] { ValueSum.class.getName().replace('.', '/') });
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // locals: 0 this, 1 beans, 2-3 sum, 4 i
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "sum", "([Ljava/lang/Object;)J", null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitVarInsn(Opcodes.LSTORE, 2);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 4);
+        Label test = new Label();
+        Label done = new Label();
+        mv.visitLabel(test);
+        mv.visitFrame(Opcodes.F_FULL, 4,
+                new Object[] { BEAN + "$ValueSum", "[Ljava/lang/Object;", Opcodes.LONG, Opcodes.INTEGER },
+                0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitInsn(Opcodes.ARRAYLENGTH);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, done);
+        mv.visitVarInsn(Opcodes.LLOAD, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitInsn(Opcodes.AALOAD);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, BEAN);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BEAN, "getValue", "()I", false);
+        mv.visitInsn(Opcodes.I2L);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitVarInsn(Opcodes.LSTORE, 2);
+        mv.visitIincInsn(4, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, test);
+        mv.visitLabel(done);
+        mv.visitFrame(Opcodes.F_SAME, 0, null, 0, null);
+        mv.visitVarInsn(Opcodes.LLOAD, 2);
+        mv.visitInsn(Opcodes.LRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
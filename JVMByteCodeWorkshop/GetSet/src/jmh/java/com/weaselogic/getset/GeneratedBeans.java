@@ -0,0 +1,104 @@
+package com.weaselogic.getset;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Loads the classes generated for the {@code src/test/resources/pkg1} schemas
+ * and looks up their accessors.
+ * <p>
+ * Accessor handles are adapted to take the bean as an {@code Object}, so a
+ * benchmark can call generated and javac-compiled beans through the same
+ * exact type. Lookup failures surface as {@link IllegalStateException}s
+ * because the callers are mostly static initializers.
+ */
+final class GeneratedBeans {
+    private static final RuntimeCompiler COMPILER = new RuntimeCompiler();
+
+    private GeneratedBeans() {
+    }
+
+    /**
+     * Compiles and loads {@code pkg1.<schema>}, relative to the project directory.
+     */
+    static Class<?> load(String schema) {
+        try (Reader r = Files.newBufferedReader(
+                Paths.get("src", "test", "resources", "pkg1", schema + ".gs"), StandardCharsets.UTF_8)) {
+            return COMPILER.compile(r);
+        } catch (IOException | CompileException x) {
+            throw new IllegalStateException("Unable to load schema " + schema, x);
+        }
+    }
+
+    /**
+     * Compiles and loads schema text held in memory.
+     */
+    static Class<?> compile(CharSequence schema) {
+        try {
+            return COMPILER.compile(schema);
+        } catch (CompileException x) {
+            throw new IllegalStateException("Unable to compile schema", x);
+        }
+    }
+
+    static Object newInstance(Class<?> cls) {
+        try {
+            return cls.newInstance();
+        } catch (ReflectiveOperationException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * @return {@code getProperty} of {@code cls}, typed {@code (Object)type}
+     */
+    static MethodHandle getter(Class<?> cls, String property, Class<?> type) {
+        try {
+            return MethodHandles.publicLookup()
+                    .findVirtual(cls, "get" + capitalize(property), MethodType.methodType(type))
+                    .asType(MethodType.methodType(type, Object.class));
+        } catch (ReflectiveOperationException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /**
+     * @return {@code setProperty} of {@code cls}, typed {@code (Object, type)void}
+     */
+    static MethodHandle setter(Class<?> cls, String property, Class<?> type) {
+        try {
+            return MethodHandles.publicLookup()
+                    .findVirtual(cls, "set" + capitalize(property), MethodType.methodType(void.class, type))
+                    .asType(MethodType.methodType(void.class, Object.class, type));
+        } catch (ReflectiveOperationException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    static Method getterMethod(Class<?> cls, String property) {
+        try {
+            return cls.getMethod("get" + capitalize(property));
+        } catch (NoSuchMethodException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    static Method setterMethod(Class<?> cls, String property, Class<?> type) {
+        try {
+            return cls.getMethod("set" + capitalize(property), type);
+        } catch (NoSuchMethodException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    private static String capitalize(String property) {
+        return Character.toUpperCase(property.charAt(0)) + property.substring(1);
+    }
+}
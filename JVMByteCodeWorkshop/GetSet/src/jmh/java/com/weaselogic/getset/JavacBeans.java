@@ -0,0 +1,75 @@
+package com.weaselogic.getset;
+
+import java.util.Date;
+
+/**
+ * Hand-written equivalents of the {@code src/test/resources/pkg1} schemas the
+ * accessor benchmarks use, compiled by javac.
+ */
+public final class JavacBeans {
+    private JavacBeans() {
+    }
+
+    public static class IntHolder {
+        private int value;
+
+        public int getValue() {
+            return value;
+        }
+
+        public void setValue(int value) {
+            this.value = value;
+        }
+    }
+
+    public static class ObjectHolder {
+        private Date date;
+        private String string;
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+
+        public String getString() {
+            return string;
+        }
+
+        public void setString(String string) {
+            this.string = string;
+        }
+    }
+
+    public static class NotNull {
+        private String string;
+
+        public String getString() {
+            return string;
+        }
+
+        public void setString(String string) {
+            if (string == null) {
+                throw new NullPointerException();
+            }
+            this.string = string;
+        }
+    }
+
+    public static class NeverNull {
+        private String string = new String();
+
+        public String getString() {
+            return string;
+        }
+
+        public void setString(String string) {
+            if (string == null) {
+                throw new NullPointerException();
+            }
+            this.string = string;
+        }
+    }
+}
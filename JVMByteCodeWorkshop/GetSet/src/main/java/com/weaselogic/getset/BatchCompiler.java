@@ -0,0 +1,380 @@
+package com.weaselogic.getset;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles every .gs file found under a set of source roots on a fork-join pool.
+ * <p>
+ * Each source file gets its own {@link Compiler} and {@link StreamingClassBuilder}, so the
+ * only state shared between tasks is the result bookkeeping and, for incremental
+ * builds, the {@link BuildManifest}. Failures are collected per file rather than
+ * aborting the batch.
+ */
+public class BatchCompiler {
+    public static final String SOURCE_SUFFIX = ".gs";
+
+    public static final String CLASS_SUFFIX = ".class";
+
+    private static final Pattern SOURCE_EXTENSION = Pattern.compile("(.+?)(\\.\\w+)?$");
+
+    /** Below this many files a task compiles its slice directly instead of forking. */
+    private static final int SPLIT_THRESHOLD = 8;
+
+    public static class Result {
+        private final int compiled;
+        private final int skipped;
+        private final Map<Path, CompileException> failures;
+        private final Map<Path, InstanceLayout> layouts;
+        private final InliningReport inliningReport;
+        private final long elapsedNanos;
+
+        Result(int compiled, int skipped, Map<Path, CompileException> failures,
+               Map<Path, InstanceLayout> layouts, InliningReport inliningReport, long elapsedNanos) {
+            this.compiled = compiled;
+            this.skipped = skipped;
+            this.failures = Collections.unmodifiableMap(new TreeMap<>(failures));
+            this.layouts = Collections.unmodifiableMap(new TreeMap<>(layouts));
+            this.inliningReport = inliningReport;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getCompiled() {
+            return compiled;
+        }
+
+        /**
+         * @return the number of sources whose output was found up to date
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        public Map<Path, CompileException> getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the estimated instance size of each class compiled, by source;
+         *         skipped sources are not included
+         */
+        public Map<Path, InstanceLayout> getInstanceLayouts() {
+            return layouts;
+        }
+
+        /**
+         * @return the method sizes of each class compiled, or {@code null}
+         *         unless {@link BatchCompiler#setInliningReport(boolean)} asked
+         *         for them
+         */
+        public InliningReport getInliningReport() {
+            return inliningReport;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getFilesPerSecond() {
+            int files = compiled + skipped + failures.size();
+            return elapsedNanos == 0 ? 0.0 : files / (elapsedNanos / 1e9);
+        }
+    }
+
+    private static class Source {
+        final Path root;
+        final Path file;
+
+        Source(Path root, Path file) {
+            this.root = root;
+            this.file = file;
+        }
+    }
+
+    private final Path outputDir;
+    private final ForkJoinPool pool;
+    private final List<Source> sources = new ArrayList<>();
+    private BuildManifest manifest;
+    private ClassIndex classIndex;
+    private ResolutionCache resolutionCache = new ResolutionCache();
+    private boolean packedFields;
+    private boolean inliningReport;
+
+    /**
+     * @param outputDir directory that receives the class files, laid out relative to
+     *                  each source root; {@code null} writes each class next to its source
+     */
+    public BatchCompiler(Path outputDir) {
+        this(outputDir, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchCompiler(Path outputDir, int parallelism) {
+        this.outputDir = outputDir;
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Adds a source root. A directory is walked for .gs files, a regular file is
+     * added as is.
+     */
+    public void addSource(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            sources.add(new Source(root.getParent(), root));
+            return;
+        }
+
+        final Path base = root;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && file.getFileName().toString().endsWith(SOURCE_SUFFIX)) {
+                    sources.add(new Source(base, file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Enables incremental compilation: sources the manifest reports as up to date
+     * are skipped, everything compiled is recorded in it, and it is saved at the
+     * end of {@link #compile()}.
+     */
+    public void setManifest(BuildManifest manifest) {
+        this.manifest = manifest;
+        if (classIndex != null) {
+            manifest.setClassIndex(classIndex);
+        }
+    }
+
+    /**
+     * Resolves types against a prebuilt classpath index instead of loading them.
+     */
+    public void setClassIndex(ClassIndex classIndex) {
+        this.classIndex = classIndex;
+        // results found by loading classes do not hold for the index
+        this.resolutionCache = new ResolutionCache();
+        if (manifest != null) {
+            manifest.setClassIndex(classIndex);
+        }
+    }
+
+    /**
+     * @see Compiler#setPackedFields(boolean)
+     */
+    public void setPackedFields(boolean packedFields) {
+        this.packedFields = packedFields;
+    }
+
+    /**
+     * Measures every method compiled against the JIT inlining limits, for
+     * {@link Result#getInliningReport()}. Sources skipped as up to date are
+     * measured from the class files the manifest records for them.
+     */
+    public void setInliningReport(boolean inliningReport) {
+        this.inliningReport = inliningReport;
+    }
+
+    /**
+     * @return the identity of the code generator configuration; outputs recorded
+     *         under a different fingerprint are recompiled
+     */
+    public String getFingerprint() {
+        return packedFields ? Compiler.VERSION + "+packed" : Compiler.VERSION;
+    }
+
+    /**
+     * @return the type resolution cache shared by all files of this batch
+     */
+    public ResolutionCache getResolutionCache() {
+        return resolutionCache;
+    }
+
+    public int getSourceCount() {
+        return sources.size();
+    }
+
+    public Result compile() {
+        long start = System.nanoTime();
+
+        AtomicInteger compiled = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        Map<Path, CompileException> failures = new ConcurrentHashMap<>();
+        Map<Path, InstanceLayout> layouts = new ConcurrentHashMap<>();
+        Map<Path, List<MethodSize>> methodSizes = null;
+        if (inliningReport) {
+            methodSizes = new ConcurrentHashMap<>();
+        }
+        pool.invoke(new CompileTask(sources, compiled, skipped, failures, layouts, methodSizes));
+
+        if (manifest != null) {
+            try {
+                manifest.save();
+            } catch (IOException e) {
+                failures.put(Paths.get(BuildManifest.FILE_NAME),
+                        new CompileException("Unable to save build manifest", e));
+            }
+        }
+
+        return new Result(compiled.get(), skipped.get(), failures, layouts,
+                methodSizes == null ? null : new InliningReport(methodSizes), System.nanoTime() - start);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    Path destinationFor(Source source) {
+        String classFile = classFileName(source.file.getFileName().toString());
+        if (outputDir == null || source.root == null) {
+            return source.file.resolveSibling(classFile);
+        }
+        return outputDir.resolve(source.root.relativize(source.file)).resolveSibling(classFile);
+    }
+
+    static String classFileName(String sourceFile) {
+        return SOURCE_EXTENSION.matcher(sourceFile).replaceAll("$1" + CLASS_SUFFIX);
+    }
+
+    /**
+     * @return the compiler that compiled the source, or {@code null} if it was
+     *         skipped because its output is up to date
+     */
+    private Compiler compileOne(Source source) throws CompileException {
+        Path dest = destinationFor(source);
+        BasicFileAttributes attrs = null;
+        byte[] content = null;
+        try {
+            if (manifest != null) {
+                if (manifest.isUpToDate(source.file, dest, getFingerprint())) {
+                    return null;
+                }
+                manifest.forget(dest);
+                // attributes first, so a concurrent edit makes the recorded timestamp stale rather than the hash
+                attrs = Files.readAttributes(source.file, BasicFileAttributes.class);
+                content = Files.readAllBytes(source.file);
+            }
+        } catch (IOException e) {
+            throw new CompileException(String.format("Unable to read file %s", source.file), e);
+        }
+
+        Compiler cmp = new Compiler(source.file, new StreamingClassBuilder());
+        cmp.setClassIndex(classIndex);
+        cmp.setResolutionCache(resolutionCache);
+        cmp.setPackedFields(packedFields);
+        byte[] code;
+        try {
+            code = cmp.compile();
+        } catch (RuntimeException x) {
+            throw new CompileException(String.format("Unable to compile %s", source.file), x);
+        }
+
+        try {
+            if (dest.getParent() != null) {
+                Files.createDirectories(dest.getParent());
+            }
+            Files.write(dest, code);
+            List<String> companions = new ArrayList<>();
+            for (Map.Entry<String, byte[]> companion : cmp.getCompanionClasses().entrySet()) {
+                String simpleName = companion.getKey().substring(companion.getKey().lastIndexOf('.') + 1);
+                companions.add(simpleName + CLASS_SUFFIX);
+                Files.write(dest.resolveSibling(simpleName + CLASS_SUFFIX), companion.getValue());
+            }
+            if (manifest != null) {
+                manifest.record(dest, getFingerprint(), content, attrs, cmp.getResolvedTypes(), companions);
+            }
+        } catch (IOException e) {
+            throw new CompileException(String.format("Unable to write %s", dest), e);
+        }
+        return cmp;
+    }
+
+    /**
+     * @return the method sizes of the class files a skipped source left, as
+     *         {@link Compiler#getMethodSizes()} would report them
+     */
+    private List<MethodSize> recordedMethodSizes(Source source) throws CompileException {
+        Path dest = destinationFor(source);
+        try {
+            List<MethodSize> sizes = new ArrayList<>(MethodSize.of(Files.readAllBytes(dest)));
+            for (String companion : manifest.getCompanions(dest)) {
+                sizes.addAll(MethodSize.of(Files.readAllBytes(dest.resolveSibling(companion))));
+            }
+            return sizes;
+        } catch (IOException e) {
+            throw new CompileException(String.format("Unable to read %s", dest), e);
+        }
+    }
+
+    private class CompileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Source> slice;
+        private final AtomicInteger compiled;
+        private final AtomicInteger skipped;
+        private final Map<Path, CompileException> failures;
+        private final Map<Path, InstanceLayout> layouts;
+        private final Map<Path, List<MethodSize>> methodSizes;
+
+        /**
+         * @param methodSizes receives the method sizes of each class compiled;
+         *                    {@code null} if they are not wanted
+         */
+        CompileTask(List<Source> slice, AtomicInteger compiled, AtomicInteger skipped,
+                    Map<Path, CompileException> failures, Map<Path, InstanceLayout> layouts,
+                    Map<Path, List<MethodSize>> methodSizes) {
+            this.slice = slice;
+            this.compiled = compiled;
+            this.skipped = skipped;
+            this.failures = failures;
+            this.layouts = layouts;
+            this.methodSizes = methodSizes;
+        }
+
+        @Override
+        protected void compute() {
+            if (slice.size() > SPLIT_THRESHOLD) {
+                int mid = slice.size() / 2;
+                invokeAll(new CompileTask(slice.subList(0, mid), compiled, skipped, failures, layouts, methodSizes),
+                        new CompileTask(slice.subList(mid, slice.size()), compiled, skipped, failures, layouts,
+                                methodSizes));
+                return;
+            }
+
+            for (Source source : slice) {
+                try {
+                    Compiler cmp = compileOne(source);
+                    if (cmp != null) {
+                        layouts.put(source.file, cmp.getInstanceLayout());
+                        if (methodSizes != null) {
+                            methodSizes.put(source.file, cmp.getMethodSizes());
+                        }
+                        compiled.incrementAndGet();
+                    } else {
+                        if (methodSizes != null) {
+                            methodSizes.put(source.file, recordedMethodSizes(source));
+                        }
+                        skipped.incrementAndGet();
+                    }
+                } catch (CompileException x) {
+                    failures.put(source.file, x);
+                }
+            }
+        }
+    }
+}
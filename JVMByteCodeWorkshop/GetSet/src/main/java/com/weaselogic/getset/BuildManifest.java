@@ -0,0 +1,253 @@
+package com.weaselogic.getset;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk record of what produced each output class, used to skip unchanged
+ * sources in incremental builds.
+ * <p>
+ * An output is up to date when it and the companion classes written next to
+ * it still exist, it was produced by the same compiler fingerprint, its source
+ * has the same content hash (which covers its explicit imports), and every
+ * type it looked up on the classpath still resolves. Size and modification
+ * time are kept as a fast path so unchanged sources are not even read.
+ * <p>
+ * The file is plain text, one tab separated entry per output sorted by path, so
+ * it is itself deterministic and diffs cleanly.
+ */
+public class BuildManifest {
+    public static final String FILE_NAME = ".getset-manifest";
+
+    private static final String HEADER = "# getset manifest 2";
+
+    private static final String SEPARATOR = "\t";
+
+    private static final String TYPE_SEPARATOR = ",";
+
+    static class Entry {
+        final String fingerprint;
+        final String sourceHash;
+        final long sourceSize;
+        final long sourceModified;
+        final SortedSet<String> resolvedTypes;
+        final List<String> companions;
+
+        Entry(String fingerprint, String sourceHash, long sourceSize, long sourceModified,
+              SortedSet<String> resolvedTypes, List<String> companions) {
+            this.fingerprint = fingerprint;
+            this.sourceHash = sourceHash;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+            this.resolvedTypes = resolvedTypes;
+            this.companions = companions;
+        }
+    }
+
+    private final Path file;
+    private final Path baseDir;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> typeChecks = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+    private ClassIndex classIndex;
+
+    private BuildManifest(Path file) {
+        this.file = file.toAbsolutePath().normalize();
+        this.baseDir = this.file.getParent();
+    }
+
+    /**
+     * Reads the manifest at {@code file}. A missing or unreadable manifest
+     * yields an empty one, which simply makes everything out of date.
+     */
+    public static BuildManifest load(Path file) {
+        BuildManifest manifest = new BuildManifest(file);
+        if (!Files.isRegularFile(file)) {
+            return manifest;
+        }
+
+        try (BufferedReader br = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = br.readLine();
+            if (!HEADER.equals(line)) {
+                return manifest;
+            }
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR, -1);
+                if (parts.length != 7) {
+                    continue;
+                }
+                manifest.entries.put(parts[0], new Entry(parts[1], parts[2],
+                        Long.parseLong(parts[3]), Long.parseLong(parts[4]),
+                        Collections.unmodifiableSortedSet(new TreeSet<>(split(parts[5]))), split(parts[6])));
+            }
+        } catch (IOException | RuntimeException x) {
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest back if anything was recorded or forgotten since it was loaded.
+     */
+    public void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Map<String, Entry> sorted = new TreeMap<>(entries);
+        Files.createDirectories(baseDir);
+        try (BufferedWriter bw = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            bw.write(HEADER);
+            bw.newLine();
+            for (Map.Entry<String, Entry> e : sorted.entrySet()) {
+                Entry entry = e.getValue();
+                bw.write(e.getKey() + SEPARATOR + entry.fingerprint + SEPARATOR + entry.sourceHash
+                        + SEPARATOR + entry.sourceSize + SEPARATOR + entry.sourceModified
+                        + SEPARATOR + join(entry.resolvedTypes) + SEPARATOR + join(entry.companions));
+                bw.newLine();
+            }
+        }
+        dirty = false;
+    }
+
+    /**
+     * Checks recorded types against the index the compiler resolves with,
+     * rather than by loading them.
+     */
+    public void setClassIndex(ClassIndex classIndex) {
+        this.classIndex = classIndex;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return true if {@code dest} can be reused as the output of {@code source}
+     *         for a build with the given compiler fingerprint
+     */
+    public boolean isUpToDate(Path source, Path dest, String fingerprint) throws IOException {
+        Entry entry = entries.get(key(dest));
+        if (entry == null || !entry.fingerprint.equals(fingerprint) || !Files.isRegularFile(dest)) {
+            return false;
+        }
+        for (String companion : entry.companions) {
+            if (!Files.isRegularFile(dest.resolveSibling(companion))) {
+                return false;
+            }
+        }
+
+        BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+        if (attrs.size() != entry.sourceSize
+                || attrs.lastModifiedTime().toMillis() != entry.sourceModified) {
+            if (!entry.sourceHash.equals(hash(Files.readAllBytes(source)))) {
+                return false;
+            }
+            // touched but unchanged; remember the new timestamp so the next build is fast again
+            entries.put(key(dest), new Entry(entry.fingerprint, entry.sourceHash, attrs.size(),
+                    attrs.lastModifiedTime().toMillis(), entry.resolvedTypes, entry.companions));
+            dirty = true;
+        }
+
+        for (String type : entry.resolvedTypes) {
+            if (!stillResolves(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the file names of the companion classes recorded next to
+     *         {@code dest}, in the order the compiler produced them, or
+     *         {@code null} if {@code dest} is not in the manifest
+     */
+    public List<String> getCompanions(Path dest) {
+        Entry entry = entries.get(key(dest));
+        return entry == null ? null : entry.companions;
+    }
+
+    /**
+     * Records that {@code dest} was produced from {@code sourceContent}, whose file
+     * had {@code attrs} when it was read, resolving {@code resolvedTypes}, along
+     * with the {@code companions} written next to it, by file name.
+     */
+    public void record(Path dest, String fingerprint, byte[] sourceContent,
+                       BasicFileAttributes attrs, Set<String> resolvedTypes, List<String> companions) {
+        entries.put(key(dest), new Entry(fingerprint, hash(sourceContent), attrs.size(),
+                attrs.lastModifiedTime().toMillis(),
+                Collections.unmodifiableSortedSet(new TreeSet<>(resolvedTypes)),
+                Collections.unmodifiableList(new ArrayList<>(companions))));
+        dirty = true;
+    }
+
+    public void forget(Path dest) {
+        if (entries.remove(key(dest)) != null) {
+            dirty = true;
+        }
+    }
+
+    private boolean stillResolves(String type) {
+        Boolean known = typeChecks.get(type);
+        if (known == null) {
+            known = classIndex != null ? classIndex.contains(type) : Compiler.classExists(type);
+            typeChecks.put(type, known);
+        }
+        return known;
+    }
+
+    private String key(Path dest) {
+        Path abs = dest.toAbsolutePath().normalize();
+        Path rel = abs.startsWith(baseDir) ? baseDir.relativize(abs) : abs;
+        return rel.toString().replace(rel.getFileSystem().getSeparator(), "/");
+    }
+
+    private static List<String> split(String list) {
+        if (list.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(list.split(TYPE_SEPARATOR)));
+    }
+
+    private static String join(Collection<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(TYPE_SEPARATOR);
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    static String hash(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException("SHA-256 not available", x);
+        }
+    }
+}
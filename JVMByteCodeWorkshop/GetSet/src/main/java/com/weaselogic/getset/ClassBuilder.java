@@ -1,21 +1,30 @@
 package com.weaselogic.getset;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.objectweb.asm.tree.MultiANewArrayInsnNode;
 
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldInsnNode;
 import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.FrameNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
-import org.objectweb.asm.tree.JumpInsnNode;
 import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.TypeInsnNode;
@@ -24,7 +33,13 @@ import org.objectweb.asm.tree.VarInsnNode;
 import com.weaselogic.getset.Compiler.Options;
 
 public class ClassBuilder {
-    private static final String NPE = "java/lang/NullPointerException";
+    private static final String OBJECT = "java/lang/Object";
+
+    private static final String OBJECT_ARRAY = "[Ljava/lang/Object;";
+
+    private static final String OBJECTS = "java/util/Objects";
+
+    private static final String ARRAYS = "java/util/Arrays";
 
     private static final String SETTER_SIGNATURE = "(%s)V";
 
@@ -32,6 +47,27 @@ public class ClassBuilder {
 
     private static final String OBJECT_PRIMITIVE = ";;;";
 
+    /** Caches the hash of an immutable class with {@code equals}. */
+    private static final String HASH_CODE_FIELD = "hashCode$";
+
+    /** Appended to the name of the first array attribute of a type for the shared empty array. */
+    private static final String DEFAULT_SUFFIX = "$default";
+
+    /** Appended to the name of a volatile attribute for its field updater. */
+    private static final String UPDATER_SUFFIX = "$updater";
+
+    private static final String ATOMIC = "java/util/concurrent/atomic/";
+
+    /** Followed by a number for each method the never-null initialization is split into. */
+    private static final String INIT_PREFIX = "init$";
+
+    /**
+     * The most bytes of never-null initialization the constructor, and then
+     * each method it is split into, takes, so each is still inlined at hot
+     * call sites.
+     */
+    private static final int INIT_CHUNK_LENGTH = MethodSize.FREQ_INLINE_SIZE - 25;
+
     private static final Map<String, Integer> PRIMITIVE_LOAD_MAP = new HashMap<>();
     static {
         PRIMITIVE_LOAD_MAP.put("B", Opcodes.ILOAD);
@@ -59,9 +95,25 @@ public class ClassBuilder {
     }
 
     private final ClassNode cn = new ClassNode();
-    private final MethodNode constructor =
+    final MethodNode constructor =
             new MethodNode(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
     private final LabelNode initReturn = new LabelNode();
+    /** The methods never-null initialization moved to once the constructor was full. */
+    final List<MethodNode> initChunks = new ArrayList<>();
+    final MethodNode staticInitializer =
+            new MethodNode(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+    private final Set<Options> classOptions = EnumSet.noneOf(Options.class);
+    private final List<FieldNode> fields = new ArrayList<>();
+    private final List<FieldNode> declaredFields = new ArrayList<>();
+    private final List<Set<Options>> fieldOptions = new ArrayList<>();
+    private final Map<String, byte[]> companionClasses = new LinkedHashMap<>();
+    /** Names of the static empty arrays, by array descriptor. */
+    private final Map<String, String> emptyArrays = new HashMap<>();
+    private List<String> classParameters = new ArrayList<>();
+    private int constructorLocals = 1;
+    private MethodNode initMethod = constructor;
+    private AbstractInsnNode initEnd = initReturn;
+    private int initLength;
 
     public ClassNode createClass(String name, String signature) {
         cn.version = Opcodes.V1_7;
@@ -84,48 +136,267 @@ public class ClassBuilder {
 
         cn.methods.add(constructor);
 
+        staticInitializer.instructions.add(new InsnNode(Opcodes.RETURN));
+
+        return cn;
+    }
+
+    /**
+     * Applies the options given in the schema's class header. Called after
+     * {@link #createClass(String, String)} and before the first attribute, and
+     * only if the header has any.
+     * <p>
+     * {@link Options#FINAL} makes the class and its accessors final, so the JIT
+     * can bind accessor calls without class hierarchy speculation. Fields stay
+     * mutable since the setters assign them. {@link Options#EQUALS} adds
+     * {@code equals} and {@code hashCode} over all attributes.
+     * <p>
+     * {@link Options#IMMUTABLE} makes every field final and replaces the setters
+     * with {@code withX} methods that return a modified copy. The no argument
+     * constructor becomes one taking every attribute in schema order, so
+     * instances are fully built before they are published. With
+     * {@link Options#EQUALS} as well, the hash is computed once and cached.
+     * <p>
+     * {@link Options#PACKED} declares the fields in
+     * {@link InstanceLayout#PACKED_ORDER} rather than schema order, once they
+     * are all known.
+     * <p>
+     * {@link Options#FLYWEIGHT} also writes a companion class, named after the
+     * bean with a {@code Flyweight} suffix, whose accessors read and write
+     * records in a {@code ByteBuffer}; see {@link #getCompanionClasses()}.
+     * Every attribute must then be primitive. {@link Options#COLUMNS} writes a
+     * {@code Columns} companion that stores rows as one array per attribute.
+     * {@link Options#CODEC} adds {@code writeTo(ByteBuffer)} and
+     * {@code readFrom(ByteBuffer)}; see {@link CodecBuilder}. {@link Options#JSON}
+     * adds {@code writeJson(Appendable)}; see {@link JsonBuilder}.
+     * <p>
+     * {@link Options#LAZY} leaves never-null attributes {@code null} until
+     * their getter is first called, rather than allocating every default in
+     * the constructor, so a bean whose attributes are all set straight after
+     * construction costs no more than a plain one. Members that read
+     * attributes, such as {@code equals}, go through the getter for these.
+     */
+    public void setClassOptions(Set<Options> options) {
+        classOptions.addAll(options);
+        if (options.contains(Options.FINAL)) {
+            cn.access |= Opcodes.ACC_FINAL;
+        }
+    }
+
+    /**
+     * Completes the class once every attribute has been added, with the members
+     * that depend on all of them. Called only if the header has class options.
+     */
+    public void endClass() {
+        if (isImmutable()) {
+            completeConstructor();
+            for (FieldNode fn : fields) {
+                addWither(fn);
+            }
+        }
+        if (classOptions.contains(Options.EQUALS)) {
+            addEquals();
+            if (isImmutable()) {
+                addCachedHashCode();
+            } else {
+                addHashCode();
+            }
+        }
+        if (classOptions.contains(Options.CODEC)) {
+            new CodecBuilder(classVisitor(), cn.name, fields, getNonNullFields()).addCodec();
+        }
+        if (classOptions.contains(Options.JSON)) {
+            new JsonBuilder(classVisitor(), cn.name, fields, getLazyFields()).addJson();
+        }
+        if (classOptions.contains(Options.FLYWEIGHT)) {
+            FlyweightBuilder flyweight = new FlyweightBuilder(cn.name, cn.sourceFile, fields);
+            companionClasses.put(flyweight.getClassName(), flyweight.toByteArray());
+        }
+        if (classOptions.contains(Options.COLUMNS)) {
+            ColumnsBuilder columns = new ColumnsBuilder(cn.name, cn.sourceFile, fields, fieldOptions);
+            companionClasses.put(columns.getClassName(), columns.toByteArray());
+            companionClasses.put(columns.getCursorClassName(), columns.toCursorByteArray());
+        }
+        if (classOptions.contains(Options.PACKED)) {
+            List<FieldNode> packed = new ArrayList<>(declaredFields);
+            Collections.sort(packed, InstanceLayout.PACKED_ORDER);
+            for (FieldNode fn : packed) {
+                fn.accept(classVisitor());
+            }
+        }
+    }
+
+    /**
+     * @return the classes generated alongside the bean by binary name, in the
+     *         order they were completed; empty unless a class option asks for one
+     */
+    public Map<String, byte[]> getCompanionClasses() {
+        return companionClasses;
+    }
+
+    /**
+     * @return the estimated size of an instance of the class as built so far
+     */
+    public InstanceLayout getInstanceLayout() {
+        List<String> descs = new ArrayList<>();
+        for (FieldNode fn : declaredFields) {
+            descs.add(fn.desc);
+        }
+        return new InstanceLayout(cn.name.replace('/', '.'), descs);
+    }
+
+    /**
+     * @return where fields and accessors are written as attributes are added;
+     *         the class node itself unless a subclass streams them elsewhere
+     */
+    protected ClassVisitor classVisitor() {
         return cn;
     }
 
     public void addAttribute(String attrName, String attrSignature,
                              List<String> genericParameters,
                              Set<Options> options) {
-    	FieldNode fn = addField(attrName, attrSignature);
+    	FieldNode fn = addField(attrName, attrSignature, options);
+        fieldOptions.add(options);
+        classParameters = genericParameters;
         addGetter(fn);
+        if (isImmutable()) {
+            addConstructorParameter(fn, options);
+            return;
+        }
         addSetter(fn, options);
-        if (options.contains(Options.NEVER_NULL)) {
+        if (options.contains(Options.VOLATILE)) {
+            addAtomicAccessors(fn);
+        }
+        if (options.contains(Options.NEVER_NULL) && !isLazy(fn)) {
             InsnList initVariable = new InsnList();
-            String pName = descToTypeName(fn.desc);
             initVariable.add(new VarInsnNode(Opcodes.ALOAD, 0));
-            if (pName.startsWith("[")) {
-            	int i = 0;
-            	while(pName.charAt(i) == '[') {
-                	initVariable.add(new InsnNode(Opcodes.ICONST_0));
-                	i++;
-            	}
-            	initVariable.add(new MultiANewArrayInsnNode(pName, i));
-            } else {
-                initVariable.add(new TypeInsnNode(Opcodes.NEW, pName));
-                initVariable.add(new InsnNode(Opcodes.DUP));
-                initVariable.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, pName, "<init>", "()V", false));
-            }
+            initVariable.add(newDefault(fn));
             initVariable.add(new FieldInsnNode(Opcodes.PUTFIELD, cn.name, fn.name, fn.desc));
-            constructor.instructions.insertBefore(initReturn, initVariable);
+            addInitialization(initVariable, 4 + getDefaultLength(fn));
             constructor.maxStack = 4;
         }
     }
 
-	private FieldNode addField(String attrName, String attrSignature) {
+    /**
+     * Appends {@code init}, which takes at most {@code length} bytes and
+     * needs no locals but {@code this}, to the constructor. Once that would
+     * take the constructor's initialization past {@link #INIT_CHUNK_LENGTH},
+     * the rest goes into private {@code init$0}, {@code init$1}... methods of
+     * the same length the constructor calls in turn, so a bean with thousands
+     * of never-null attributes has no method the JIT won't compile and none
+     * over the 64KB limit.
+     */
+    private void addInitialization(InsnList init, int length) {
+        if (initLength + length > INIT_CHUNK_LENGTH) {
+            MethodNode chunk = new MethodNode(Opcodes.ACC_PRIVATE,
+                    INIT_PREFIX + initChunks.size(), "()V", null, null);
+            chunk.instructions.add(new InsnNode(Opcodes.RETURN));
+            chunk.maxStack = 3;
+            chunk.maxLocals = 1;
+            initChunks.add(chunk);
+            cn.methods.add(chunk);
+
+            InsnList call = new InsnList();
+            call.add(new VarInsnNode(Opcodes.ALOAD, 0));
+            call.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, cn.name, chunk.name, chunk.desc, false));
+            constructor.instructions.insertBefore(initReturn, call);
+
+            initMethod = chunk;
+            initEnd = chunk.instructions.getLast();
+            initLength = 0;
+        }
+        initMethod.instructions.insertBefore(initEnd, init);
+        initLength += length;
+    }
+
+    /**
+     * @return code that pushes the default value for the never-null attribute
+     *         {@code fn}: the {@code ""} constant for a {@code String}, a
+     *         static empty array shared by every attribute and instance of the
+     *         class with that array type, or a new instance made with the
+     *         type's no argument constructor. Strings and empty arrays can't be
+     *         modified, so only code comparing them by identity can tell.
+     */
+    private InsnList newDefault(FieldNode fn) {
+        InsnList newValue = new InsnList();
+        String pName = descToTypeName(fn.desc);
+        if (fn.desc.equals("Ljava/lang/String;")) {
+            newValue.add(new LdcInsnNode(""));
+        } else if (pName.startsWith("[")) {
+            newValue.add(new FieldInsnNode(Opcodes.GETSTATIC, cn.name, getEmptyArray(fn), fn.desc));
+        } else {
+            newValue.add(new TypeInsnNode(Opcodes.NEW, pName));
+            newValue.add(new InsnNode(Opcodes.DUP));
+            newValue.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, pName, "<init>", "()V", false));
+        }
+        return newValue;
+    }
+
+    /**
+     * @return the most bytes the code {@link #newDefault(FieldNode)} returns
+     *         can take, counting {@code ldc} in its wide form
+     */
+    private int getDefaultLength(FieldNode fn) {
+        // ldc_w or getstatic, or new, dup and invokespecial
+        return fn.desc.equals("Ljava/lang/String;") || fn.desc.startsWith("[") ? 3 : 7;
+    }
+
+    /**
+     * @return the name of the static field holding the empty array of
+     *         attribute {@code fn}'s type, which is declared, and created by the
+     *         static initializer, for the first attribute of that type
+     */
+    private String getEmptyArray(FieldNode fn) {
+        String name = emptyArrays.get(fn.desc);
+        if (name != null) {
+            return name;
+        }
+        name = fn.name + DEFAULT_SUFFIX;
+        emptyArrays.put(fn.desc, name);
+        classVisitor().visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC + Opcodes.ACC_FINAL,
+                name, fn.desc, null, null).visitEnd();
+
+        InsnList init = new InsnList();
+        int dimensions = fn.desc.lastIndexOf('[') + 1;
+        for (int i = 0; i < dimensions; i++) {
+            init.add(new InsnNode(Opcodes.ICONST_0));
+        }
+        init.add(new MultiANewArrayInsnNode(fn.desc, dimensions));
+        init.add(new FieldInsnNode(Opcodes.PUTSTATIC, cn.name, name, fn.desc));
+        addStaticInitialization(init, dimensions);
+        return name;
+    }
+
+	private FieldNode addField(String attrName, String attrSignature, Set<Options> options) {
+        int access = Opcodes.ACC_PRIVATE;
+        if (isImmutable()) {
+            access += Opcodes.ACC_FINAL;
+        } else if (options.contains(Options.VOLATILE)) {
+            access += Opcodes.ACC_VOLATILE;
+        }
         FieldNode fn =
-                new FieldNode(Opcodes.ACC_PRIVATE,
+                new FieldNode(access,
                         attrName,
 						getErasure(attrSignature),
 						attrSignature.contains("<") || attrSignature.startsWith("T") ? attrSignature : null,
 						null);
-        cn.fields.add(fn);
+        declareField(fn);
+        fields.add(fn);
         return fn;
     }
 
+    /**
+     * Writes out a field, or holds it back until {@link #endClass()} if fields
+     * are to be reordered.
+     */
+    private void declareField(FieldNode fn) {
+        declaredFields.add(fn);
+        if (!classOptions.contains(Options.PACKED)) {
+            fn.accept(classVisitor());
+        }
+    }
+
 	private String getErasure(String signature) {
 	    if (signature.startsWith("T")) {
 	        return "Ljava/lang/Object;";
@@ -136,19 +407,102 @@ public class ClassBuilder {
 	}
 
 	private void addGetter(FieldNode fn) {
-        MethodNode mn = new MethodNode(Opcodes.ACC_PUBLIC,
+        InsnList lazyDefault = isLazy(fn) ? newDefault(fn) : null;
+        MethodVisitor mv = classVisitor().visitMethod(getMethodAccess(),
                 makeAccessorName("Z".equals(fn.desc) ? "is" : "get", fn.name),
                 formatMethodSignature(GETTER_SIGNATURE, fn.desc),
                 formatMethodSignature(GETTER_SIGNATURE, fn.signature),
 				null);
-        mn.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
-        mn.instructions.add(new FieldInsnNode(Opcodes.GETFIELD, cn.name, fn.name, fn.desc));
-		mn.instructions.add(getReturnInsnNode(fn.desc));
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, cn.name, fn.name, fn.desc);
+        if (lazyDefault != null) {
+            addLazyDefault(mv, fn, lazyDefault);
+            return;
+        }
+		mv.visitInsn(getReturnOpcode(fn.desc));
+
+        mv.visitMaxs(getSlots(fn.desc), getSlots(fn.desc));
+        mv.visitEnd();
+    }
+
+    /**
+     * Completes the getter of a never-null attribute in a {@link Options#LAZY}
+     * class, which stores and returns the value {@code newDefault} pushes if
+     * the field is still {@code null}. Like the rest of the bean this is not
+     * thread safe: threads reading the attribute for the first time at once
+     * may see different default instances.
+     */
+    private void addLazyDefault(MethodVisitor mv, FieldNode fn, InsnList newDefault) {
+        Label set = new Label();
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitJumpInsn(Opcodes.IFNONNULL, set);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        newDefault.accept(mv);
+        mv.visitInsn(Opcodes.DUP_X1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, cn.name, fn.name, fn.desc);
+        mv.visitLabel(set);
+        mv.visitFrame(Opcodes.F_FULL, 1, new Object[] { cn.name }, 1, new Object[] { descToTypeName(fn.desc) });
+        mv.visitInsn(Opcodes.ARETURN);
+
+        mv.visitMaxs(3, 1);
+        mv.visitEnd();
+    }
+
+    /**
+     * @return true if the default of never-null attribute {@code fn} is only
+     *         allocated when it is first read
+     */
+    private boolean isLazy(FieldNode fn) {
+        return classOptions.contains(Options.LAZY) && !isImmutable()
+                && fieldOptions.get(fields.indexOf(fn)).contains(Options.NEVER_NULL);
+    }
+
+    /**
+     * @return the attributes whose fields may be {@code null} until first read,
+     *         which other members must read through the getter
+     */
+    private Set<FieldNode> getLazyFields() {
+        Set<FieldNode> lazy = new HashSet<>();
+        for (FieldNode fn : fields) {
+            if (isLazy(fn)) {
+                lazy.add(fn);
+            }
+        }
+        return lazy;
+    }
 
-        mn.maxStack = getSlots(fn.desc);
-        mn.maxLocals = getSlots(fn.desc);
+    /**
+     * @return the attributes that can't be {@code null} once the bean is
+     *         constructed: {@code !} and {@code !!} ones of an immutable bean,
+     *         and non-lazy {@code !!} ones of a mutable bean. A mutable
+     *         {@code !} attribute is {@code null} until it is first set.
+     */
+    private Set<FieldNode> getNonNullFields() {
+        Set<FieldNode> nonNull = new HashSet<>();
+        for (int i = 0; i < fields.size(); i++) {
+            FieldNode fn = fields.get(i);
+            Set<Options> options = fieldOptions.get(i);
+            if (isImmutable() ? cantSetNull(options) : options.contains(Options.NEVER_NULL) && !isLazy(fn)) {
+                nonNull.add(fn);
+            }
+        }
+        return nonNull;
+    }
 
-        cn.methods.add(mn);
+    /**
+     * Pushes attribute {@code fn} of the instance in local {@code local}, read
+     * through the getter if its default is lazy.
+     */
+    private void addAttributeLoad(MethodVisitor mv, int local, FieldNode fn) {
+        mv.visitVarInsn(Opcodes.ALOAD, local);
+        if (isLazy(fn)) {
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, cn.name, makeAccessorName("get", fn.name),
+                    "()" + fn.desc, false);
+        } else {
+            mv.visitFieldInsn(Opcodes.GETFIELD, cn.name, fn.name, fn.desc);
+        }
     }
 
     private int getSlots(String desc) {
@@ -156,45 +510,452 @@ public class ClassBuilder {
     }
 
 	private void addSetter(FieldNode fn, Set<Options> options) {
-        MethodNode mn = new MethodNode(Opcodes.ACC_PUBLIC,
+        MethodVisitor mv = classVisitor().visitMethod(getMethodAccess(),
                 makeAccessorName("set", fn.name),
                 formatMethodSignature(SETTER_SIGNATURE, fn.desc),
                 formatMethodSignature(SETTER_SIGNATURE, fn.signature),
 				null);
 
-        mn.instructions.add(new VarInsnNode(Opcodes.ALOAD, 0));
-        mn.instructions.add(new VarInsnNode(getLoadOpcode(fn.desc), 1));
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(getLoadOpcode(fn.desc), 1);
 
         final int xtraStack;
 
 		if (cantSetNull(options)) {
-            mn.instructions.add(new InsnNode(Opcodes.DUP));
-            LabelNode label = new LabelNode();
-            mn.instructions.add(new JumpInsnNode(Opcodes.IFNONNULL, label));
-            mn.instructions.add(new TypeInsnNode(Opcodes.NEW, NPE));
-            mn.instructions.add(new InsnNode(Opcodes.DUP));
-            mn.instructions.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, NPE, "<init>", "()V", false));
-            mn.instructions.add(new InsnNode(Opcodes.ATHROW));
-            mn.instructions.add(label);
-            String pName = descToTypeName(fn.desc);
-            mn.instructions.add(new FrameNode(Opcodes.F_FULL,
-                    2, new Object[] { cn.name, pName },
-                    2,
-                    new Object[] { cn.name, pName }));
-
-            xtraStack = 3;
+		    // the throw stays in Objects, keeping the setter well under MaxInlineSize
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, OBJECTS, "requireNonNull",
+                    "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+            mv.visitInsn(Opcodes.POP);
+
+            xtraStack = 2;
 		} else {
 		    xtraStack = 1;
 		}
-        mn.instructions.add(new FieldInsnNode(Opcodes.PUTFIELD, cn.name, fn.name, fn.desc));
-        mn.instructions.add(new InsnNode(Opcodes.RETURN));
-
-		mn.maxStack = getSlots(fn.desc) + xtraStack;
-        mn.maxLocals = getSlots(fn.desc) + 1;
+        mv.visitFieldInsn(Opcodes.PUTFIELD, cn.name, fn.name, fn.desc);
+        mv.visitInsn(Opcodes.RETURN);
 
-        cn.methods.add(mn);
+		mv.visitMaxs(getSlots(fn.desc) + xtraStack, getSlots(fn.desc) + 1);
+        mv.visitEnd();
     }
 
+	/**
+	 * Adds the atomic accessors of a {@code ~} attribute, built on a static
+	 * {@code AtomicIntegerFieldUpdater}, {@code AtomicLongFieldUpdater} or
+	 * {@code AtomicReferenceFieldUpdater} for the field:
+	 * {@code compareAndSetX} and {@code getAndSetX}, and for {@code int} and
+	 * {@code long} also {@code getAndAddX} and {@code incrementAndGetX}. There
+	 * are no updaters for the other primitive types, so their attributes are
+	 * only made volatile.
+	 */
+	private void addAtomicAccessors(FieldNode fn) {
+	    String updater;
+	    String value;
+	    if ("I".equals(fn.desc)) {
+	        updater = ATOMIC + "AtomicIntegerFieldUpdater";
+	        value = "I";
+	    } else if ("J".equals(fn.desc)) {
+	        updater = ATOMIC + "AtomicLongFieldUpdater";
+	        value = "J";
+	    } else if (fn.desc.length() > 1) {
+	        updater = ATOMIC + "AtomicReferenceFieldUpdater";
+	        value = "L" + OBJECT + ";";
+	    } else {
+	        return;
+	    }
+	    String updaterDesc = "L" + updater + ";";
+	    String updaterName = fn.name + UPDATER_SUFFIX;
+	    classVisitor().visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC + Opcodes.ACC_FINAL,
+	            updaterName, updaterDesc, null, null).visitEnd();
+
+	    InsnList init = new InsnList();
+	    init.add(new LdcInsnNode(Type.getObjectType(cn.name)));
+	    String newUpdaterDesc = "(Ljava/lang/Class;Ljava/lang/String;)";
+	    if (value.length() > 1) {
+	        init.add(new LdcInsnNode(Type.getType(fn.desc)));
+	        newUpdaterDesc = "(Ljava/lang/Class;Ljava/lang/Class;Ljava/lang/String;)";
+	    }
+	    init.add(new LdcInsnNode(fn.name));
+	    init.add(new MethodInsnNode(Opcodes.INVOKESTATIC, updater, "newUpdater", newUpdaterDesc + updaterDesc, false));
+	    init.add(new FieldInsnNode(Opcodes.PUTSTATIC, cn.name, updaterName, updaterDesc));
+	    addStaticInitialization(init, 3);
+
+	    String signature = fn.signature != null ? fn.signature : fn.desc;
+	    addAtomicAccessor(fn, "compareAndSet", "(" + fn.desc + fn.desc + ")Z", "(" + signature + signature + ")Z",
+	            updater, "(L" + OBJECT + ";" + value + value + ")Z");
+	    addAtomicAccessor(fn, "getAndSet", "(" + fn.desc + ")" + fn.desc, "(" + signature + ")" + signature,
+	            updater, "(L" + OBJECT + ";" + value + ")" + value);
+	    if (value.length() == 1) {
+	        addAtomicAccessor(fn, "getAndAdd", "(" + fn.desc + ")" + fn.desc, null,
+	                updater, "(L" + OBJECT + ";" + value + ")" + value);
+	        addAtomicAccessor(fn, "incrementAndGet", "()" + fn.desc, null,
+	                updater, "(L" + OBJECT + ";)" + value);
+	    }
+	}
+
+	/**
+	 * Adds {@code prefixX(...)}, which passes this and its arguments to the
+	 * updater method of the same name.
+	 */
+	private void addAtomicAccessor(FieldNode fn, String prefix, String desc, String signature,
+	        String updater, String updaterMethodDesc) {
+	    MethodVisitor mv = classVisitor().visitMethod(getMethodAccess(), makeAccessorName(prefix, fn.name),
+	            desc, fn.signature != null ? signature : null, null);
+	    mv.visitCode();
+	    mv.visitFieldInsn(Opcodes.GETSTATIC, cn.name, fn.name + UPDATER_SUFFIX, "L" + updater + ";");
+	    mv.visitVarInsn(Opcodes.ALOAD, 0);
+	    int local = 1;
+	    for (Type parameter : Type.getArgumentTypes(desc)) {
+	        mv.visitVarInsn(parameter.getOpcode(Opcodes.ILOAD), local);
+	        local += parameter.getSize();
+	    }
+	    mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, updater, prefix, updaterMethodDesc, false);
+	    Type returnType = Type.getReturnType(desc);
+	    if (returnType.getSort() >= Type.ARRAY && !returnType.getInternalName().equals(OBJECT)) {
+	        mv.visitTypeInsn(Opcodes.CHECKCAST, returnType.getInternalName());
+	    }
+	    mv.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+	    mv.visitMaxs(Math.max(local + 1, 2 + returnType.getSize()), local);
+	    mv.visitEnd();
+	}
+
+	/**
+	 * Appends {@code init} to the static initializer, which is added to the
+	 * class the first time.
+	 */
+	private void addStaticInitialization(InsnList init, int stack) {
+	    if (staticInitializer.instructions.size() == 1) {
+	        cn.methods.add(staticInitializer);
+	    }
+	    staticInitializer.instructions.insertBefore(staticInitializer.instructions.getLast(), init);
+	    staticInitializer.maxStack = Math.max(staticInitializer.maxStack, stack);
+	}
+
+	/**
+	 * Assigns the attribute from the next constructor parameter. Null checks
+	 * for {@code !} and {@code !!} attributes happen here, since there is no
+	 * setter; a {@code !!} attribute gets no default instance, as the caller
+	 * always supplies one.
+	 */
+	private void addConstructorParameter(FieldNode fn, Set<Options> options) {
+	    InsnList assign = new InsnList();
+	    assign.add(new VarInsnNode(Opcodes.ALOAD, 0));
+	    assign.add(new VarInsnNode(getLoadOpcode(fn.desc), constructorLocals));
+	    if (cantSetNull(options)) {
+	        assign.add(new InsnNode(Opcodes.DUP));
+	        assign.add(new MethodInsnNode(Opcodes.INVOKESTATIC, OBJECTS, "requireNonNull",
+	                "(Ljava/lang/Object;)Ljava/lang/Object;", false));
+	        assign.add(new InsnNode(Opcodes.POP));
+	    }
+	    assign.add(new FieldInsnNode(Opcodes.PUTFIELD, cn.name, fn.name, fn.desc));
+	    constructor.instructions.insertBefore(initReturn, assign);
+
+	    constructorLocals += getSlots(fn.desc);
+	    int stack = 1 + getSlots(fn.desc) + (cantSetNull(options) ? 1 : 0);
+	    constructor.maxStack = Math.max(constructor.maxStack, stack);
+	    constructor.maxLocals = constructorLocals;
+	}
+
+	/**
+	 * Gives the constructor the descriptor and signature matching the
+	 * parameters {@link #addConstructorParameter(FieldNode, Set)} added.
+	 */
+	private void completeConstructor() {
+	    constructor.desc = getConstructorDesc();
+	    if (hasGenericFields()) {
+	        StringBuilder signature = new StringBuilder("(");
+	        for (FieldNode fn : fields) {
+	            signature.append(fn.signature != null ? fn.signature : fn.desc);
+	        }
+	        constructor.signature = signature.append(")V").toString();
+	    }
+	}
+
+	private String getConstructorDesc() {
+	    StringBuilder desc = new StringBuilder("(");
+	    for (FieldNode fn : fields) {
+	        desc.append(fn.desc);
+	    }
+	    return desc.append(")V").toString();
+	}
+
+	private boolean hasGenericFields() {
+	    for (FieldNode fn : fields) {
+	        if (fn.signature != null) {
+	            return true;
+	        }
+	    }
+	    return false;
+	}
+
+	/**
+	 * Adds {@code withX(x)}, which returns a new instance with every attribute
+	 * of this one except {@code x}. The constructor does any null check.
+	 */
+	private void addWither(FieldNode target) {
+	    String classDesc = "L" + cn.name + ";";
+	    String signature = null;
+	    if (target.signature != null || !classParameters.isEmpty()) {
+	        StringBuilder classSignature = new StringBuilder("L").append(cn.name);
+	        if (!classParameters.isEmpty()) {
+	            classSignature.append('<');
+	            for (String parm : classParameters) {
+	                classSignature.append('T').append(parm).append(';');
+	            }
+	            classSignature.append('>');
+	        }
+	        signature = "(" + (target.signature != null ? target.signature : target.desc) + ")"
+	                + classSignature.append(';');
+	    }
+	    MethodVisitor mv = classVisitor().visitMethod(getMethodAccess(),
+	            makeAccessorName("with", target.name),
+	            "(" + target.desc + ")" + classDesc, signature, null);
+
+	    mv.visitCode();
+	    mv.visitTypeInsn(Opcodes.NEW, cn.name);
+	    mv.visitInsn(Opcodes.DUP);
+	    for (FieldNode fn : fields) {
+	        if (fn == target) {
+	            mv.visitVarInsn(getLoadOpcode(fn.desc), 1);
+	        } else {
+	            mv.visitVarInsn(Opcodes.ALOAD, 0);
+	            mv.visitFieldInsn(Opcodes.GETFIELD, cn.name, fn.name, fn.desc);
+	        }
+	    }
+	    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, cn.name, "<init>", getConstructorDesc(), false);
+	    mv.visitInsn(Opcodes.ARETURN);
+
+	    // the constructor arguments, plus one slot for the receiver field loads
+	    mv.visitMaxs(2 + constructorLocals, 1 + getSlots(target.desc));
+	    mv.visitEnd();
+	}
+
+	/**
+	 * Compares attribute by attribute, primitives by value ({@code float} and
+	 * {@code double} by their bits, as the wrappers do), arrays by content and
+	 * everything else with {@code Objects.equals}. Nothing is boxed.
+	 */
+	private void addEquals() {
+        MethodVisitor mv = classVisitor().visitMethod(getMethodAccess(),
+                "equals", "(Ljava/lang/Object;)Z", null, null);
+        Label notSame = new Label();
+        Label notEqual = new Label();
+
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitJumpInsn(Opcodes.IF_ACMPNE, notSame);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IRETURN);
+
+        mv.visitLabel(notSame);
+        mv.visitFrame(Opcodes.F_FULL, 2, new Object[] { cn.name, OBJECT }, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitJumpInsn(Opcodes.IFNULL, notEqual);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, OBJECT, "getClass", "()Ljava/lang/Class;", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, OBJECT, "getClass", "()Ljava/lang/Class;", false);
+        mv.visitJumpInsn(Opcodes.IF_ACMPNE, notEqual);
+
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, cn.name);
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        for (FieldNode fn : fields) {
+            addFieldComparison(mv, fn, notEqual);
+        }
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IRETURN);
+
+        mv.visitLabel(notEqual);
+        mv.visitFrame(Opcodes.F_FULL, 2, new Object[] { cn.name, OBJECT }, 0, new Object[0]);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitInsn(Opcodes.IRETURN);
+
+        mv.visitMaxs(4, 3);
+        mv.visitEnd();
+	}
+
+	/**
+	 * Jumps to {@code notEqual} unless the attribute of {@code this} (local 0)
+	 * equals that of the other instance (local 2).
+	 */
+	private void addFieldComparison(MethodVisitor mv, FieldNode fn, Label notEqual) {
+	    addAttributeLoad(mv, 0, fn);
+	    addBitsConversion(mv, fn.desc);
+	    addAttributeLoad(mv, 2, fn);
+	    addBitsConversion(mv, fn.desc);
+
+	    switch (fn.desc.charAt(0)) {
+	    case 'Z':
+	    case 'B':
+	    case 'C':
+	    case 'S':
+	    case 'I':
+	    case 'F':
+	        mv.visitJumpInsn(Opcodes.IF_ICMPNE, notEqual);
+	        break;
+	    case 'J':
+	    case 'D':
+	        mv.visitInsn(Opcodes.LCMP);
+	        mv.visitJumpInsn(Opcodes.IFNE, notEqual);
+	        break;
+	    case '[':
+	        String arrayDesc = getArrayMethodDesc(fn.desc);
+	        mv.visitMethodInsn(Opcodes.INVOKESTATIC, ARRAYS,
+	                isDeepArray(fn.desc) ? "deepEquals" : "equals",
+	                "(" + arrayDesc + arrayDesc + ")Z", false);
+	        mv.visitJumpInsn(Opcodes.IFEQ, notEqual);
+	        break;
+	    default:
+	        mv.visitMethodInsn(Opcodes.INVOKESTATIC, OBJECTS, "equals",
+	                "(Ljava/lang/Object;Ljava/lang/Object;)Z", false);
+	        mv.visitJumpInsn(Opcodes.IFEQ, notEqual);
+	    }
+	}
+
+	/**
+	 * Combines the attribute hashes as {@code 31 * h + hash}, starting from 1,
+	 * with each attribute hashed the way its wrapper type or {@code Arrays}
+	 * would. Nothing is boxed.
+	 */
+	private void addHashCode() {
+        MethodVisitor mv = classVisitor().visitMethod(getMethodAccess(),
+                "hashCode", "()I", null, null);
+        mv.visitCode();
+        mv.visitInsn(Opcodes.ICONST_1);
+        for (FieldNode fn : fields) {
+            mv.visitIntInsn(Opcodes.BIPUSH, 31);
+            mv.visitInsn(Opcodes.IMUL);
+            addFieldHash(mv, fn);
+            mv.visitInsn(Opcodes.IADD);
+        }
+        mv.visitInsn(Opcodes.IRETURN);
+
+        mv.visitMaxs(6, 1);
+        mv.visitEnd();
+	}
+
+	/**
+	 * Like {@link #addHashCode()}, but keeps the result in a field the first
+	 * time it is asked for. The field is neither volatile nor final: as with
+	 * {@code String}, a thread that sees 0 just recomputes the same value, and
+	 * int writes cannot tear.
+	 */
+	private void addCachedHashCode() {
+	    declareField(new FieldNode(Opcodes.ACC_PRIVATE + Opcodes.ACC_TRANSIENT,
+	            HASH_CODE_FIELD, "I", null, null));
+
+	    MethodVisitor mv = classVisitor().visitMethod(getMethodAccess(),
+	            "hashCode", "()I", null, null);
+	    Label cached = new Label();
+
+	    mv.visitCode();
+	    mv.visitVarInsn(Opcodes.ALOAD, 0);
+	    mv.visitFieldInsn(Opcodes.GETFIELD, cn.name, HASH_CODE_FIELD, "I");
+	    mv.visitVarInsn(Opcodes.ISTORE, 1);
+	    mv.visitVarInsn(Opcodes.ILOAD, 1);
+	    mv.visitJumpInsn(Opcodes.IFNE, cached);
+
+	    mv.visitInsn(Opcodes.ICONST_1);
+	    for (FieldNode fn : fields) {
+	        mv.visitIntInsn(Opcodes.BIPUSH, 31);
+	        mv.visitInsn(Opcodes.IMUL);
+	        addFieldHash(mv, fn);
+	        mv.visitInsn(Opcodes.IADD);
+	    }
+	    mv.visitVarInsn(Opcodes.ISTORE, 1);
+	    mv.visitVarInsn(Opcodes.ALOAD, 0);
+	    mv.visitVarInsn(Opcodes.ILOAD, 1);
+	    mv.visitFieldInsn(Opcodes.PUTFIELD, cn.name, HASH_CODE_FIELD, "I");
+
+	    mv.visitLabel(cached);
+	    mv.visitFrame(Opcodes.F_FULL, 2, new Object[] { cn.name, Opcodes.INTEGER }, 0, new Object[0]);
+	    mv.visitVarInsn(Opcodes.ILOAD, 1);
+	    mv.visitInsn(Opcodes.IRETURN);
+
+	    mv.visitMaxs(6, 2);
+	    mv.visitEnd();
+	}
+
+	private void addFieldHash(MethodVisitor mv, FieldNode fn) {
+	    char type = fn.desc.charAt(0);
+	    if (type == 'Z') {
+	        // Boolean.hashCode without a branch: true is 1231, false 1237
+	        mv.visitIntInsn(Opcodes.SIPUSH, 1237);
+	        mv.visitVarInsn(Opcodes.ALOAD, 0);
+	        mv.visitFieldInsn(Opcodes.GETFIELD, cn.name, fn.name, fn.desc);
+	        mv.visitIntInsn(Opcodes.BIPUSH, 6);
+	        mv.visitInsn(Opcodes.IMUL);
+	        mv.visitInsn(Opcodes.ISUB);
+	        return;
+	    }
+
+	    addAttributeLoad(mv, 0, fn);
+	    addBitsConversion(mv, fn.desc);
+	    switch (type) {
+	    case 'B':
+	    case 'C':
+	    case 'S':
+	    case 'I':
+	    case 'F':
+	        break;
+	    case 'J':
+	    case 'D':
+	        mv.visitInsn(Opcodes.DUP2);
+	        mv.visitIntInsn(Opcodes.BIPUSH, 32);
+	        mv.visitInsn(Opcodes.LUSHR);
+	        mv.visitInsn(Opcodes.LXOR);
+	        mv.visitInsn(Opcodes.L2I);
+	        break;
+	    case '[':
+	        mv.visitMethodInsn(Opcodes.INVOKESTATIC, ARRAYS,
+	                isDeepArray(fn.desc) ? "deepHashCode" : "hashCode",
+	                "(" + getArrayMethodDesc(fn.desc) + ")I", false);
+	        break;
+	    default:
+	        mv.visitMethodInsn(Opcodes.INVOKESTATIC, OBJECTS, "hashCode", "(Ljava/lang/Object;)I", false);
+	    }
+	}
+
+	/**
+	 * Replaces a {@code float} or {@code double} on the stack by its raw bits.
+	 */
+	private void addBitsConversion(MethodVisitor mv, String desc) {
+	    if ("F".equals(desc)) {
+	        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float", "floatToIntBits", "(F)I", false);
+	    } else if ("D".equals(desc)) {
+	        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J", false);
+	    }
+	}
+
+	/**
+	 * @return the parameter type of the {@code Arrays} method for an array of
+	 *         {@code desc}: the array type itself for one-dimensional primitive
+	 *         arrays, {@code Object[]} for anything else
+	 */
+	private String getArrayMethodDesc(String desc) {
+	    return desc.length() == 2 ? desc : OBJECT_ARRAY;
+	}
+
+	/**
+	 * @return true if elements of an array of {@code desc} may themselves be
+	 *         arrays, so comparing it needs the deep {@code Arrays} methods
+	 */
+	private boolean isDeepArray(String desc) {
+	    return desc.startsWith("[[") || desc.equals(OBJECT_ARRAY);
+	}
+
+	private boolean isImmutable() {
+	    return classOptions.contains(Options.IMMUTABLE);
+	}
+
+	private int getMethodAccess() {
+	    return classOptions.contains(Options.FINAL)
+	            ? Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL : Opcodes.ACC_PUBLIC;
+	}
+
 	private String descToTypeName(String desc) {
 	    return desc.startsWith("[") ? desc : desc.substring(1, desc.length() - 1);
 	}
@@ -215,8 +976,8 @@ public class ClassBuilder {
         return getTypedOpcode(PRIMITIVE_LOAD_MAP, desc);
     }
 
-    private InsnNode getReturnInsnNode(String desc) {
-        return new InsnNode(getTypedOpcode(PRIMITIVE_RETURN_MAP, desc));
+    private int getReturnOpcode(String desc) {
+        return getTypedOpcode(PRIMITIVE_RETURN_MAP, desc);
     }
 
     private int getTypedOpcode(Map<String, Integer> primitiveOpcodeMap,
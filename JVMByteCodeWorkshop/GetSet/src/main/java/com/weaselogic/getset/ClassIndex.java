@@ -0,0 +1,279 @@
+package com.weaselogic.getset;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A prebuilt, memory-mapped set of the class names on a compile classpath.
+ * <p>
+ * Type resolution against an index is a hash lookup: no class is loaded or
+ * initialized in the compiler's JVM. The index is built once by {@link #main}
+ * from jars, class directories and the JDK runtime image.
+ * <p>
+ * File layout, big-endian:
+ * <pre>
+ * int magic, int format, int slot count (a power of two), int name count
+ * int[slot count]   0 for an empty slot, else 1 + offset of the name in the data area
+ * data area         per name: unsigned short length, UTF-8 bytes of the binary name
+ * </pre>
+ * Slots are filled by linear probing on the FNV-1a hash of the UTF-8 name.
+ */
+public class ClassIndex {
+    private static final int MAGIC = 0x47534958; // "GSIX"
+
+    private static final int FORMAT = 1;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private static final String VERSIONED_PREFIX = "META-INF/versions/";
+
+    private final ByteBuffer buffer;
+    private final int slotMask;
+    private final int count;
+    private final int dataStart;
+
+    private ClassIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+            throw new IOException("Not a class index");
+        }
+        int slots = buffer.getInt(8);
+        this.slotMask = slots - 1;
+        this.count = buffer.getInt(12);
+        this.dataStart = HEADER_SIZE + 4 * slots;
+    }
+
+    /**
+     * Builds an index of the classes on {@code classpath}, plus the JDK runtime
+     * classes, and writes it to a file.
+     * <p>
+     * Usage: {@code ClassIndex <index file> [<classpath>]}; the classpath
+     * defaults to the one the tool runs with.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ClassIndex <index file> [<classpath>]");
+            System.exit(2);
+        }
+        String cp = args.length > 1 ? args[1] : System.getProperty("java.class.path");
+
+        List<Path> entries = new ArrayList<>();
+        for (String element : cp.split(File.pathSeparator)) {
+            if (!element.isEmpty()) {
+                entries.add(Paths.get(element));
+            }
+        }
+
+        SortedSet<String> names = scan(entries, true);
+        write(Paths.get(args[0]), names);
+        System.out.printf("Indexed %d classes into %s%n", names.size(), args[0]);
+    }
+
+    /**
+     * Maps an index file written by {@link #write(Path, Collection)}.
+     */
+    public static ClassIndex open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return new ClassIndex(mapped);
+        }
+    }
+
+    /**
+     * @return the binary names of all classes found in the jars and directories
+     *         of {@code classpath} and, if requested, the JDK runtime
+     */
+    public static SortedSet<String> scan(List<Path> classpath, boolean includeRuntime) throws IOException {
+        SortedSet<String> names = new TreeSet<>();
+        for (Path entry : classpath) {
+            scanEntry(entry, names);
+        }
+        if (includeRuntime) {
+            scanRuntime(names);
+        }
+        return names;
+    }
+
+    public static void write(Path file, Collection<String> names) throws IOException {
+        int slots = Integer.highestOneBit(Math.max(names.size(), 1) * 2 - 1) << 1;
+        int[] table = new int[slots];
+
+        ByteBuffer data = ByteBuffer.allocate(1 << 16);
+        for (String name : names) {
+            byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+            if (data.remaining() < utf8.length + 2) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(data.capacity() * 2, data.position() + utf8.length + 2));
+                data.flip();
+                data = bigger.put(data);
+            }
+
+            int slot = hash(utf8, 0, utf8.length) & (slots - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (slots - 1);
+            }
+            table[slot] = data.position() + 1;
+
+            data.putShort((short) utf8.length);
+            data.put(utf8);
+        }
+        data.flip();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 4 * slots);
+        header.putInt(MAGIC).putInt(FORMAT).putInt(slots).putInt(names.size());
+        for (int offset : table) {
+            header.putInt(offset);
+        }
+        header.flip();
+
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                ch.write(header);
+            }
+            while (data.hasRemaining()) {
+                ch.write(data);
+            }
+        }
+    }
+
+    /**
+     * @return true if the index holds the class with binary name {@code fqn}
+     */
+    public boolean contains(String fqn) {
+        byte[] utf8 = fqn.getBytes(StandardCharsets.UTF_8);
+        int slot = hash(utf8, 0, utf8.length) & slotMask;
+        for (;;) {
+            int offset = buffer.getInt(HEADER_SIZE + 4 * slot);
+            if (offset == 0) {
+                return false;
+            }
+            if (nameEquals(dataStart + offset - 1, utf8)) {
+                return true;
+            }
+            slot = (slot + 1) & slotMask;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private boolean nameEquals(int pos, byte[] utf8) {
+        int length = buffer.getShort(pos) & 0xFFFF;
+        if (length != utf8.length) {
+            return false;
+        }
+        pos += 2;
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(pos + i) != utf8[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 0x811C9DC5;
+        for (int i = from; i < to; i++) {
+            h ^= bytes[i] & 0xFF;
+            h *= 0x01000193;
+        }
+        return h;
+    }
+
+    private static void scanEntry(Path entry, final SortedSet<String> names) throws IOException {
+        if (Files.isDirectory(entry)) {
+            scanTree(entry, names);
+        } else if (Files.isRegularFile(entry)) {
+            try (ZipFile zip = new ZipFile(entry.toFile())) {
+                Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+                while (zipEntries.hasMoreElements()) {
+                    addClassFile(zipEntries.nextElement().getName(), names);
+                }
+            }
+        }
+    }
+
+    private static void scanTree(final Path root, final SortedSet<String> names) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String rel = root.relativize(file).toString();
+                addClassFile(rel.replace(file.getFileSystem().getSeparator(), "/"), names);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Indexes the JDK: the boot class path jars up to Java 8, the jrt image after.
+     */
+    private static void scanRuntime(SortedSet<String> names) throws IOException {
+        String bootPath = System.getProperty("sun.boot.class.path");
+        if (bootPath != null) {
+            for (String element : bootPath.split(File.pathSeparator)) {
+                scanEntry(Paths.get(element), names);
+            }
+            return;
+        }
+
+        FileSystem jrt;
+        try {
+            jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        } catch (FileSystemNotFoundException | IllegalArgumentException | UnsupportedOperationException x) {
+            throw new IOException("Unable to locate the JDK runtime classes", x);
+        }
+        try (DirectoryStream<Path> modules = Files.newDirectoryStream(jrt.getPath("/modules"))) {
+            for (Path module : modules) {
+                scanTree(module, names);
+            }
+        }
+    }
+
+    private static void addClassFile(String entryName, SortedSet<String> names) {
+        if (!entryName.endsWith(CLASS_SUFFIX)) {
+            return;
+        }
+        if (entryName.startsWith(VERSIONED_PREFIX)) {
+            int slash = entryName.indexOf('/', VERSIONED_PREFIX.length());
+            if (slash < 0) {
+                return;
+            }
+            entryName = entryName.substring(slash + 1);
+        }
+        String name = entryName.substring(0, entryName.length() - CLASS_SUFFIX.length());
+        if (name.endsWith("module-info") || name.endsWith("package-info")) {
+            return;
+        }
+        names.add(name.replace('/', '.'));
+    }
+}
@@ -0,0 +1,609 @@
+package com.weaselogic.getset;
+
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.FieldNode;
+
+/**
+ * Adds a binary codec to a bean: {@code writeTo(ByteBuffer)} and
+ * {@code static readFrom(ByteBuffer)}.
+ * <p>
+ * The encoding, in the buffer's byte order:
+ * <ul>
+ * <li>a null bitmap, one bit per reference attribute in schema order, eight to
+ * a byte, set for attributes that are not {@code null}</li>
+ * <li>each attribute in schema order: primitives at their fixed width,
+ * booleans as one byte, and references only if they are not {@code null}</li>
+ * <li>a {@code String} as an {@code int} length followed by its chars</li>
+ * <li>an array as an {@code int} length followed by its elements, each
+ * encoded the same way; {@code null} elements of nested arrays and of
+ * {@code String[]} are written as length -1</li>
+ * </ul>
+ * Only primitives, {@code String} and arrays of those can be encoded, which
+ * the compiler checks. Encoding allocates nothing.
+ * <p>
+ * Decoding goes through a private constructor, so it works for immutable
+ * beans too, and allocates the bean, its arrays and strings, plus one scratch
+ * {@code char[]} per string. Strings and arrays are written and read by
+ * private static helpers, one per type, that the codec methods share.
+ * <p>
+ * Decoding checks each length against the bytes left in the buffer before
+ * allocating, so a corrupt or hostile length throws
+ * {@code BufferUnderflowException} rather than allocating up to 2^31
+ * elements. An attribute that no bean can hold {@code null}, such as a
+ * {@code !!} one, throws the {@code NullPointerException} its setter would
+ * if it is missing from the bitmap. A {@code !} attribute of a mutable bean
+ * may be {@code null} until it is set, so it round-trips as {@code null}.
+ */
+class CodecBuilder {
+    private static final String STRING_DESC = "Ljava/lang/String;";
+
+    private static final String BYTE_BUFFER = "java/nio/ByteBuffer";
+
+    private static final String BYTE_BUFFER_DESC = "L" + BYTE_BUFFER + ";";
+
+    private static final String WRITE_HELPER = "write$";
+
+    private static final String READ_HELPER = "read$";
+
+    private final ClassVisitor cv;
+    private final String name;
+    private final List<FieldNode> attributes;
+    private final Set<FieldNode> nonNull;
+    private final List<FieldNode> references = new ArrayList<>();
+    private final Set<String> helpers = new LinkedHashSet<>();
+
+    /**
+     * @param nonNull the attributes that can't be {@code null} once the bean
+     *                is constructed, which decoding requires
+     */
+    CodecBuilder(ClassVisitor cv, String name, List<FieldNode> attributes, Set<FieldNode> nonNull) {
+        this.cv = cv;
+        this.name = name;
+        this.attributes = attributes;
+        this.nonNull = nonNull;
+        for (FieldNode fn : attributes) {
+            if (!isPrimitive(fn.desc)) {
+                references.add(fn);
+                requireHelpers(fn.desc);
+            }
+        }
+    }
+
+    /**
+     * @return true if attributes with generic signature {@code signature} can
+     *         be encoded
+     */
+    static boolean isEncodable(String signature) {
+        String element = signature.substring(signature.lastIndexOf('[') + 1);
+        return isPrimitive(element) || element.equals(STRING_DESC);
+    }
+
+    void addCodec() {
+        addWriteTo();
+        addDecodingConstructor();
+        addReadFrom();
+        for (String desc : helpers) {
+            if (desc.equals(STRING_DESC)) {
+                addStringWriter();
+                addStringReader();
+            } else {
+                addArrayWriter(desc);
+                addArrayReader(desc);
+            }
+        }
+    }
+
+    private void requireHelpers(String desc) {
+        if (desc.startsWith("[") && !isPrimitive(desc.substring(1))) {
+            requireHelpers(desc.substring(1));
+        }
+        helpers.add(desc);
+    }
+
+    private int bitmapBytes() {
+        return (references.size() + 7) / 8;
+    }
+
+    /**
+     * {@code public void writeTo(ByteBuffer buffer)}
+     */
+    private void addWriteTo() {
+        MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC, "writeTo", "(" + BYTE_BUFFER_DESC + ")V", null, null);
+        Object[] locals = { name, BYTE_BUFFER };
+        mv.visitCode();
+
+        for (int i = 0; i < references.size(); i += 8) {
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitInsn(Opcodes.ICONST_0);
+            for (int bit = 0; bit < 8 && i + bit < references.size(); bit++) {
+                FieldNode fn = references.get(i + bit);
+                Label isNull = new Label();
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, fn.desc);
+                mv.visitJumpInsn(Opcodes.IFNULL, isNull);
+                pushInt(mv, 1 << bit);
+                mv.visitInsn(Opcodes.IOR);
+                mv.visitLabel(isNull);
+                mv.visitFrame(Opcodes.F_FULL, locals.length, locals, 2, new Object[] { BYTE_BUFFER, Opcodes.INTEGER });
+            }
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "put", "(B)" + BYTE_BUFFER_DESC, false);
+            mv.visitInsn(Opcodes.POP);
+        }
+
+        for (FieldNode fn : attributes) {
+            if (isPrimitive(fn.desc)) {
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, fn.desc);
+                addPut(mv, fn.desc);
+                continue;
+            }
+            Label isNull = new Label();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, fn.desc);
+            mv.visitJumpInsn(Opcodes.IFNULL, isNull);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, fn.desc);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, WRITE_HELPER,
+                    "(" + BYTE_BUFFER_DESC + fn.desc + ")V", false);
+            mv.visitLabel(isNull);
+            mv.visitFrame(Opcodes.F_FULL, locals.length, locals, 0, new Object[0]);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(4, 2);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private Bean(ByteBuffer buffer)}, which reads the bitmap into
+     * locals 2 and up, then every attribute straight into its field.
+     */
+    private void addDecodingConstructor() {
+        MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PRIVATE, "<init>", "(" + BYTE_BUFFER_DESC + ")V", null, null);
+        Object[] locals = new Object[2 + bitmapBytes()];
+        locals[0] = name;
+        locals[1] = BYTE_BUFFER;
+        for (int i = 2; i < locals.length; i++) {
+            locals[i] = Opcodes.INTEGER;
+        }
+
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        for (int i = 0; i < bitmapBytes(); i++) {
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "get", "()B", false);
+            mv.visitVarInsn(Opcodes.ISTORE, 2 + i);
+        }
+
+        for (FieldNode fn : attributes) {
+            if (isPrimitive(fn.desc)) {
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitVarInsn(Opcodes.ALOAD, 1);
+                addGet(mv, fn.desc);
+                mv.visitFieldInsn(Opcodes.PUTFIELD, name, fn.name, fn.desc);
+                continue;
+            }
+            int index = references.indexOf(fn);
+            Label isNull = new Label();
+            mv.visitVarInsn(Opcodes.ILOAD, 2 + index / 8);
+            pushInt(mv, 1 << (index % 8));
+            mv.visitInsn(Opcodes.IAND);
+            if (nonNull.contains(fn)) {
+                Label present = new Label();
+                mv.visitJumpInsn(Opcodes.IFNE, present);
+                addThrow(mv, "java/lang/NullPointerException");
+                mv.visitLabel(present);
+                mv.visitFrame(Opcodes.F_FULL, locals.length, locals, 0, new Object[0]);
+            } else {
+                mv.visitJumpInsn(Opcodes.IFEQ, isNull);
+            }
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, READ_HELPER, "(" + BYTE_BUFFER_DESC + ")" + fn.desc, false);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, name, fn.name, fn.desc);
+            if (!nonNull.contains(fn)) {
+                mv.visitLabel(isNull);
+                mv.visitFrame(Opcodes.F_FULL, locals.length, locals, 0, new Object[0]);
+            }
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(4, locals.length);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code public static Bean readFrom(ByteBuffer buffer)}
+     */
+    private void addReadFrom() {
+        MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC, "readFrom",
+                "(" + BYTE_BUFFER_DESC + ")L" + name + ";", null, null);
+        mv.visitCode();
+        mv.visitTypeInsn(Opcodes.NEW, name);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, name, "<init>", "(" + BYTE_BUFFER_DESC + ")V", false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(3, 1);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void write$(ByteBuffer buffer, String s)}
+     */
+    private void addStringWriter() {
+        MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC, WRITE_HELPER,
+                "(" + BYTE_BUFFER_DESC + STRING_DESC + ")V", null, null);
+        Label notNull = new Label();
+        Label loop = new Label();
+        Label end = new Label();
+        Object[] locals = { BYTE_BUFFER, "java/lang/String", Opcodes.INTEGER, Opcodes.INTEGER };
+
+        mv.visitCode();
+        addNullLength(mv, notNull);
+        mv.visitLabel(notNull);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+        mv.visitVarInsn(Opcodes.ISTORE, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        addPut(mv, "I");
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 3);
+
+        mv.visitLabel(loop);
+        mv.visitFrame(Opcodes.F_FULL, 4, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C", false);
+        addPut(mv, "C");
+        mv.visitIincInsn(3, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, loop);
+
+        mv.visitLabel(end);
+        mv.visitFrame(Opcodes.F_FULL, 4, locals, 0, new Object[0]);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(3, 4);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static String read$(ByteBuffer buffer)}
+     */
+    private void addStringReader() {
+        MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC, READ_HELPER,
+                "(" + BYTE_BUFFER_DESC + ")" + STRING_DESC, null, null);
+        Label notNull = new Label();
+        Label loop = new Label();
+        Label end = new Label();
+        Object[] locals = { BYTE_BUFFER, Opcodes.INTEGER, "[C", Opcodes.INTEGER };
+
+        mv.visitCode();
+        addReadLength(mv, notNull, 2);
+        mv.visitLabel(notNull);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_CHAR);
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 3);
+
+        mv.visitLabel(loop);
+        mv.visitFrame(Opcodes.F_FULL, 4, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        addGet(mv, "C");
+        mv.visitInsn(Opcodes.CASTORE);
+        mv.visitIincInsn(3, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, loop);
+
+        mv.visitLabel(end);
+        mv.visitFrame(Opcodes.F_FULL, 4, locals, 0, new Object[0]);
+        mv.visitTypeInsn(Opcodes.NEW, "java/lang/String");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/String", "<init>", "([C)V", false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(3, 4);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void write$(ByteBuffer buffer, T[] array)}; byte
+     * arrays are written in bulk, anything else element by element.
+     */
+    private void addArrayWriter(String desc) {
+        String element = desc.substring(1);
+        MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC, WRITE_HELPER,
+                "(" + BYTE_BUFFER_DESC + desc + ")V", null, null);
+        Label notNull = new Label();
+        Label loop = new Label();
+        Label end = new Label();
+        Object[] locals = { BYTE_BUFFER, desc, Opcodes.INTEGER };
+
+        mv.visitCode();
+        addNullLength(mv, notNull);
+        mv.visitLabel(notNull);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitInsn(Opcodes.ARRAYLENGTH);
+        addPut(mv, "I");
+        if (element.equals("B")) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "put", "([B)" + BYTE_BUFFER_DESC, false);
+            mv.visitInsn(Opcodes.POP);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(3, 2);
+            mv.visitEnd();
+            return;
+        }
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 2);
+
+        mv.visitLabel(loop);
+        mv.visitFrame(Opcodes.F_FULL, 3, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitInsn(Opcodes.ARRAYLENGTH);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitInsn(Type.getType(element).getOpcode(Opcodes.IALOAD));
+        if (isPrimitive(element)) {
+            addPut(mv, element);
+        } else {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, WRITE_HELPER,
+                    "(" + BYTE_BUFFER_DESC + element + ")V", false);
+        }
+        mv.visitIincInsn(2, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, loop);
+
+        mv.visitLabel(end);
+        mv.visitFrame(Opcodes.F_FULL, 3, locals, 0, new Object[0]);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(4, 3);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static T[] read$(ByteBuffer buffer)}
+     */
+    private void addArrayReader(String desc) {
+        String element = desc.substring(1);
+        MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC, READ_HELPER,
+                "(" + BYTE_BUFFER_DESC + ")" + desc, null, null);
+        Label notNull = new Label();
+        Label loop = new Label();
+        Label end = new Label();
+        Object[] locals = { BYTE_BUFFER, Opcodes.INTEGER, desc, Opcodes.INTEGER };
+
+        mv.visitCode();
+        addReadLength(mv, notNull, encodedWidth(element));
+        mv.visitLabel(notNull);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        addNewArray(mv, element);
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        if (element.equals("B")) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, 2);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "get", "([B)" + BYTE_BUFFER_DESC, false);
+            mv.visitInsn(Opcodes.POP);
+            mv.visitVarInsn(Opcodes.ALOAD, 2);
+            mv.visitInsn(Opcodes.ARETURN);
+            mv.visitMaxs(3, 3);
+            mv.visitEnd();
+            return;
+        }
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 3);
+
+        mv.visitLabel(loop);
+        mv.visitFrame(Opcodes.F_FULL, 4, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        if (isPrimitive(element)) {
+            addGet(mv, element);
+        } else {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, READ_HELPER, "(" + BYTE_BUFFER_DESC + ")" + element, false);
+        }
+        mv.visitInsn(Type.getType(element).getOpcode(Opcodes.IASTORE));
+        mv.visitIincInsn(3, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, loop);
+
+        mv.visitLabel(end);
+        mv.visitFrame(Opcodes.F_FULL, 4, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(5, 4);
+        mv.visitEnd();
+    }
+
+    /**
+     * Writes length -1 and returns if local 1 is {@code null}, otherwise jumps
+     * to {@code notNull}.
+     */
+    private void addNullLength(MethodVisitor mv, Label notNull) {
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitJumpInsn(Opcodes.IFNONNULL, notNull);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.ICONST_M1);
+        addPut(mv, "I");
+        mv.visitInsn(Opcodes.RETURN);
+    }
+
+    /**
+     * Reads a length into local 1 and returns {@code null} if it is negative,
+     * throws if the buffer has too few bytes left for that many elements of at
+     * least {@code width} bytes, otherwise jumps to {@code notNull}.
+     */
+    private void addReadLength(MethodVisitor mv, Label notNull, int width) {
+        Label checkLength = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        addGet(mv, "I");
+        mv.visitVarInsn(Opcodes.ISTORE, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitJumpInsn(Opcodes.IFGE, checkLength);
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        mv.visitInsn(Opcodes.ARETURN);
+
+        mv.visitLabel(checkLength);
+        mv.visitFrame(Opcodes.F_FULL, 2, new Object[] { BYTE_BUFFER, Opcodes.INTEGER }, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "remaining", "()I", false);
+        if (width > 1) {
+            pushInt(mv, width);
+            mv.visitInsn(Opcodes.IDIV);
+        }
+        mv.visitJumpInsn(Opcodes.IF_ICMPLE, notNull);
+        addThrow(mv, Type.getInternalName(BufferUnderflowException.class));
+    }
+
+    /**
+     * Throws a new {@code exception}, made with its no-argument constructor.
+     */
+    private static void addThrow(MethodVisitor mv, String exception) {
+        mv.visitTypeInsn(Opcodes.NEW, exception);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, exception, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.ATHROW);
+    }
+
+    /**
+     * Calls the relative {@code ByteBuffer} put for a primitive of type
+     * {@code desc} that is on the stack above the buffer, dropping the result.
+     */
+    private static void addPut(MethodVisitor mv, String desc) {
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "put" + accessorType(desc),
+                "(" + bufferDesc(desc) + ")" + BYTE_BUFFER_DESC, false);
+        mv.visitInsn(Opcodes.POP);
+    }
+
+    /**
+     * Calls the relative {@code ByteBuffer} get for a primitive of type
+     * {@code desc} on the buffer on the stack.
+     */
+    private static void addGet(MethodVisitor mv, String desc) {
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "get" + accessorType(desc),
+                "()" + bufferDesc(desc), false);
+    }
+
+    private static void addNewArray(MethodVisitor mv, String element) {
+        if (isPrimitive(element)) {
+            mv.visitIntInsn(Opcodes.NEWARRAY, newArrayType(element));
+        } else {
+            mv.visitTypeInsn(Opcodes.ANEWARRAY, Type.getType(element).getInternalName());
+        }
+    }
+
+    /**
+     * @return the fewest bytes an element of type {@code desc} is encoded in;
+     *         strings and arrays take at least their length
+     */
+    private static int encodedWidth(String desc) {
+        switch (desc.charAt(0)) {
+        case 'Z':
+        case 'B':
+            return 1;
+        case 'C':
+        case 'S':
+            return 2;
+        case 'J':
+        case 'D':
+            return 8;
+        default:
+            return 4;
+        }
+    }
+
+    private static int newArrayType(String desc) {
+        switch (desc.charAt(0)) {
+        case 'Z':
+            return Opcodes.T_BOOLEAN;
+        case 'B':
+            return Opcodes.T_BYTE;
+        case 'C':
+            return Opcodes.T_CHAR;
+        case 'S':
+            return Opcodes.T_SHORT;
+        case 'I':
+            return Opcodes.T_INT;
+        case 'J':
+            return Opcodes.T_LONG;
+        case 'F':
+            return Opcodes.T_FLOAT;
+        default:
+            return Opcodes.T_DOUBLE;
+        }
+    }
+
+    /**
+     * @return the suffix of the {@code ByteBuffer} accessors for {@code desc},
+     *         e.g. {@code Int} for {@code getInt}
+     */
+    private static String accessorType(String desc) {
+        switch (desc.charAt(0)) {
+        case 'C':
+            return "Char";
+        case 'S':
+            return "Short";
+        case 'I':
+            return "Int";
+        case 'J':
+            return "Long";
+        case 'F':
+            return "Float";
+        case 'D':
+            return "Double";
+        default:
+            return "";
+        }
+    }
+
+    /**
+     * @return the type {@code ByteBuffer} stores {@code desc} as; booleans are bytes
+     */
+    private static String bufferDesc(String desc) {
+        return "Z".equals(desc) ? "B" : desc;
+    }
+
+    private static boolean isPrimitive(String desc) {
+        return desc.length() == 1;
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        }
+    }
+}
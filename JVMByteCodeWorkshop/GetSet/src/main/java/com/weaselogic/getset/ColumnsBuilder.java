@@ -0,0 +1,590 @@
+package com.weaselogic.getset;
+
+import java.util.List;
+import java.util.Set;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.FieldNode;
+
+import com.weaselogic.getset.Compiler.Options;
+
+/**
+ * Writes the columnar container companion of a bean: a class that stores rows
+ * of the bean's attributes as one array per attribute, and a nested
+ * {@code Cursor} that gives a bean-shaped view of one row at a time.
+ * <p>
+ * For a bean {@code Point} with {@code x : int}, {@code PointColumns} has:
+ * <ul>
+ * <li>{@code size()}, {@code add()} for an empty row, {@code add(Point)} to
+ * copy a bean in, {@code addAll(PointColumns)} to append with
+ * {@code System.arraycopy}, {@code clear()} and {@code ensureCapacity(int)}</li>
+ * <li>{@code getX(int row)} and {@code setX(int row, int x)}, checked against
+ * {@code size()}</li>
+ * <li>{@code xColumn()}, the backing array itself, for scans that want to run
+ * over contiguous memory; only the first {@code size()} entries are rows and
+ * it is replaced when the container grows</li>
+ * <li>{@code cursor()}, a {@code PointColumns.Cursor} before the first row,
+ * with {@code next()}, {@code at(int row)}, {@code index()} and the bean's
+ * getters and setters</li>
+ * </ul>
+ * Capacity doubles as rows are added. Slots past {@code size()} are kept at
+ * zero or {@code null}, so new rows start out empty and cleared references
+ * can be collected. Setters of {@code !} and {@code !!} attributes reject
+ * {@code null}, but empty rows hold {@code null} until set. Columns use the
+ * erasure of generic attribute types.
+ */
+class ColumnsBuilder {
+    /** Appended to the bean's name. */
+    static final String SUFFIX = "Columns";
+
+    private static final String CURSOR = "Cursor";
+
+    private static final String COLUMN = "Column";
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final String OBJECT = "java/lang/Object";
+
+    private static final String ARRAYS = "java/util/Arrays";
+
+    private final String beanName;
+    private final String name;
+    private final String cursorName;
+    private final String sourceFile;
+    private final List<FieldNode> attributes;
+    private final List<Set<Options>> options;
+
+    /**
+     * @param beanName   internal name of the bean
+     * @param attributes the bean's fields in schema order
+     * @param options    the options of each attribute
+     */
+    ColumnsBuilder(String beanName, String sourceFile, List<FieldNode> attributes, List<Set<Options>> options) {
+        this.beanName = beanName;
+        this.name = beanName + SUFFIX;
+        this.cursorName = name + "$" + CURSOR;
+        this.sourceFile = sourceFile;
+        this.attributes = attributes;
+        this.options = options;
+    }
+
+    /**
+     * @return the binary name of the container class, with dots
+     */
+    String getClassName() {
+        return name.replace('/', '.');
+    }
+
+    String getCursorClassName() {
+        return cursorName.replace('/', '.');
+    }
+
+    byte[] toByteArray() {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL + Opcodes.ACC_SUPER,
+                name, null, OBJECT, null);
+        if (sourceFile != null) {
+            cw.visitSource(sourceFile, null);
+        }
+        visitCursorInnerClass(cw);
+
+        for (FieldNode fn : attributes) {
+            cw.visitField(Opcodes.ACC_PRIVATE, fn.name, columnDesc(fn), null, null).visitEnd();
+        }
+        cw.visitField(Opcodes.ACC_PRIVATE, "size", "I", null, null).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE, "capacity", "I", null, null).visitEnd();
+
+        addConstructors(cw);
+        addSize(cw);
+        addEnsureCapacity(cw);
+        addAdd(cw);
+        addAddBean(cw);
+        addAddAll(cw);
+        addClear(cw);
+        addCheckIndex(cw);
+        for (int i = 0; i < attributes.size(); i++) {
+            FieldNode fn = attributes.get(i);
+            addGetter(cw, fn);
+            addSetter(cw, fn, options.get(i).contains(Options.NOT_NULL)
+                    || options.get(i).contains(Options.NEVER_NULL));
+            addColumn(cw, fn);
+        }
+        addCursorFactory(cw);
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    byte[] toCursorByteArray() {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL + Opcodes.ACC_SUPER,
+                cursorName, null, OBJECT, null);
+        if (sourceFile != null) {
+            cw.visitSource(sourceFile, null);
+        }
+        visitCursorInnerClass(cw);
+
+        String columnsDesc = "L" + name + ";";
+        cw.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL, "columns", columnsDesc, null, null).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE, "index", "I", null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(0, "<init>", "(" + columnsDesc + ")V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, cursorName, "columns", columnsDesc);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.ICONST_M1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, cursorName, "index", "I");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(2, 2);
+        mv.visitEnd();
+
+        // boolean next(): moves to the next row, if there is one
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, "next", "()Z", null, null);
+        Label hasNext = new Label();
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, cursorName, "index", "I");
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitVarInsn(Opcodes.ISTORE, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, cursorName, "columns", columnsDesc);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "size", "()I", false);
+        mv.visitJumpInsn(Opcodes.IF_ICMPLT, hasNext);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitLabel(hasNext);
+        mv.visitFrame(Opcodes.F_FULL, 2, new Object[] { cursorName, Opcodes.INTEGER }, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, cursorName, "index", "I");
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(2, 2);
+        mv.visitEnd();
+
+        // Cursor at(int row)
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, "at", "(I)L" + cursorName + ";", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, cursorName, "index", "I");
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(2, 2);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, "index", "()I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, cursorName, "index", "I");
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+
+        for (FieldNode fn : attributes) {
+            Type type = Type.getType(fn.desc);
+
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, getterName(fn),
+                    "()" + fn.desc, null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, cursorName, "columns", columnsDesc);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, cursorName, "index", "I");
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, getterName(fn), "(I)" + fn.desc, false);
+            mv.visitInsn(type.getOpcode(Opcodes.IRETURN));
+            mv.visitMaxs(2, 1);
+            mv.visitEnd();
+
+            mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, setterName(fn),
+                    "(" + fn.desc + ")V", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, cursorName, "columns", columnsDesc);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, cursorName, "index", "I");
+            mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, setterName(fn), "(I" + fn.desc + ")V", false);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(2 + type.getSize(), 1 + type.getSize());
+            mv.visitEnd();
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private void visitCursorInnerClass(ClassWriter cw) {
+        cw.visitInnerClass(cursorName, name, CURSOR,
+                Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC + Opcodes.ACC_FINAL);
+    }
+
+    private void addConstructors(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitIntInsn(Opcodes.BIPUSH, DEFAULT_CAPACITY);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, name, "<init>", "(I)V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(2, 1);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(I)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        for (FieldNode fn : attributes) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            addNewArray(mv, fn.desc);
+            mv.visitFieldInsn(Opcodes.PUTFIELD, name, fn.name, columnDesc(fn));
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "capacity", "I");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(2, 2);
+        mv.visitEnd();
+    }
+
+    private void addSize(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, "size", "()I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "size", "I");
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code ensureCapacity(int rows)}: grows every column to
+     * {@code max(2 * capacity, rows)} if they hold fewer than {@code rows}.
+     */
+    private void addEnsureCapacity(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL,
+                "ensureCapacity", "(I)V", null, null);
+        Label done = new Label();
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "capacity", "I");
+        mv.visitJumpInsn(Opcodes.IF_ICMPLE, done);
+
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "capacity", "I");
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.ISHL);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "max", "(II)I", false);
+        mv.visitVarInsn(Opcodes.ISTORE, 2);
+        for (FieldNode fn : attributes) {
+            String columnDesc = columnDesc(fn);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, columnDesc);
+            mv.visitVarInsn(Opcodes.ILOAD, 2);
+            if (isPrimitive(fn.desc)) {
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, ARRAYS, "copyOf",
+                        "(" + columnDesc + "I)" + columnDesc, false);
+            } else {
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, ARRAYS, "copyOf",
+                        "([Ljava/lang/Object;I)[Ljava/lang/Object;", false);
+                mv.visitTypeInsn(Opcodes.CHECKCAST, columnDesc);
+            }
+            mv.visitFieldInsn(Opcodes.PUTFIELD, name, fn.name, columnDesc);
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "capacity", "I");
+
+        mv.visitLabel(done);
+        mv.visitFrame(Opcodes.F_FULL, 2, new Object[] { name, Opcodes.INTEGER }, 0, new Object[0]);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(3, 3);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code int add()}: appends an empty row and returns its index.
+     */
+    private void addAdd(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, "add", "()I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "size", "I");
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "ensureCapacity", "(I)V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "size", "I");
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "size", "I");
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "size", "I");
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(4, 1);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code int add(Bean bean)}: appends a row holding the bean's attributes.
+     */
+    private void addAddBean(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, "add",
+                "(L" + beanName + ";)I", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "add", "()I", false);
+        mv.visitVarInsn(Opcodes.ISTORE, 2);
+        for (FieldNode fn : attributes) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, columnDesc(fn));
+            mv.visitVarInsn(Opcodes.ILOAD, 2);
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, beanName, getterName(fn), "()" + fn.desc, false);
+            mv.visitInsn(Type.getType(fn.desc).getOpcode(Opcodes.IASTORE));
+        }
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(4, 3);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code addAll(Columns other)}: appends every row of {@code other}.
+     */
+    private void addAddAll(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, "addAll",
+                "(L" + name + ";)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "size", "I");
+        mv.visitVarInsn(Opcodes.ISTORE, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "size", "I");
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "ensureCapacity", "(I)V", false);
+        for (FieldNode fn : attributes) {
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, columnDesc(fn));
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, columnDesc(fn));
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, name, "size", "I");
+            mv.visitVarInsn(Opcodes.ILOAD, 2);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy",
+                    "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "size", "I");
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitInsn(Opcodes.IADD);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "size", "I");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(5, 3);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code clear()}: zeroes the rows in use, then forgets them.
+     */
+    private void addClear(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, "clear", "()V", null, null);
+        mv.visitCode();
+        for (FieldNode fn : attributes) {
+            String fillDesc = isPrimitive(fn.desc) ? fn.desc : "Ljava/lang/Object;";
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, columnDesc(fn));
+            mv.visitInsn(Opcodes.ICONST_0);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitFieldInsn(Opcodes.GETFIELD, name, "size", "I");
+            addZero(mv, fn.desc);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, ARRAYS, "fill",
+                    "([" + fillDesc + "II" + fillDesc + ")V", false);
+        }
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "size", "I");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(5, 1);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private int checkIndex(int row)}: returns {@code row} if it is
+     * below {@code size()}; negative rows are left to the array access.
+     */
+    private void addCheckIndex(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "checkIndex", "(I)I", null, null);
+        Label inRange = new Label();
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "size", "I");
+        mv.visitJumpInsn(Opcodes.IF_ICMPLT, inRange);
+        mv.visitTypeInsn(Opcodes.NEW, "java/lang/ArrayIndexOutOfBoundsException");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/ArrayIndexOutOfBoundsException",
+                "<init>", "(I)V", false);
+        mv.visitInsn(Opcodes.ATHROW);
+        mv.visitLabel(inRange);
+        mv.visitFrame(Opcodes.F_FULL, 2, new Object[] { name, Opcodes.INTEGER }, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(3, 2);
+        mv.visitEnd();
+    }
+
+    private void addGetter(ClassWriter cw, FieldNode fn) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, getterName(fn),
+                "(I)" + fn.desc, null, null);
+        Type type = Type.getType(fn.desc);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, columnDesc(fn));
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, name, "checkIndex", "(I)I", false);
+        mv.visitInsn(type.getOpcode(Opcodes.IALOAD));
+        mv.visitInsn(type.getOpcode(Opcodes.IRETURN));
+        mv.visitMaxs(3, 2);
+        mv.visitEnd();
+    }
+
+    private void addSetter(ClassWriter cw, FieldNode fn, boolean nonNull) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, setterName(fn),
+                "(I" + fn.desc + ")V", null, null);
+        Type type = Type.getType(fn.desc);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, columnDesc(fn));
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, name, "checkIndex", "(I)I", false);
+        mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 2);
+        if (nonNull) {
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Objects", "requireNonNull",
+                    "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+            mv.visitInsn(Opcodes.POP);
+        }
+        mv.visitInsn(type.getOpcode(Opcodes.IASTORE));
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(3 + type.getSize(), 2 + type.getSize());
+        mv.visitEnd();
+    }
+
+    private void addColumn(ClassWriter cw, FieldNode fn) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, fn.name + COLUMN,
+                "()" + columnDesc(fn), null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, columnDesc(fn));
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+    }
+
+    private void addCursorFactory(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, "cursor",
+                "()L" + cursorName + ";", null, null);
+        mv.visitCode();
+        mv.visitTypeInsn(Opcodes.NEW, cursorName);
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, cursorName, "<init>", "(L" + name + ";)V", false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(3, 1);
+        mv.visitEnd();
+    }
+
+    private static void addNewArray(MethodVisitor mv, String desc) {
+        switch (desc.charAt(0)) {
+        case 'Z':
+            mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_BOOLEAN);
+            break;
+        case 'B':
+            mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_BYTE);
+            break;
+        case 'C':
+            mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_CHAR);
+            break;
+        case 'S':
+            mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_SHORT);
+            break;
+        case 'I':
+            mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+            break;
+        case 'J':
+            mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_LONG);
+            break;
+        case 'F':
+            mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_FLOAT);
+            break;
+        case 'D':
+            mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_DOUBLE);
+            break;
+        default:
+            mv.visitTypeInsn(Opcodes.ANEWARRAY, Type.getType(desc).getInternalName());
+        }
+    }
+
+    private static void addZero(MethodVisitor mv, String desc) {
+        switch (desc.charAt(0)) {
+        case 'J':
+            mv.visitInsn(Opcodes.LCONST_0);
+            break;
+        case 'F':
+            mv.visitInsn(Opcodes.FCONST_0);
+            break;
+        case 'D':
+            mv.visitInsn(Opcodes.DCONST_0);
+            break;
+        case 'L':
+        case '[':
+            mv.visitInsn(Opcodes.ACONST_NULL);
+            break;
+        default:
+            mv.visitInsn(Opcodes.ICONST_0);
+        }
+    }
+
+    private static boolean isPrimitive(String desc) {
+        return desc.length() == 1;
+    }
+
+    private static String columnDesc(FieldNode fn) {
+        return "[" + fn.desc;
+    }
+
+    private static String getterName(FieldNode fn) {
+        return ("Z".equals(fn.desc) ? "is" : "get") + capitalize(fn.name);
+    }
+
+    private static String setterName(FieldNode fn) {
+        return "set" + capitalize(fn.name);
+    }
+
+    private static String capitalize(String attrName) {
+        return Character.toUpperCase(attrName.charAt(0)) + attrName.substring(1);
+    }
+}
@@ -0,0 +1,498 @@
+package com.weaselogic.getset;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiles sources on request for as long as the process lives, so editors
+ * and build scripts pay for JVM startup, class loading and a cold JIT once
+ * rather than on every file.
+ * <p>
+ * The daemon listens on a loopback port, which any local user can connect
+ * to, so it writes a random token to a file only its own user can read, in
+ * the state directory it is given, and serves only connections that first
+ * send {@code auth <token>}. Others are answered {@code error Not authorized}
+ * and closed, as are connections that send nothing for a few seconds or an
+ * overlong first line, so a client without the token holds a thread only
+ * briefly and can't make the daemon buffer unbounded input. After that it
+ * reads one request per line, answering each with one line:
+ * <ul>
+ * <li>{@code compile <source file> [<output dir>]} writes the class, and any
+ * companions, under the output directory by package, or next to the source
+ * without one, and answers {@code ok <binary name> <micros>} or
+ * {@code error <message>}</li>
+ * <li>{@code stats} answers {@code ok} with the request and cache counts</li>
+ * <li>{@code shutdown} answers {@code ok} and stops the daemon</li>
+ * </ul>
+ * Words are separated by spaces, so paths can't contain any, and are
+ * resolved against the daemon's working directory. Each connection is read
+ * on a thread of its own, so an editor keeping one open costs a blocked
+ * thread and nothing else, while the requests themselves run on a fixed pool
+ * of worker threads. Type resolution is shared by every
+ * request, as in a {@link BatchCompiler}, and the outputs of the most recent
+ * sources are kept by path and content hash, so saving a file unchanged, or
+ * building a tree that was built before, only writes the class files again.
+ * <p>
+ * When a source stops producing a companion, say because it dropped
+ * {@code flyweight}, the companion's class file is deleted, but only if this
+ * daemon wrote it; files left by an earlier daemon or a batch build stay.
+ */
+public class CompileDaemon {
+    /** How many recently compiled sources keep their class files in memory by default. */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    private static final String COMPILE = "compile";
+
+    private static final String STATS = "stats";
+
+    private static final String SHUTDOWN = "shutdown";
+
+    private static final String AUTH = "auth ";
+
+    /** How long a new connection has to authenticate by default. */
+    private static final int AUTH_TIMEOUT_MILLIS = 5000;
+
+    /** The longest first line read; a token line is far shorter. */
+    private static final int MAX_AUTH_LINE = 256;
+
+    /** The name of the token file in the state directory, by port. */
+    private static final String TOKEN_FILE = "daemon-%d.token";
+
+    private static final Set<PosixFilePermission> USER_ONLY_DIR = PosixFilePermissions.fromString("rwx------");
+
+    private static final Set<PosixFilePermission> USER_ONLY_FILE = PosixFilePermissions.fromString("rw-------");
+
+    private final ServerSocket server;
+    private final byte[] token;
+    private final Path tokenFile;
+    private final ExecutorService connections;
+    private final ExecutorService workers;
+    private final Map<String, Map<String, byte[]>> outputs;
+    /** The class files last written for each source, by the path of its class. */
+    private final Map<Path, Set<Path>> written = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private ClassIndex classIndex;
+    private ResolutionCache resolutionCache = new ResolutionCache();
+    private boolean packedFields;
+    private int authTimeout = AUTH_TIMEOUT_MILLIS;
+
+    /**
+     * Binds the daemon's port and writes its token file; nothing is served
+     * until {@link #run()}.
+     *
+     * @param port      the loopback port to listen on, or 0 for any free one
+     * @param threads   how many requests are served at once
+     * @param cacheSize how many sources keep their outputs in memory
+     * @param stateDir  where the token file is written, created user-only if
+     *                  it does not exist
+     */
+    public CompileDaemon(int port, int threads, final int cacheSize, Path stateDir) throws IOException {
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        this.token = toHex(random).getBytes(StandardCharsets.US_ASCII);
+        this.tokenFile = stateDir.resolve(String.format(TOKEN_FILE, getPort()));
+        try {
+            writeToken(stateDir);
+        } catch (IOException | RuntimeException x) {
+            server.close();
+            throw x;
+        }
+        this.connections = Executors.newCachedThreadPool(daemonThreads("getset-connection-"));
+        this.workers = Executors.newFixedThreadPool(threads, daemonThreads("getset-daemon-"));
+        this.outputs = new LinkedHashMap<String, Map<String, byte[]>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, byte[]>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @return the port the daemon listens on
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return the file holding the token clients authenticate with
+     */
+    public Path getTokenFile() {
+        return tokenFile;
+    }
+
+    /**
+     * @see BatchCompiler#setClassIndex(ClassIndex)
+     */
+    public void setClassIndex(ClassIndex classIndex) {
+        this.classIndex = classIndex;
+        this.resolutionCache = new ResolutionCache();
+        clearOutputs();
+    }
+
+    /**
+     * @see Compiler#setPackedFields(boolean)
+     */
+    public void setPackedFields(boolean packedFields) {
+        this.packedFields = packedFields;
+        clearOutputs();
+    }
+
+    /**
+     * Sets how long a new connection has to send its {@code auth} line.
+     */
+    void setAuthTimeout(int millis) {
+        this.authTimeout = millis;
+    }
+
+    /**
+     * Accepts connections until {@link #shutdown()}, reading each on a thread
+     * of its own.
+     */
+    public void run() throws IOException {
+        try {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException x) {
+                    if (server.isClosed()) {
+                        return;
+                    }
+                    throw x;
+                }
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            }
+        } finally {
+            connections.shutdown();
+            workers.shutdown();
+        }
+    }
+
+    /**
+     * Stops accepting connections; requests in progress are completed.
+     * Connections still open are read until their clients close them.
+     */
+    public void shutdown() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            // closing is all that was wanted
+        }
+        try {
+            Files.deleteIfExists(tokenFile);
+        } catch (IOException e) {
+            // a stale token is useless without the daemon
+        }
+    }
+
+    /**
+     * Waits for the requests in progress once the daemon has stopped.
+     */
+    public void awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        workers.awaitTermination(timeout, unit);
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+            s.setSoTimeout(authTimeout);
+            if (!isAuthorized(readAuthLine(in))) {
+                out.write("error Not authorized\n");
+                out.flush();
+                return;
+            }
+            // authorized clients may keep the connection open as long as they like
+            s.setSoTimeout(0);
+            out.write("ok\n");
+            out.flush();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                out.write(answer(line.trim()));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            // the client went away or the daemon stopped; its requests are complete or abandoned
+        }
+    }
+
+    /**
+     * @return the first line, or {@code null} if the client closed the
+     *         connection, took too long or sent more than
+     *         {@link #MAX_AUTH_LINE} chars without a line break
+     */
+    private static String readAuthLine(Reader in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        try {
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                if (line.length() == MAX_AUTH_LINE) {
+                    return null;
+                }
+                line.append((char) c);
+            }
+            return c == -1 ? null : line.toString().trim();
+        } catch (SocketTimeoutException x) {
+            return null;
+        }
+    }
+
+    private boolean isAuthorized(String line) {
+        if (line == null || !line.startsWith(AUTH)) {
+            return false;
+        }
+        byte[] given = line.substring(AUTH.length()).trim().getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(token, given);
+    }
+
+    /**
+     * Writes the token to a file only this user can read: created with
+     * owner-only permissions where the file system has POSIX permissions,
+     * and relying on the state directory's access control elsewhere.
+     */
+    private void writeToken(Path stateDir) throws IOException {
+        boolean posix = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+        if (posix) {
+            Files.createDirectories(stateDir, PosixFilePermissions.asFileAttribute(USER_ONLY_DIR));
+        } else {
+            Files.createDirectories(stateDir);
+        }
+        Files.deleteIfExists(tokenFile);
+        if (posix) {
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(USER_ONLY_FILE));
+        } else {
+            Files.createFile(tokenFile);
+        }
+        Files.write(tokenFile, token);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the answer to one request line, computed on a worker thread
+     */
+    private String answer(final String request) throws InterruptedException {
+        Future<String> answer;
+        try {
+            answer = workers.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return handle(request);
+                }
+            });
+        } catch (RejectedExecutionException x) {
+            return "error The daemon has stopped";
+        }
+        try {
+            return answer.get();
+        } catch (ExecutionException x) {
+            return "error " + describe(x.getCause());
+        }
+    }
+
+    /**
+     * @return the answer to one request line, without the line break
+     */
+    String handle(String request) {
+        requests.incrementAndGet();
+        String[] words = request.split("\\s+");
+        switch (words[0]) {
+        case COMPILE:
+            if (words.length < 2 || words.length > 3) {
+                return "error Usage: compile <source file> [<output dir>]";
+            }
+            long start = System.nanoTime();
+            try {
+                String className = compile(Paths.get(words[1]), words.length == 3 ? Paths.get(words[2]) : null);
+                return String.format("ok %s %d", className, (System.nanoTime() - start) / 1000);
+            } catch (CompileException | InvalidPathException x) {
+                return "error " + describe(x);
+            }
+        case STATS:
+            return String.format("ok %d requests, %d cached outputs, %d output cache hits, type resolution: %s",
+                    requests.get(), cachedOutputs(), cacheHits.get(), resolutionCache);
+        case SHUTDOWN:
+            shutdown();
+            return "ok";
+        default:
+            return "error Unknown request " + words[0];
+        }
+    }
+
+    /**
+     * Compiles {@code source}, or takes its outputs from the cache, and writes them.
+     *
+     * @param outputDir the root of the package directories, or {@code null}
+     *                  to write next to the source
+     * @return the binary name of the class compiled
+     */
+    String compile(Path source, Path outputDir) throws CompileException {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(source);
+        } catch (IOException e) {
+            throw new CompileException(String.format("Unable to read file %s", source), e);
+        }
+        String key = source.toAbsolutePath().normalize() + "\n" + BuildManifest.hash(content);
+
+        Map<String, byte[]> classes;
+        synchronized (outputs) {
+            classes = outputs.get(key);
+        }
+        if (classes != null) {
+            cacheHits.incrementAndGet();
+        } else {
+            classes = compile(source, content);
+            synchronized (outputs) {
+                outputs.put(key, classes);
+            }
+        }
+
+        String className = classes.keySet().iterator().next();
+        try {
+            Set<Path> files = new HashSet<>();
+            for (Map.Entry<String, byte[]> cls : classes.entrySet()) {
+                Path dest = destinationFor(source, outputDir, cls.getKey());
+                if (dest.getParent() != null) {
+                    Files.createDirectories(dest.getParent());
+                }
+                Files.write(dest, cls.getValue());
+                files.add(dest.toAbsolutePath().normalize());
+            }
+            Set<Path> previous = written.put(
+                    destinationFor(source, outputDir, className).toAbsolutePath().normalize(), files);
+            if (previous != null) {
+                for (Path stale : previous) {
+                    if (!files.contains(stale)) {
+                        Files.deleteIfExists(stale);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new CompileException(String.format("Unable to write the classes of %s", source), e);
+        }
+        return className;
+    }
+
+    /**
+     * @return the class compiled from {@code content} and its companions, by
+     *         binary name, the class first
+     */
+    private Map<String, byte[]> compile(Path source, byte[] content) throws CompileException {
+        Compiler cmp = new Compiler(source.getFileName().toString(),
+                new StringReader(new String(content, Charset.defaultCharset())), new StreamingClassBuilder());
+        cmp.setClassIndex(classIndex);
+        cmp.setResolutionCache(resolutionCache);
+        cmp.setPackedFields(packedFields);
+        byte[] code;
+        try {
+            code = cmp.compile();
+        } catch (RuntimeException x) {
+            throw new CompileException(String.format("Unable to compile %s", source), x);
+        }
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put(cmp.getClassName(), code);
+        classes.putAll(cmp.getCompanionClasses());
+        return classes;
+    }
+
+    private static Path destinationFor(Path source, Path outputDir, String className) {
+        String simpleName = className.substring(className.lastIndexOf('.') + 1);
+        if (outputDir == null) {
+            return source.resolveSibling(simpleName + BatchCompiler.CLASS_SUFFIX);
+        }
+        return outputDir.resolve(className.replace('.', '/') + BatchCompiler.CLASS_SUFFIX);
+    }
+
+    private static ThreadFactory daemonThreads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private int cachedOutputs() {
+        synchronized (outputs) {
+            return outputs.size();
+        }
+    }
+
+    private void clearOutputs() {
+        synchronized (outputs) {
+            outputs.clear();
+        }
+    }
+
+    private static String describe(Throwable x) {
+        StringBuilder sb = new StringBuilder(String.valueOf(x.getMessage()));
+        for (Throwable cause = x.getCause(); cause != null; cause = cause.getCause()) {
+            sb.append(" (").append(cause).append(')');
+        }
+        // one answer per line
+        return sb.toString().replace('\n', ' ');
+    }
+}
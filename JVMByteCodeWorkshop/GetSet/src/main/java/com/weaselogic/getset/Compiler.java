@@ -1,82 +1,137 @@
 package com.weaselogic.getset;
 
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Formatter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
 
 public class Compiler {
     public enum Options {
-        NOT_NULL, NEVER_NULL
+        NOT_NULL, NEVER_NULL,
+        /** Attribute option: a volatile field with atomic accessors. */
+        VOLATILE,
+        /** Class option: final class and accessors. */
+        FINAL,
+        /** Class option: {@code equals} and {@code hashCode} over all attributes. */
+        EQUALS,
+        /** Class option: final fields, an all-attribute constructor and {@code withX} copies. */
+        IMMUTABLE,
+        /** Compile option: fields declared widest first rather than in schema order. */
+        PACKED,
+        /** Class option: a companion class accessing records in a {@code ByteBuffer}. */
+        FLYWEIGHT,
+        /** Class option: a companion class storing rows as one array per attribute. */
+        COLUMNS,
+        /** Class option: {@code writeTo(ByteBuffer)} and {@code readFrom(ByteBuffer)}. */
+        CODEC,
+        /** Class option: {@code writeJson(Appendable)}. */
+        JSON,
+        /** Class option: never-null defaults allocated on first read rather than in the constructor. */
+        LAZY
     }
     
-	private static class TypeDeclaration {
-		final String rawType;
-		final String generic;
-		final boolean isGeneric;
-		
-		public TypeDeclaration(String typeDecl) {
-			typeDecl = typeDecl.trim();
-			if (typeDecl.contains("<")) {
-                generic = typeDecl.substring(typeDecl.indexOf('<'));
-                rawType = typeDecl.substring(0, typeDecl.indexOf('<'));
-                isGeneric = true;
-            } else {
-                generic = "";
-                rawType = typeDecl;
-                isGeneric = false;
-            }
-		}
-		
-		public TypeDeclaration(String rawType, String generic) {
-			this.rawType = rawType;
-			this.generic = generic;
-			isGeneric = !generic.isEmpty();
-		}
-	}
-	
     public static final String COMMENT = "#";
 
     public static final String PACKAGE = ">>";
 
-    public static final Pattern ATTRIBUTE_LINE = 
-            Pattern.compile("^\\s*([^:!]+)\\s*(:|!{1,2})\\s*([^:!]+)\\s*$");
-
     public static final String IMPORT = "<<";
-    
-    private static final Map<String, String> PRIMITIVE_DESCRIPTOR_MAP = new HashMap<>();
+
+    /** Suffix of an on-demand import, as in {@code << java.util.*}. */
+    public static final String WILDCARD_IMPORT = ".*";
+
+    private static final String IMPLICIT_IMPORT = "java.lang";
+
+    /** The JVM limit on method parameter slots; {@code this} takes one, {@code long} and {@code double} two. */
+    private static final int MAX_PARAMETER_SLOTS = 255;
+
+    /**
+     * Identifies the code generator. Bump it whenever the bytes emitted for an
+     * unchanged source change, or a source that compiled is now rejected, so
+     * incremental builds know to recompile.
+     */
+    public static final String VERSION = "1.0.6";
+
+    /**
+     * Source files at least this large are memory-mapped rather than read.
+     */
+    static final int LARGE_SOURCE_SIZE = 1 << 20;
+
+    /**
+     * Attribute sections larger than this are split at line boundaries and the
+     * pieces parsed in parallel, given more than one processor to do it on.
+     */
+    static final int PARSE_CHUNK_SIZE = 1 << 18;
+
+    private static final int DEFAULT_PARSE_CHUNK_SIZE =
+            Runtime.getRuntime().availableProcessors() > 1 ? PARSE_CHUNK_SIZE : Integer.MAX_VALUE;
+
+    private static final Map<String, Options> CLASS_MODIFIERS = new HashMap<>();
     static {
-        PRIMITIVE_DESCRIPTOR_MAP.put("byte", "B");
-        PRIMITIVE_DESCRIPTOR_MAP.put("char", "C");
-        PRIMITIVE_DESCRIPTOR_MAP.put("double", "D");
-        PRIMITIVE_DESCRIPTOR_MAP.put("float", "F");
-        PRIMITIVE_DESCRIPTOR_MAP.put("int", "I");
-        PRIMITIVE_DESCRIPTOR_MAP.put("long", "J");
-        PRIMITIVE_DESCRIPTOR_MAP.put("short", "S");
-        PRIMITIVE_DESCRIPTOR_MAP.put("boolean", "Z");
+        CLASS_MODIFIERS.put("final", Options.FINAL);
+        CLASS_MODIFIERS.put("equals", Options.EQUALS);
+        CLASS_MODIFIERS.put("immutable", Options.IMMUTABLE);
+        CLASS_MODIFIERS.put("flyweight", Options.FLYWEIGHT);
+        CLASS_MODIFIERS.put("columns", Options.COLUMNS);
+        CLASS_MODIFIERS.put("codec", Options.CODEC);
+        CLASS_MODIFIERS.put("json", Options.JSON);
+        CLASS_MODIFIERS.put("lazy", Options.LAZY);
+    }
+
+    private static class Attribute {
+        final String name;
+        final String signature;
+        final Set<Options> options;
+
+        Attribute(String name, String signature, Set<Options> options) {
+            this.name = name;
+            this.signature = signature;
+            this.options = options;
+        }
+    }
+
+    private static class ParsePool {
+        static final ForkJoinPool POOL = new ForkJoinPool();
     }
     
     private final Path src;
+    private final String sourceName;
+    private final Reader source;
     private final Map<String, String> importMap = new HashMap<>();
     private final ClassBuilder cBuilder;
+    private final StreamingClassBuilder streamingBuilder;
     private final List<String> genericParameters = new ArrayList<>();
+    private final Set<Options> classOptions = EnumSet.noneOf(Options.class);
+    private final SortedSet<String> resolvedTypes = new ConcurrentSkipListSet<>();
+    private final List<String> wildcardImports = new ArrayList<>(Arrays.asList(IMPLICIT_IMPORT));
+    private ClassIndex classIndex;
+    private ClassLoader classLoader = Compiler.class.getClassLoader();
+    private ResolutionCache resolutionCache;
+    private ResolutionCache.Context resolutionContext;
+    private int largeSourceSize = LARGE_SOURCE_SIZE;
+    private int parseChunkSize = DEFAULT_PARSE_CHUNK_SIZE;
     
-    private int sourceLine = 0;
     private String pkg;
     private String className;
+    private byte[] classFile;
+    /** Parameter slots the constructor of an immutable class takes, {@code this} included. */
+    private int constructorSlots = 1;
     
     public static void main(String[] args) {
         // TODO Auto-generated method stub
@@ -84,51 +139,226 @@ public class Compiler {
     }
     
     public Compiler(Path src, ClassBuilder cBuilder) {
+        this(src, src.getFileName().toString(), null, cBuilder, null);
+    }
+
+    /**
+     * Compiles with a builder that emits bytecode while the source is read
+     * instead of building the whole class tree first.
+     */
+    public Compiler(Path src, StreamingClassBuilder cBuilder) {
+        this(src, src.getFileName().toString(), null, cBuilder, cBuilder);
+    }
+
+    /**
+     * Compiles source text that does not come from a file. The reader is closed
+     * by {@link #compile()}.
+     *
+     * @param sourceName recorded as the class' source file, may be {@code null}
+     */
+    public Compiler(String sourceName, Reader source, ClassBuilder cBuilder) {
+        this(null, sourceName, source, cBuilder, null);
+    }
+
+    public Compiler(String sourceName, Reader source, StreamingClassBuilder cBuilder) {
+        this(null, sourceName, source, cBuilder, cBuilder);
+    }
+
+    private Compiler(Path src, String sourceName, Reader source, ClassBuilder cBuilder,
+                     StreamingClassBuilder streamingBuilder) {
         this.src = src;
+        this.sourceName = sourceName;
+        this.source = source;
         this.cBuilder = cBuilder;
+        this.streamingBuilder = streamingBuilder;
     }
     
     public byte[] compile() throws CompileException {
-        try(BufferedReader br = Files.newBufferedReader(src, Charset.defaultCharset())) {
-            String line = readSourceLine(br);
-            
-            pkg = processPackage(line);
-            
-            while((line = readSourceLine(br)) != null) {
-                line = line.trim();
-                if (!addToImportMap(line)) {
-                    break;
-                }
+        CharSequence text = readSource();
+        SchemaLexer lex = new SchemaLexer(text);
+
+        if (!lex.nextLine()) {
+            throw lex.syntaxError("Expected " + PACKAGE + " package");
+        }
+        pkg = processPackage(lex);
+
+        requireLine(lex, "class name");
+        while (lex.consume(IMPORT)) {
+            processImport(lex);
+            requireLine(lex, "class name");
+        }
+
+        processClassName(lex);
+
+        if (resolutionCache != null) {
+            resolutionContext = resolutionCache.context(classIndex != null ? null : classLoader, wildcardImports);
+        }
+
+        ClassNode cn = 
+        		cBuilder.createClass(getClassName(), generateSignature());
+
+        if (sourceName != null) {
+            cn.sourceFile = sourceName;
+        }
+        if (!classOptions.isEmpty()) {
+            cBuilder.setClassOptions(classOptions);
+        }
+
+        if (text.length() - lex.position() > parseChunkSize) {
+            addAttributesInParallel(lex, text);
+        } else {
+            while (lex.nextLine()) {
+                addAttribute(parseAttribute(lex));
             }
-            
-            processClassName(line);
-            
-            ClassNode cn = 
-            		cBuilder.createClass(pkg.isEmpty() ? className : pkg + "." + className,
-            				generateSignature());
-            
-            cn.sourceFile = src.getFileName().toString();
-            
-            while((line = readSourceLine(br)) != null) {
-                line = line.trim();
-                addAttribute(line);
+        }
+        if (!classOptions.isEmpty()) {
+            cBuilder.endClass();
+        }
+
+        try {
+            if (streamingBuilder != null) {
+                return classFile = streamingBuilder.toByteArray();
             }
-            
-            try {
-            	ClassWriter cw = new ClassWriter(0);
-            	cn.accept(cw);
-            	return cw.toByteArray();
-            } catch(Exception x) {
-            	throw new CompileException("Error compiling binary class", x);
+        	ClassWriter cw = new ClassWriter(0);
+        	cn.accept(cw);
+        	return classFile = cw.toByteArray();
+        } catch(Exception x) {
+        	throw new CompileException("Error compiling binary class", x);
+        }
+    }
+    
+    /**
+     * Resolves types against a prebuilt classpath index instead of loading them.
+     */
+    public void setClassIndex(ClassIndex classIndex) {
+        this.classIndex = classIndex;
+    }
+
+    /**
+     * Resolves types by loading them through {@code classLoader} instead of
+     * the compiler's own loader. A class index, if set, takes precedence.
+     */
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Shares type resolution results with other compilers using the same cache.
+     */
+    public void setResolutionCache(ResolutionCache resolutionCache) {
+        this.resolutionCache = resolutionCache;
+    }
+
+    /**
+     * Declares the fields of the class widest first, as HotSpot lays them out,
+     * instead of in schema order.
+     */
+    public void setPackedFields(boolean packed) {
+        if (packed) {
+            classOptions.add(Options.PACKED);
+        } else {
+            classOptions.remove(Options.PACKED);
+        }
+    }
+
+    /**
+     * Overrides the size thresholds for memory-mapping the source and for
+     * parsing it in parallel chunks.
+     */
+    void setLargeSourceThresholds(int largeSourceSize, int parseChunkSize) {
+        this.largeSourceSize = largeSourceSize;
+        this.parseChunkSize = parseChunkSize;
+    }
+
+    /**
+     * @return the binary name of the class the last {@link #compile()} produced,
+     *         e.g. {@code pkg1.IntHolder}
+     */
+    public String getClassName() {
+        return pkg == null || pkg.isEmpty() ? className : pkg + "." + className;
+    }
+
+    private CharSequence readSource() throws CompileException {
+        try {
+            if (source == null) {
+                if (Files.size(src) >= largeSourceSize) {
+                    return MappedSource.open(src, Charset.defaultCharset());
+                }
+                return new String(Files.readAllBytes(src), Charset.defaultCharset());
+            }
+            try (Reader r = source) {
+                StringBuilder sb = new StringBuilder();
+                char[] buf = new char[4096];
+                int n;
+                while ((n = r.read(buf)) > 0) {
+                    sb.append(buf, 0, n);
+                }
+                return sb;
             }
-            
         } catch (IOException e) {
-            throw new CompileException(String.format("Unable to read file %s", src), e);
-        } catch(NullPointerException npx) {
-            throw new CompileException(String.format("Unexpected end of file after line", sourceLine), npx);
+            throw new CompileException(String.format("Unable to read %s",
+                    src != null ? "file " + src : "source " + sourceName), e);
         }
     }
-    
+
+    /**
+     * @return the estimated instance size of the class the last
+     *         {@link #compile()} produced
+     */
+    public InstanceLayout getInstanceLayout() {
+        return cBuilder.getInstanceLayout();
+    }
+
+    /**
+     * @return the classes generated alongside the one {@link #compile()}
+     *         returned, by binary name; empty unless a class option asks for one
+     */
+    public Map<String, byte[]> getCompanionClasses() {
+        return cBuilder.getCompanionClasses();
+    }
+
+    /**
+     * @return the bytecode size of every method the last {@link #compile()}
+     *         produced, the class's first and then its companions'
+     */
+    public List<MethodSize> getMethodSizes() {
+        List<MethodSize> sizes = new ArrayList<>(MethodSize.of(classFile));
+        for (byte[] companion : getCompanionClasses().values()) {
+            sizes.addAll(MethodSize.of(companion));
+        }
+        return sizes;
+    }
+
+    /**
+     * @return true if {@code fqn} names a class visible to the compiler; the
+     *         class is not initialized
+     */
+    public static boolean classExists(String fqn) {
+        return classExists(fqn, Compiler.class.getClassLoader());
+    }
+
+    /**
+     * @return true if {@code fqn} names a class visible to {@code loader}; the
+     *         class is not initialized
+     */
+    public static boolean classExists(String fqn, ClassLoader loader) {
+        try {
+            Class.forName(fqn, false, loader);
+            return true;
+        } catch (ClassNotFoundException | LinkageError x) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the fully qualified names of every class type the last
+     *         {@link #compile()} looked up on the classpath, in sorted order;
+     *         explicitly imported names are not included
+     */
+    public SortedSet<String> getResolvedTypes() {
+        return resolvedTypes;
+    }
+
     private String generateSignature() {
     	if (genericParameters.isEmpty()) {
     		return null;
@@ -144,166 +374,323 @@ public class Compiler {
     	}
     }
 
-    private void addAttribute(String line) throws CompileException {
-        Matcher m = ATTRIBUTE_LINE.matcher(line);
-    	if (!m.matches()) {
-    		throwSyntaxError(String.format("Expected name : type on line %d", line));
-    	}
+    /**
+     * Parses the attribute lines after the class header on the fork-join pool,
+     * then adds them to the class in source order.
+     */
+    private void addAttributesInParallel(SchemaLexer lex, CharSequence text) throws CompileException {
+        AttributeParser parser = new AttributeParser(text, lex.position(), text.length(), lex.line());
+        List<Attribute> attributes =
+                ForkJoinTask.inForkJoinPool() ? parser.invoke() : ParsePool.POOL.invoke(parser);
 
-    	// TODO: make sure null constraint options are only applied to object types
+        if (attributes == null) {
+            // chunks do not know their line numbers; parse sequentially to report the error
+            while (lex.nextLine()) {
+                addAttribute(parseAttribute(lex));
+            }
+            return;
+        }
+        for (Attribute attribute : attributes) {
+            addAttribute(attribute);
+        }
+    }
+
+    private void addAttribute(Attribute attribute) throws CompileException {
     	// TODO: never-null requires object with default constructor
-    	cBuilder.addAttribute(m.group(1).trim(), 
-    	        resolveSignature(m.group(3).trim(), true), 
-    	        genericParameters, getOptionsFromOperator(m.group(2)));
+        if (classOptions.contains(Options.IMMUTABLE)) {
+            constructorSlots += attribute.signature.equals("J") || attribute.signature.equals("D") ? 2 : 1;
+            if (constructorSlots > MAX_PARAMETER_SLOTS) {
+                throw new CompileException(String.format(
+                        "Immutable attribute %s takes the constructor past the JVM limit of %d parameter slots",
+                        attribute.name, MAX_PARAMETER_SLOTS));
+            }
+        }
+    	cBuilder.addAttribute(attribute.name, attribute.signature, genericParameters, attribute.options);
 	}
 
-	private Set<Options> getOptionsFromOperator(String group) {
-        switch(group) {
-        case "!":
-            return EnumSet.of(Options.NOT_NULL);
-        case "!!":
-            return EnumSet.of(Options.NEVER_NULL);
-        }
-        return EnumSet.noneOf(Options.class);
-    }
-
-    private String resolveSignature(String rawType, boolean allowPrimitive) {
-	    final int arrayDimensions;
-	    
-	    if (rawType.contains("[")) {
-	        arrayDimensions = countArrayDimensions(rawType);
-	        rawType = rawType.substring(0, rawType.indexOf("["));
-	    } else {
-	        arrayDimensions = 0;
-	    }
-	    
-	    final String internalType = resolveInternal(rawType, allowPrimitive || (arrayDimensions > 0));
-	    
-	    return makeArray(internalType, arrayDimensions);
-    }
-
-    private String resolveInternal(String rawType, boolean allowPrimitive) {
-        if (allowPrimitive && PRIMITIVE_DESCRIPTOR_MAP.containsKey(rawType)) {
-            return PRIMITIVE_DESCRIPTOR_MAP.get(rawType);
-        } else {
-        	TypeDeclaration typeDecl = new TypeDeclaration(rawType);
-            if (importMap.containsKey(typeDecl.rawType)) {
-                return internalObjectForm(new TypeDeclaration(importMap.get(typeDecl.rawType), typeDecl.generic));
-            } else {
-                try {
-                    Class.forName(typeDecl.rawType);
-                    return internalObjectForm(typeDecl);
-                } catch (ClassNotFoundException e) {
-                	try {
-                		Class<?> c = Class.forName("java.lang." + typeDecl.rawType);
-                		return internalObjectForm(new TypeDeclaration(c.getName(), typeDecl.generic));
-                	} catch(ClassNotFoundException cfne) {
-                	    if (genericParameters.contains(rawType)) {
-                	        return String.format("T%s;", rawType);
-                	    }
-                		throw new UnsupportedOperationException("Type not resolved: " + rawType);
-                	}
-                }
+    private Attribute parseAttribute(SchemaLexer lex) throws CompileException {
+        String name = lex.identifier();
+        lex.peek();
+        int operatorLine = lex.line();
+        int operatorColumn = lex.column();
+        Set<Options> options = processOperator(lex);
+
+        StringBuilder signature = new StringBuilder();
+        lex.peek();
+        int line = lex.line();
+        int column = lex.column();
+        processType(lex, signature, true);
+        lex.expectLineEnd();
+        if (classOptions.contains(Options.FLYWEIGHT) && signature.length() != 1) {
+            throw SchemaLexer.error("Syntax error", line, column,
+                    "Flyweight attribute " + name + " must have a primitive type");
+        }
+        if (classOptions.contains(Options.CODEC) && !CodecBuilder.isEncodable(signature.toString())) {
+            throw SchemaLexer.error("Syntax error", line, column,
+                    "Codec attribute " + name + " must be a primitive, String or array of those");
+        }
+        if (signature.length() == 1 && (options.contains(Options.NOT_NULL) || options.contains(Options.NEVER_NULL))) {
+            throw SchemaLexer.error("Syntax error", operatorLine, operatorColumn,
+                    "Primitive attribute " + name + " can't have a null constraint");
+        }
+        if (options.contains(Options.VOLATILE) && classOptions.contains(Options.IMMUTABLE)) {
+            throw SchemaLexer.error("Syntax error", operatorLine, operatorColumn,
+                    "Immutable attribute " + name + " can't be volatile");
+        }
+
+        return new Attribute(name, signature.toString(), options);
+    }
+
+	private Set<Options> processOperator(SchemaLexer lex) throws CompileException {
+        if (lex.consume(':')) {
+            return EnumSet.noneOf(Options.class);
+        }
+        if (lex.consume('!')) {
+            return lex.consume('!') ? EnumSet.of(Options.NEVER_NULL) : EnumSet.of(Options.NOT_NULL);
+        }
+        if (lex.consume('~')) {
+            return EnumSet.of(Options.VOLATILE);
+        }
+        throw lex.syntaxError("Expected :, !, !! or ~ after the attribute name");
+    }
+
+    /**
+     * Parses a type, including type arguments and array dimensions, and appends
+     * its signature to {@code signature}.
+     */
+    private void processType(SchemaLexer lex, StringBuilder signature, boolean allowPrimitive)
+            throws CompileException {
+        lex.peek();
+        final int line = lex.line();
+        final int column = lex.column();
+        final int start = signature.length();
+
+        char primitive = lex.primitive();
+        if (primitive != 0) {
+            int arrayDimensions = lex.arrayDimensions();
+            if (!allowPrimitive && arrayDimensions == 0) {
+                throw SchemaLexer.error("Syntax error", line, column,
+                        "Primitive types cannot be type arguments");
+            }
+            signature.append(primitive);
+            makeArray(signature, start, arrayDimensions);
+            return;
+        }
+
+        String name = lex.qualifiedName();
+        String fqn = resolveClass(name, line, column);
+        if (fqn != null) {
+            signature.append('L');
+            for (int i = 0; i < fqn.length(); i++) {
+                char c = fqn.charAt(i);
+                signature.append(c == '.' ? '/' : c);
+            }
+            if (lex.consume('<')) {
+                signature.append('<');
+                do {
+                    processType(lex, signature, false);
+                } while (lex.consume(','));
+                lex.expect('>');
+                signature.append('>');
             }
+            signature.append(';');
+        } else if (genericParameters.contains(name)) {
+            signature.append('T').append(name).append(';');
+        } else {
+            throw SchemaLexer.error("Type not resolved", line, column, name);
         }
+        makeArray(signature, start, lex.arrayDimensions());
     }
 
-    private String internalObjectForm(TypeDeclaration typeDecl) {
-        String erasureType = "L" + typeDecl.rawType.replace('.', '/') + ";";
-        if (typeDecl.isGeneric) {
-        	String generic = typeDecl.generic.substring(1, typeDecl.generic.length() - 1);
-        	String[] parts = generic.split(",");
-        	StringBuilder sb = new StringBuilder(erasureType);
-        	sb.setLength(sb.length() - 1); // remove trailing ;
-        	sb.append('<');
-        	for(String genType : parts) {
-        		sb.append(resolveSignature(genType.trim(), false));
-        	}
-        	erasureType = sb.append(">;").toString();
+    /**
+     * @return the binary name of the class {@code name} refers to, explicitly
+     *         imported or found on the classpath, or {@code null}
+     * @throws CompileException if {@code name} is in more than one on-demand
+     *                          import package; {@code line} and
+     *                          {@code column} locate it for the message
+     */
+    private String resolveClass(String name, int line, int column) throws CompileException {
+        String imported = importMap.get(name);
+        if (imported != null) {
+            return imported;
+        }
+        String fqn = lookupClass(name, line, column);
+        if (fqn != null) {
+            resolvedTypes.add(fqn);
         }
-        return erasureType;
+        return fqn;
     }
 
-    private int countArrayDimensions(String rawType) {
-        int dims = 0;
-        int pos = 0;
-        
-        while(rawType.indexOf("[]", pos) >= 0) {
-            dims++;
-            pos = rawType.indexOf(']', pos + 1);
+    /**
+     * @return the binary name of the class {@code name} refers to, or {@code null}
+     */
+    private String lookupClass(String name, int line, int column) throws CompileException {
+        if (resolutionContext == null) {
+            return findClass(name, line, column);
         }
-        
-        return dims;
+
+        String fqn = resolutionContext.get(name);
+        if (fqn == null) {
+            fqn = findClass(name, line, column);
+            resolutionContext.put(name, fqn);
+            return fqn;
+        }
+        return fqn.equals(ResolutionCache.UNRESOLVED) ? null : fqn;
     }
 
-    private String makeArray(String internalType, int arrayDimensions) {
-        if (arrayDimensions == 0) {
-            return internalType;
+    /**
+     * Looks a type name up as written, then in every on-demand import package,
+     * {@code java.lang} included. As in Java, a name found in more than one of
+     * them is ambiguous rather than taken from the first.
+     *
+     * @return the binary name of the class, or {@code null}
+     */
+    private String findClass(String name, int line, int column) throws CompileException {
+        if (isKnownClass(name)) {
+            return name;
         }
-        StringBuilder sb = new StringBuilder(internalType.length() + arrayDimensions);
-        sb.append(internalType);
-        while(arrayDimensions-- > 0) {
-            sb.insert(0, '[');
+        List<String> found = new ArrayList<>(1);
+        for (String p : wildcardImports) {
+            String candidate = p + "." + name;
+            if (isKnownClass(candidate)) {
+                found.add(candidate);
+            }
         }
-        return sb.toString();
+        if (found.size() > 1) {
+            StringBuilder candidates = new StringBuilder();
+            for (String candidate : found) {
+                candidates.append(candidates.length() > 0 ? ", " : "").append(candidate);
+            }
+            throw SchemaLexer.error("Type not resolved", line, column,
+                    String.format("ambiguous type %s: %s", name, candidates));
+        }
+        return found.isEmpty() ? null : found.get(0);
     }
 
-    private void processClassName(String classDeclaration) {
-    	int genParmIndex = classDeclaration.indexOf('<');
-    	if (genParmIndex > 0) {
-    		String[] genParms = 
-    				classDeclaration.substring(genParmIndex + 1, classDeclaration.length() - 1).split(",");
-    		for(String parm : genParms) {
-    			genericParameters.add(parm.trim());
-    		}
-    		classDeclaration = classDeclaration.substring(0, genParmIndex);
-    	}
-        className = classDeclaration;
+    private boolean isKnownClass(String fqn) {
+        return classIndex != null ? classIndex.contains(fqn) : classExists(fqn, classLoader);
     }
 
-    private boolean addToImportMap(String line) {
-        if (line.startsWith(IMPORT)) {
-            processImport(line.substring(2).trim());
-            return true;
+    private void makeArray(StringBuilder signature, int start, int arrayDimensions) {
+        while(arrayDimensions-- > 0) {
+            signature.insert(start, '[');
         }
-        return false;
     }
 
-    private void processImport(String fqn) {
-        if (fqn.contains(".")) {
+    /**
+     * Reads the class header: optional modifiers, the class name and its
+     * generic parameters, e.g. {@code final Pair<A, B>}.
+     */
+    private void processClassName(SchemaLexer lex) throws CompileException {
+        lex.peek();
+        int column = lex.column();
+        String name = lex.identifier();
+        while (Character.isJavaIdentifierStart(lex.peek())) {
+            Options option = CLASS_MODIFIERS.get(name);
+            if (option == null) {
+                throw SchemaLexer.error("Syntax error", lex.line(), column, "Unknown class modifier " + name);
+            }
+            classOptions.add(option);
+            column = lex.column();
+            name = lex.identifier();
+        }
+        className = name;
+        if (lex.consume('<')) {
+            do {
+                genericParameters.add(lex.identifier());
+            } while (lex.consume(','));
+            lex.expect('>');
+        }
+        lex.expectLineEnd();
+    }
+
+    private void processImport(SchemaLexer lex) throws CompileException {
+        String fqn = lex.qualifiedName();
+        if (lex.consume(WILDCARD_IMPORT)) {
+            if (!wildcardImports.contains(fqn)) {
+                wildcardImports.add(fqn);
+            }
+        } else if (fqn.indexOf('.') >= 0) {
             importMap.put(fqn.substring(fqn.lastIndexOf('.') + 1), fqn);
         } else {
             importMap.put(fqn, fqn);
         }
+        lex.expectLineEnd();
     }
 
-    private String processPackage(String line) throws CompileException {
-        if (line.startsWith(PACKAGE)) {
-            String p = line.substring(2).trim();
-            checkPackageSyntax();
-            return p;
+    private String processPackage(SchemaLexer lex) throws CompileException {
+        if (!lex.consume(PACKAGE)) {
+            throw lex.syntaxError("Expected " + PACKAGE + " package");
         }
-        return throwSyntaxError("Expected " + PACKAGE + " package");
+        String p = lex.atLineEnd() ? "" : lex.qualifiedName();
+        lex.expectLineEnd();
+        return p;
     }
 
-    private void checkPackageSyntax() throws CompileException {
-        // TODO Auto-generated method stub
+    private void requireLine(SchemaLexer lex, String expected) throws CompileException {
+        if (!lex.nextLine()) {
+            throw lex.syntaxError("Unexpected end of file, expected " + expected);
+        }
     }
 
-    private <T> T throwSyntaxError(String detail) throws CompileException {
-        throw new CompileException(String.format("Syntax error on line %d: %s", sourceLine, detail));
-    }
+    /**
+     * Parses the attribute lines between two offsets of the source, halving the
+     * range at a line boundary while it is larger than the chunk size.
+     * <p>
+     * The result is {@code null} if any line fails to parse. Only the first
+     * chunk knows its starting line, so errors are reported by parsing again
+     * sequentially.
+     */
+    private class AttributeParser extends RecursiveTask<List<Attribute>> {
+        private static final long serialVersionUID = 1L;
 
-    private String readSourceLine(BufferedReader br) throws IOException {
-        String line = null;
-        while((line = br.readLine()) != null) {
-            sourceLine++;
-            line = line.trim();
-            if (!line.startsWith(COMMENT)  && !line.isEmpty()) {
-                return line;
+        private final CharSequence text;
+        private final int start;
+        private final int end;
+        private final int firstLine;
+
+        AttributeParser(CharSequence text, int start, int end, int firstLine) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.firstLine = firstLine;
+        }
+
+        @Override
+        protected List<Attribute> compute() {
+            if (end - start > parseChunkSize) {
+                int mid = lineAfter(start + (end - start) / 2);
+                if (mid < end) {
+                    AttributeParser head = new AttributeParser(text, start, mid, firstLine);
+                    AttributeParser tail = new AttributeParser(text, mid, end, 1);
+                    invokeAll(head, tail);
+                    List<Attribute> attributes = head.join();
+                    List<Attribute> rest = tail.join();
+                    if (attributes == null || rest == null) {
+                        return null;
+                    }
+                    attributes.addAll(rest);
+                    return attributes;
+                }
             }
+
+            SchemaLexer lex = new SchemaLexer(text, start, end, firstLine);
+            List<Attribute> attributes = new ArrayList<>();
+            try {
+                while (lex.nextLine()) {
+                    attributes.add(parseAttribute(lex));
+                }
+            } catch (CompileException x) {
+                return null;
+            }
+            return attributes;
         }
-        return null;
-    }
 
+        private int lineAfter(int pos) {
+            while (pos < end && text.charAt(pos) != '\n') {
+                pos++;
+            }
+            return Math.min(pos + 1, end);
+        }
+    }
 }
@@ -0,0 +1,278 @@
+package com.weaselogic.getset;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.FieldNode;
+
+/**
+ * Writes the flyweight companion of a bean whose attributes are all primitive:
+ * a class with the bean's getters and setters that read and write a record at
+ * fixed offsets in a {@link java.nio.ByteBuffer} instead of fields.
+ * <p>
+ * Records are laid out widest attribute first, so every attribute is aligned
+ * to its width as long as the buffer and {@code SIZE} are, and {@code SIZE} is
+ * rounded up to the widest attribute for that reason. One instance moves over
+ * the buffer with {@code wrap(buffer, index)}, so scanning a million records
+ * allocates nothing. {@code allocate(records)} returns a direct buffer in
+ * native byte order, the cheapest for the absolute get and put calls the
+ * accessors make. Bounds are checked by the buffer.
+ */
+class FlyweightBuilder {
+    /** Appended to the bean's name. */
+    static final String SUFFIX = "Flyweight";
+
+    private static final String BYTE_BUFFER = "java/nio/ByteBuffer";
+
+    private static final String BYTE_BUFFER_DESC = "L" + BYTE_BUFFER + ";";
+
+    private final String name;
+    private final String sourceFile;
+    private final List<FieldNode> attributes;
+    private final int[] offsets;
+    private final int size;
+
+    /**
+     * @param beanName   internal name of the bean
+     * @param attributes the bean's fields, all of primitive type, in schema order
+     */
+    FlyweightBuilder(String beanName, String sourceFile, List<FieldNode> attributes) {
+        this.name = beanName + SUFFIX;
+        this.sourceFile = sourceFile;
+        this.attributes = attributes;
+        this.offsets = new int[attributes.size()];
+
+        List<FieldNode> packed = new ArrayList<>(attributes);
+        Collections.sort(packed, InstanceLayout.PACKED_ORDER);
+        int offset = 0;
+        int alignment = 1;
+        for (FieldNode fn : packed) {
+            offsets[attributes.indexOf(fn)] = offset;
+            offset += InstanceLayout.width(fn.desc, true);
+            alignment = Math.max(alignment, InstanceLayout.width(fn.desc, true));
+        }
+        this.size = (offset + alignment - 1) / alignment * alignment;
+    }
+
+    /**
+     * @return the binary name of the flyweight class, with dots
+     */
+    String getClassName() {
+        return name.replace('/', '.');
+    }
+
+    /**
+     * @return the number of bytes a record takes
+     */
+    int getSize() {
+        return size;
+    }
+
+    byte[] toByteArray() {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL + Opcodes.ACC_SUPER,
+                name, null, "java/lang/Object", null);
+        if (sourceFile != null) {
+            cw.visitSource(sourceFile, null);
+        }
+
+        cw.visitField(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC + Opcodes.ACC_FINAL,
+                "SIZE", "I", null, size).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE, "buffer", BYTE_BUFFER_DESC, null, null).visitEnd();
+        cw.visitField(Opcodes.ACC_PRIVATE, "offset", "I", null, null).visitEnd();
+
+        addConstructor(cw);
+        addAllocate(cw);
+        addWrap(cw);
+        for (int i = 0; i < attributes.size(); i++) {
+            FieldNode fn = attributes.get(i);
+            addGetter(cw, fn, offsets[i]);
+            addSetter(cw, fn, offsets[i]);
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private void addConstructor(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(1, 1);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code static ByteBuffer allocate(int records)}
+     */
+    private void addAllocate(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC,
+                "allocate", "(I)" + BYTE_BUFFER_DESC, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 0);
+        pushInt(mv, size);
+        mv.visitInsn(Opcodes.IMUL);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, BYTE_BUFFER, "allocateDirect", "(I)" + BYTE_BUFFER_DESC, false);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/nio/ByteOrder", "nativeOrder", "()Ljava/nio/ByteOrder;", false);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "order",
+                "(Ljava/nio/ByteOrder;)" + BYTE_BUFFER_DESC, false);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(2, 1);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code Flyweight wrap(ByteBuffer buffer, int index)}, positioning this
+     * instance on record {@code index}.
+     */
+    private void addWrap(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL,
+                "wrap", "(" + BYTE_BUFFER_DESC + "I)L" + name + ";", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "buffer", BYTE_BUFFER_DESC);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        pushInt(mv, size);
+        mv.visitInsn(Opcodes.IMUL);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "offset", "I");
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(3, 3);
+        mv.visitEnd();
+    }
+
+    private void addGetter(ClassWriter cw, FieldNode fn, int offset) {
+        String getterName = ("Z".equals(fn.desc) ? "is" : "get") + capitalize(fn.name);
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL,
+                getterName, "()" + fn.desc, null, null);
+        mv.visitCode();
+        addAddress(mv, offset);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "get" + accessorType(fn.desc),
+                "(I)" + bufferDesc(fn.desc), false);
+        switch (fn.desc.charAt(0)) {
+        case 'Z':
+            // b != 0 without a branch: the sign bit of b | -b
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitInsn(Opcodes.INEG);
+            mv.visitInsn(Opcodes.IOR);
+            mv.visitIntInsn(Opcodes.BIPUSH, 31);
+            mv.visitInsn(Opcodes.IUSHR);
+            mv.visitInsn(Opcodes.IRETURN);
+            break;
+        case 'J':
+            mv.visitInsn(Opcodes.LRETURN);
+            break;
+        case 'F':
+            mv.visitInsn(Opcodes.FRETURN);
+            break;
+        case 'D':
+            mv.visitInsn(Opcodes.DRETURN);
+            break;
+        default:
+            mv.visitInsn(Opcodes.IRETURN);
+        }
+        mv.visitMaxs(3, 1);
+        mv.visitEnd();
+    }
+
+    private void addSetter(ClassWriter cw, FieldNode fn, int offset) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL,
+                "set" + capitalize(fn.name), "(" + fn.desc + ")V", null, null);
+        mv.visitCode();
+        addAddress(mv, offset);
+        switch (fn.desc.charAt(0)) {
+        case 'J':
+            mv.visitVarInsn(Opcodes.LLOAD, 1);
+            break;
+        case 'F':
+            mv.visitVarInsn(Opcodes.FLOAD, 1);
+            break;
+        case 'D':
+            mv.visitVarInsn(Opcodes.DLOAD, 1);
+            break;
+        case 'Z':
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitInsn(Opcodes.I2B);
+            break;
+        default:
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+        }
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, BYTE_BUFFER, "put" + accessorType(fn.desc),
+                "(I" + bufferDesc(fn.desc) + ")" + BYTE_BUFFER_DESC, false);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitInsn(Opcodes.RETURN);
+        int slots = "J".equals(fn.desc) || "D".equals(fn.desc) ? 2 : 1;
+        mv.visitMaxs(2 + slots, 1 + slots);
+        mv.visitEnd();
+    }
+
+    /**
+     * Pushes the buffer and the absolute index of the attribute at
+     * {@code offset} in the current record.
+     */
+    private void addAddress(MethodVisitor mv, int offset) {
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "buffer", BYTE_BUFFER_DESC);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, name, "offset", "I");
+        if (offset != 0) {
+            pushInt(mv, offset);
+            mv.visitInsn(Opcodes.IADD);
+        }
+    }
+
+    /**
+     * @return the suffix of the {@code ByteBuffer} accessors for {@code desc},
+     *         e.g. {@code Int} for {@code getInt}
+     */
+    private static String accessorType(String desc) {
+        switch (desc.charAt(0)) {
+        case 'B':
+        case 'Z':
+            return "";
+        case 'C':
+            return "Char";
+        case 'S':
+            return "Short";
+        case 'I':
+            return "Int";
+        case 'J':
+            return "Long";
+        case 'F':
+            return "Float";
+        case 'D':
+            return "Double";
+        default:
+            throw new IllegalArgumentException("Not a primitive type: " + desc);
+        }
+    }
+
+    /**
+     * @return the type {@code ByteBuffer} stores {@code desc} as; booleans are bytes
+     */
+    private static String bufferDesc(String desc) {
+        return "Z".equals(desc) ? "B" : desc;
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(Opcodes.SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    private static String capitalize(String attrName) {
+        return Character.toUpperCase(attrName.charAt(0)) + attrName.substring(1);
+    }
+}
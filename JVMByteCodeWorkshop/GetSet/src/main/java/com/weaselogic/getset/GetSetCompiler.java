@@ -1,25 +1,152 @@
 package com.weaselogic.getset;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.util.Map;
 
 public class GetSetCompiler {
 
+    private static final String USAGE =
+            "Usage: GetSetCompiler [-d <output dir>] [-j <threads>] [-i] [-index <class index>]\n"
+            + "                     [-packed] [-sizes] [-inlining <report file>] <source file or dir>...\n"
+            + "       GetSetCompiler -daemon <port> [-j <threads>] [-index <class index>] [-packed]";
+
+    /** The daemon's state directory, in the user's home directory. */
+    private static final String STATE_DIR = ".getset";
+
     public GetSetCompiler() {
         // TODO Auto-generated constructor stub
     }
 
-    public static void main(String[] args) throws IOException, CompileException {
-        Path source = Paths.get(args[0]);
-        Path dest = source.resolveSibling(source.getFileName().toString().replaceAll("(.+?)(\\.\\w+)?$", "$1.class"));
-        
-        Compiler cmp = new Compiler(source, new ClassBuilder());
-        System.out.println(dest);
-        Files.write(dest, cmp.compile(), StandardOpenOption.CREATE);
+    public static void main(String[] args) throws IOException {
+        Path outputDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean incremental = false;
+        Path index = null;
+        boolean packed = false;
+        boolean sizes = false;
+        Path inlining = null;
+        int daemonPort = -1;
+
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            switch (args[i]) {
+            case "-d":
+                outputDir = Paths.get(requireValue(args, ++i));
+                break;
+            case "-j":
+                threads = Integer.parseInt(requireValue(args, ++i));
+                break;
+            case "-i":
+                incremental = true;
+                break;
+            case "-index":
+                index = Paths.get(requireValue(args, ++i));
+                break;
+            case "-packed":
+                packed = true;
+                break;
+            case "-sizes":
+                sizes = true;
+                break;
+            case "-inlining":
+                inlining = Paths.get(requireValue(args, ++i));
+                break;
+            case "-daemon":
+                daemonPort = Integer.parseInt(requireValue(args, ++i));
+                break;
+            default:
+                usage("Unknown option " + args[i]);
+            }
+        }
+        if (daemonPort >= 0) {
+            CompileDaemon daemon = new CompileDaemon(daemonPort, threads, CompileDaemon.DEFAULT_CACHE_SIZE,
+                    Paths.get(System.getProperty("user.home"), STATE_DIR));
+            daemon.setPackedFields(packed);
+            if (index != null) {
+                daemon.setClassIndex(ClassIndex.open(index));
+            }
+            System.out.printf("Listening on port %d, token in %s%n", daemon.getPort(), daemon.getTokenFile());
+            daemon.run();
+            return;
+        }
+        if (i == args.length) {
+            usage("No sources given");
+        }
+
+        BatchCompiler batch = new BatchCompiler(outputDir, threads);
+        batch.setPackedFields(packed);
+        batch.setInliningReport(inlining != null);
+        if (index != null) {
+            batch.setClassIndex(ClassIndex.open(index));
+        }
+        if (incremental) {
+            Path base = outputDir == null ? Paths.get("") : outputDir;
+            batch.setManifest(BuildManifest.load(base.resolve(BuildManifest.FILE_NAME)));
+        }
+        for (; i < args.length; i++) {
+            batch.addSource(Paths.get(args[i]));
+        }
+
+        BatchCompiler.Result result;
+        try {
+            result = batch.compile();
+        } finally {
+            batch.shutdown();
+        }
+
+        for (Map.Entry<Path, CompileException> failure : result.getFailures().entrySet()) {
+            System.err.printf("%s: %s%n", failure.getKey(), describe(failure.getValue()));
+        }
+        if (sizes) {
+            for (InstanceLayout layout : result.getInstanceLayouts().values()) {
+                System.out.println(layout);
+            }
+        }
+        if (inlining != null) {
+            InliningReport report = result.getInliningReport();
+            try (Writer out = Files.newBufferedWriter(inlining, StandardCharsets.UTF_8)) {
+                report.write(out);
+            }
+            for (MethodSize ctor : report.getHugeConstructors()) {
+                System.err.printf("%s: constructor is %d bytes, over HugeMethodLimit and never JIT compiled%n",
+                        ctor.getClassName(), ctor.getCodeLength());
+            }
+        }
+        System.out.printf("Compiled %d of %d files in %.2fs (%.1f files/sec), %d up to date, %d failed%n",
+                result.getCompiled(), batch.getSourceCount(),
+                result.getElapsedNanos() / 1e9, result.getFilesPerSecond(),
+                result.getSkipped(), result.getFailures().size());
+        System.out.printf("Type resolution: %s%n", batch.getResolutionCache());
+
+        if (!result.getFailures().isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static String describe(Throwable x) {
+        StringBuilder sb = new StringBuilder(String.valueOf(x.getMessage()));
+        for (Throwable cause = x.getCause(); cause != null; cause = cause.getCause()) {
+            sb.append(" (").append(cause).append(')');
+        }
+        return sb.toString();
+    }
+
+    private static String requireValue(String[] args, int i) {
+        if (i >= args.length) {
+            usage("Missing value for " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static void usage(String problem) {
+        System.err.println(problem);
+        System.err.println(USAGE);
+        System.exit(2);
     }
 
 }
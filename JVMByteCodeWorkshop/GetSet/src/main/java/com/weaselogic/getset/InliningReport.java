@@ -0,0 +1,70 @@
+package com.weaselogic.getset;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@link MethodSize} of every method a batch generated, by source.
+ * <p>
+ * {@link #write(Appendable)} prints it as tab-separated values with a header
+ * line, one method per line, for scripts and spreadsheets to pick up after a
+ * build.
+ */
+public final class InliningReport {
+    static final String HEADER = "source\tclass\tmethod\tdesc\tcode\tmaxStack\tmaxLocals\tconstantPool"
+            + "\toverMaxInlineSize\toverFreqInlineSize\toverHugeMethodLimit";
+
+    private final Map<Path, List<MethodSize>> sizes;
+
+    InliningReport(Map<Path, List<MethodSize>> sizes) {
+        this.sizes = Collections.unmodifiableMap(new TreeMap<>(sizes));
+    }
+
+    /**
+     * @return the sizes of the methods of each class and its companions, by
+     *         source; skipped sources are measured from their class files
+     */
+    public Map<Path, List<MethodSize>> getMethodSizes() {
+        return sizes;
+    }
+
+    /**
+     * @return the constructors over {@link MethodSize#HUGE_METHOD_LIMIT}, which
+     *         run interpreted however often they are called
+     */
+    public List<MethodSize> getHugeConstructors() {
+        List<MethodSize> huge = new ArrayList<>();
+        for (List<MethodSize> methods : sizes.values()) {
+            for (MethodSize size : methods) {
+                if (size.isConstructor() && size.isOverHugeMethodLimit()) {
+                    huge.add(size);
+                }
+            }
+        }
+        return huge;
+    }
+
+    public void write(Appendable out) throws IOException {
+        out.append(HEADER).append('\n');
+        for (Map.Entry<Path, List<MethodSize>> source : sizes.entrySet()) {
+            for (MethodSize size : source.getValue()) {
+                out.append(source.getKey().toString()).append('\t')
+                        .append(size.getClassName()).append('\t')
+                        .append(size.getName()).append('\t')
+                        .append(size.getDesc()).append('\t')
+                        .append(Integer.toString(size.getCodeLength())).append('\t')
+                        .append(Integer.toString(size.getMaxStack())).append('\t')
+                        .append(Integer.toString(size.getMaxLocals())).append('\t')
+                        .append(Integer.toString(size.getConstantPoolSize())).append('\t')
+                        .append(Boolean.toString(size.isOverMaxInlineSize())).append('\t')
+                        .append(Boolean.toString(size.isOverFreqInlineSize())).append('\t')
+                        .append(Boolean.toString(size.isOverHugeMethodLimit())).append('\n');
+            }
+        }
+    }
+}
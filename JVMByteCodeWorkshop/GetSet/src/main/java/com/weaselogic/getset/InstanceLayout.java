@@ -0,0 +1,155 @@
+package com.weaselogic.getset;
+
+import java.util.Comparator;
+import java.util.List;
+
+import org.objectweb.asm.tree.FieldNode;
+
+/**
+ * Estimated shallow size of an instance of a generated class on a 64-bit
+ * HotSpot VM, with and without compressed oops.
+ * <p>
+ * The estimate follows HotSpot's field allocation: a 12 byte header with
+ * compressed class pointers or 16 bytes without, then fields grouped by width
+ * from widest to narrowest, each aligned to its width, with the gap after a
+ * 12 byte header filled by narrower fields when 8 byte fields follow. Objects
+ * are 8 byte aligned. References are 4 bytes with compressed oops and 8
+ * without. Nothing reachable from the fields is counted.
+ */
+public final class InstanceLayout {
+    private static final int COMPRESSED_HEADER = 12;
+
+    private static final int UNCOMPRESSED_HEADER = 16;
+
+    private static final int OBJECT_ALIGNMENT = 8;
+
+    /**
+     * Orders fields the way HotSpot allocates them: {@code long} and
+     * {@code double} first, then {@code int} and {@code float}, {@code short}
+     * and {@code char}, {@code byte} and {@code boolean}, and references last.
+     * Fields in the same group keep their order.
+     */
+    static final Comparator<FieldNode> PACKED_ORDER = new Comparator<FieldNode>() {
+        @Override
+        public int compare(FieldNode a, FieldNode b) {
+            return Integer.compare(rank(a.desc), rank(b.desc));
+        }
+
+        private int rank(String desc) {
+            switch (desc.charAt(0)) {
+            case 'J':
+            case 'D':
+                return 0;
+            case 'I':
+            case 'F':
+                return 1;
+            case 'S':
+            case 'C':
+                return 2;
+            case 'B':
+            case 'Z':
+                return 3;
+            default:
+                return 4;
+            }
+        }
+    };
+
+    private final String className;
+    private final int fieldCount;
+    private final int compressedSize;
+    private final int uncompressedSize;
+
+    InstanceLayout(String className, List<String> fieldDescs) {
+        this.className = className;
+        this.fieldCount = fieldDescs.size();
+        this.compressedSize = estimate(fieldDescs, true);
+        this.uncompressedSize = estimate(fieldDescs, false);
+    }
+
+    /**
+     * @return the binary name of the class, with dots
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return the estimated instance size in bytes with compressed oops and
+     *         class pointers, the default for heaps under 32GB
+     */
+    public int getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * @return the estimated instance size in bytes without compressed oops
+     */
+    public int getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d fields, %d bytes (compressed oops), %d bytes (uncompressed)",
+                className, fieldCount, compressedSize, uncompressedSize);
+    }
+
+    private static int estimate(List<String> fieldDescs, boolean compressedOops) {
+        // how many fields there are of each width: 8, 4, 2 and 1 bytes
+        int[] count = new int[4];
+        for (String desc : fieldDescs) {
+            count[widthIndex(width(desc, compressedOops))]++;
+        }
+
+        int offset = compressedOops ? COMPRESSED_HEADER : UNCOMPRESSED_HEADER;
+        if (offset % 8 != 0 && count[0] > 0) {
+            for (int i = 1; i < count.length; i++) {
+                int width = 8 >> i;
+                while (count[i] > 0 && offset % 8 + width <= 8 && offset % 8 != 0) {
+                    offset += width;
+                    count[i]--;
+                }
+            }
+            offset = align(offset, 8);
+        }
+        for (int i = 0; i < count.length; i++) {
+            offset += count[i] * (8 >> i);
+        }
+        return align(offset, OBJECT_ALIGNMENT);
+    }
+
+    /**
+     * @return the bytes a field of type {@code desc} takes
+     */
+    static int width(String desc, boolean compressedOops) {
+        switch (desc.charAt(0)) {
+        case 'J':
+        case 'D':
+            return 8;
+        case 'I':
+        case 'F':
+            return 4;
+        case 'S':
+        case 'C':
+            return 2;
+        case 'B':
+        case 'Z':
+            return 1;
+        default:
+            return compressedOops ? 4 : 8;
+        }
+    }
+
+    private static int widthIndex(int width) {
+        return Integer.numberOfTrailingZeros(8 / width);
+    }
+
+    private static int align(int offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+}
@@ -0,0 +1,771 @@
+package com.weaselogic.getset;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.FieldNode;
+
+/**
+ * Adds {@code writeJson(Appendable)} to a bean, writing it as a JSON object
+ * with one member per attribute in schema order.
+ * <p>
+ * Member names are written as string constants, one per attribute, that
+ * include the surrounding punctuation. Integral attributes are written digit
+ * by digit, so a bean with only integral, {@code char} and {@code boolean}
+ * attributes allocates nothing. {@code float} and {@code double} are
+ * appended straight to a {@code StringBuilder} and formatted with
+ * {@code String.valueOf} otherwise; NaN and infinities are written as
+ * {@code null}, which is all JSON allows. {@code char} and {@code String} are
+ * written as escaped JSON strings and arrays as JSON arrays.
+ * <p>
+ * Attributes declared as {@code List}, {@code Set}, {@code Collection} or
+ * {@code Iterable} are written as arrays, and {@code Map} as objects with the
+ * {@code String.valueOf} of each key as the member name. Their elements, and
+ * attributes of any other reference type, are written by type at run time:
+ * strings, boxed primitives, maps, iterables and object arrays as above, and
+ * anything else as the JSON string of its {@code toString()}. Random access
+ * lists are walked by index, other iterables and maps with an iterator.
+ * <p>
+ * The work is done by private static {@code json$} helpers, one per type,
+ * that {@code writeJson} and each other share.
+ */
+class JsonBuilder {
+    private static final String APPENDABLE = "java/lang/Appendable";
+
+    private static final String APPENDABLE_DESC = "L" + APPENDABLE + ";";
+
+    private static final String IO_EXCEPTION = "java/io/IOException";
+
+    private static final String HELPER = "json$";
+
+    private static final String ESCAPE_HELPER = "escape$";
+
+    private static final String CHAR_SEQUENCE = "Ljava/lang/CharSequence;";
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+
+    private static final String OBJECT_ARRAY = "[Ljava/lang/Object;";
+
+    private static final String ITERABLE = "Ljava/lang/Iterable;";
+
+    private static final String MAP = "Ljava/util/Map;";
+
+    private static final String HEX_DIGITS = "0123456789abcdef";
+
+    private final ClassVisitor cv;
+    private final String name;
+    private final List<FieldNode> attributes;
+    private final Set<FieldNode> readByGetter;
+    private final Set<String> helpers = new LinkedHashSet<>();
+
+    /**
+     * @param readByGetter attributes to read through their getter rather than
+     *                     their field, such as lazily defaulted ones
+     */
+    JsonBuilder(ClassVisitor cv, String name, List<FieldNode> attributes, Set<FieldNode> readByGetter) {
+        this.cv = cv;
+        this.name = name;
+        this.attributes = attributes;
+        this.readByGetter = readByGetter;
+        for (FieldNode fn : attributes) {
+            requireHelper(helperDesc(fn.desc));
+        }
+    }
+
+    void addJson() {
+        addWriteJson();
+        for (String desc : helpers) {
+            switch (desc.charAt(0)) {
+            case 'J':
+                addLongWriter();
+                break;
+            case 'Z':
+                addBooleanWriter();
+                break;
+            case 'C':
+                addCharWriter();
+                break;
+            case 'F':
+            case 'D':
+                addFloatingWriter(desc);
+                break;
+            case '[':
+                addArrayWriter(desc);
+                break;
+            default:
+                if (desc.equals(CHAR_SEQUENCE)) {
+                    addStringWriter();
+                } else if (desc.equals(ITERABLE)) {
+                    addIterableWriter();
+                } else if (desc.equals(MAP)) {
+                    addMapWriter();
+                } else {
+                    addObjectWriter();
+                }
+            }
+        }
+        if (helpers.contains("C") || helpers.contains(CHAR_SEQUENCE)) {
+            addEscape();
+        }
+    }
+
+    /**
+     * @return the parameter type of the helper that writes values of type
+     *         {@code desc}
+     */
+    private static String helperDesc(String desc) {
+        switch (desc.charAt(0)) {
+        case 'B':
+        case 'S':
+        case 'I':
+        case 'J':
+            return "J";
+        case 'Z':
+        case 'C':
+        case 'F':
+        case 'D':
+            return desc;
+        case '[':
+            String element = desc.substring(1);
+            if (element.length() == 1 || element.startsWith("[")) {
+                return "[" + (element.length() == 1 ? element : helperDesc(element));
+            }
+            return element.equals("Ljava/lang/String;") ? "[" + element : OBJECT_ARRAY;
+        default:
+            switch (desc) {
+            case "Ljava/lang/String;":
+            case CHAR_SEQUENCE:
+                return CHAR_SEQUENCE;
+            case "Ljava/util/List;":
+            case "Ljava/util/Set;":
+            case "Ljava/util/Collection;":
+            case ITERABLE:
+                return ITERABLE;
+            case MAP:
+                return MAP;
+            default:
+                return OBJECT;
+            }
+        }
+    }
+
+    private void requireHelper(String desc) {
+        if (!helpers.add(desc)) {
+            return;
+        }
+        if (desc.startsWith("[")) {
+            String element = desc.substring(1);
+            if (element.equals("Ljava/lang/String;")) {
+                requireHelper(CHAR_SEQUENCE);
+            } else {
+                requireHelper(helperDesc(element));
+            }
+        } else if (desc.equals(ITERABLE)) {
+            requireHelper(OBJECT);
+        } else if (desc.equals(MAP)) {
+            requireHelper(CHAR_SEQUENCE);
+            requireHelper(OBJECT);
+        } else if (desc.equals(OBJECT)) {
+            for (String d : new String[] { CHAR_SEQUENCE, "Z", "C", "F", "D", "J", OBJECT_ARRAY, ITERABLE, MAP }) {
+                requireHelper(d);
+            }
+        }
+    }
+
+    /**
+     * {@code public void writeJson(Appendable out) throws IOException}
+     */
+    private void addWriteJson() {
+        MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC, "writeJson", "(" + APPENDABLE_DESC + ")V",
+                null, new String[] { IO_EXCEPTION });
+        mv.visitCode();
+        if (attributes.isEmpty()) {
+            appendLiteral(mv, 1, "{}");
+        }
+        for (int i = 0; i < attributes.size(); i++) {
+            FieldNode fn = attributes.get(i);
+            appendLiteral(mv, 1, (i == 0 ? "{\"" : ",\"") + fn.name + "\":");
+            mv.visitVarInsn(Opcodes.ALOAD, 1);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            if (readByGetter.contains(fn)) {
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name,
+                        "get" + Character.toUpperCase(fn.name.charAt(0)) + fn.name.substring(1), "()" + fn.desc, false);
+            } else {
+                mv.visitFieldInsn(Opcodes.GETFIELD, name, fn.name, fn.desc);
+            }
+            callHelper(mv, fn.desc);
+        }
+        if (!attributes.isEmpty()) {
+            appendLiteral(mv, 1, "}");
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(3, 2);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void json$(Appendable out, long value)}, which
+     * works on the negative of the value's magnitude, so that
+     * {@code Long.MIN_VALUE} needs no special case, and writes its digits from
+     * the most significant down.
+     */
+    private void addLongWriter() {
+        MethodVisitor mv = visitHelper("J");
+        Label nonNegative = new Label();
+        Label negated = new Label();
+        Label scale = new Label();
+        Label digits = new Label();
+        Object[] locals = { APPENDABLE, Opcodes.LONG, Opcodes.LONG };
+
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitInsn(Opcodes.LCMP);
+        mv.visitJumpInsn(Opcodes.IFGE, nonNegative);
+        appendLiteral(mv, 0, "-");
+        mv.visitJumpInsn(Opcodes.GOTO, negated);
+        mv.visitLabel(nonNegative);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitInsn(Opcodes.LNEG);
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+
+        // the power of ten of the leading digit
+        mv.visitLabel(negated);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        mv.visitInsn(Opcodes.LCONST_1);
+        mv.visitVarInsn(Opcodes.LSTORE, 3);
+        mv.visitLabel(scale);
+        mv.visitFrame(Opcodes.F_FULL, 3, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitVarInsn(Opcodes.LLOAD, 3);
+        mv.visitInsn(Opcodes.LDIV);
+        mv.visitLdcInsn(-10L);
+        mv.visitInsn(Opcodes.LCMP);
+        mv.visitJumpInsn(Opcodes.IFGT, digits);
+        mv.visitVarInsn(Opcodes.LLOAD, 3);
+        mv.visitLdcInsn(10L);
+        mv.visitInsn(Opcodes.LMUL);
+        mv.visitVarInsn(Opcodes.LSTORE, 3);
+        mv.visitJumpInsn(Opcodes.GOTO, scale);
+
+        // out.append((char) ('0' - value / power % 10))
+        mv.visitLabel(digits);
+        mv.visitFrame(Opcodes.F_FULL, 3, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitIntInsn(Opcodes.BIPUSH, '0');
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitVarInsn(Opcodes.LLOAD, 3);
+        mv.visitInsn(Opcodes.LDIV);
+        mv.visitLdcInsn(10L);
+        mv.visitInsn(Opcodes.LREM);
+        mv.visitInsn(Opcodes.L2I);
+        mv.visitInsn(Opcodes.ISUB);
+        mv.visitInsn(Opcodes.I2C);
+        appendChar(mv);
+        mv.visitVarInsn(Opcodes.LLOAD, 3);
+        mv.visitLdcInsn(10L);
+        mv.visitInsn(Opcodes.LDIV);
+        mv.visitInsn(Opcodes.DUP2);
+        mv.visitVarInsn(Opcodes.LSTORE, 3);
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitInsn(Opcodes.LCMP);
+        mv.visitJumpInsn(Opcodes.IFGT, digits);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(6, 5);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void json$(Appendable out, boolean value)}
+     */
+    private void addBooleanWriter() {
+        MethodVisitor mv = visitHelper("Z");
+        Label isFalse = new Label();
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitJumpInsn(Opcodes.IFEQ, isFalse);
+        appendLiteral(mv, 0, "true");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitLabel(isFalse);
+        mv.visitFrame(Opcodes.F_FULL, 2, new Object[] { APPENDABLE, Opcodes.INTEGER }, 0, new Object[0]);
+        appendLiteral(mv, 0, "false");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(2, 2);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void json$(Appendable out, char value)}
+     */
+    private void addCharWriter() {
+        MethodVisitor mv = visitHelper("C");
+        mv.visitCode();
+        appendLiteral(mv, 0, "\"");
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, ESCAPE_HELPER, "(" + APPENDABLE_DESC + "C)V", false);
+        appendLiteral(mv, 0, "\"");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(2, 2);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void escape$(Appendable out, char c)}, which
+     * writes {@code c} as it appears inside a JSON string.
+     */
+    private void addEscape() {
+        MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC, ESCAPE_HELPER,
+                "(" + APPENDABLE_DESC + "C)V", null, new String[] { IO_EXCEPTION });
+        Label backslash = new Label();
+        Label control = new Label();
+        Object[] locals = { APPENDABLE, Opcodes.INTEGER };
+
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitIntInsn(Opcodes.BIPUSH, '"');
+        mv.visitJumpInsn(Opcodes.IF_ICMPEQ, backslash);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitIntInsn(Opcodes.BIPUSH, '\\');
+        mv.visitJumpInsn(Opcodes.IF_ICMPEQ, backslash);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitIntInsn(Opcodes.BIPUSH, ' ');
+        mv.visitJumpInsn(Opcodes.IF_ICMPLT, control);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        appendChar(mv);
+        mv.visitInsn(Opcodes.RETURN);
+
+        mv.visitLabel(backslash);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        appendLiteral(mv, 0, "\\");
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        appendChar(mv);
+        mv.visitInsn(Opcodes.RETURN);
+
+        // a backslash, u00 and two hex digits
+        mv.visitLabel(control);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        appendLiteral(mv, 0, "\\u00");
+        for (int shift = 4; shift >= 0; shift -= 4) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitLdcInsn(HEX_DIGITS);
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            if (shift > 0) {
+                mv.visitInsn(Opcodes.ICONST_4);
+                mv.visitInsn(Opcodes.ISHR);
+            } else {
+                mv.visitIntInsn(Opcodes.BIPUSH, 15);
+                mv.visitInsn(Opcodes.IAND);
+            }
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C", false);
+            appendChar(mv);
+        }
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(4, 2);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void json$(Appendable out, CharSequence s)}
+     */
+    private void addStringWriter() {
+        MethodVisitor mv = visitHelper(CHAR_SEQUENCE);
+        Label loop = new Label();
+        Label end = new Label();
+        Object[] locals = { APPENDABLE, "java/lang/CharSequence", Opcodes.INTEGER };
+
+        mv.visitCode();
+        addNullCheck(mv, locals);
+        appendLiteral(mv, 0, "\"");
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 2);
+        mv.visitLabel(loop);
+        mv.visitFrame(Opcodes.F_FULL, 3, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/lang/CharSequence", "length", "()I", true);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/lang/CharSequence", "charAt", "(I)C", true);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, ESCAPE_HELPER, "(" + APPENDABLE_DESC + "C)V", false);
+        mv.visitIincInsn(2, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, loop);
+        mv.visitLabel(end);
+        mv.visitFrame(Opcodes.F_FULL, 3, locals, 0, new Object[0]);
+        appendLiteral(mv, 0, "\"");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(3, 3);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void json$(Appendable out, float value)} and the
+     * {@code double} equivalent.
+     */
+    private void addFloatingWriter(String desc) {
+        Type type = Type.getType(desc);
+        String box = desc.equals("F") ? "java/lang/Float" : "java/lang/Double";
+        MethodVisitor mv = visitHelper(desc);
+        Label notFinite = new Label();
+        Label slow = new Label();
+        Object[] locals = { APPENDABLE, desc.equals("F") ? Opcodes.FLOAT : Opcodes.DOUBLE };
+
+        mv.visitCode();
+        mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, box, "isNaN", "(" + desc + ")Z", false);
+        mv.visitJumpInsn(Opcodes.IFNE, notFinite);
+        mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, box, "isInfinite", "(" + desc + ")Z", false);
+        mv.visitJumpInsn(Opcodes.IFNE, notFinite);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitTypeInsn(Opcodes.INSTANCEOF, "java/lang/StringBuilder");
+        mv.visitJumpInsn(Opcodes.IFEQ, slow);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/StringBuilder");
+        mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                "(" + desc + ")Ljava/lang/StringBuilder;", false);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitInsn(Opcodes.RETURN);
+
+        mv.visitLabel(slow);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/String", "valueOf", "(" + desc + ")Ljava/lang/String;", false);
+        appendCharSequence(mv);
+        mv.visitInsn(Opcodes.RETURN);
+
+        mv.visitLabel(notFinite);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        appendLiteral(mv, 0, "null");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(1 + type.getSize(), 1 + type.getSize());
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void json$(Appendable out, T[] array)}
+     */
+    private void addArrayWriter(String desc) {
+        String element = desc.substring(1);
+        MethodVisitor mv = visitHelper(desc);
+        Label loop = new Label();
+        Label first = new Label();
+        Label end = new Label();
+        Object[] locals = { APPENDABLE, desc, Opcodes.INTEGER };
+
+        mv.visitCode();
+        addNullCheck(mv, locals);
+        appendLiteral(mv, 0, "[");
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 2);
+        mv.visitLabel(loop);
+        mv.visitFrame(Opcodes.F_FULL, 3, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitInsn(Opcodes.ARRAYLENGTH);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitJumpInsn(Opcodes.IFEQ, first);
+        appendLiteral(mv, 0, ",");
+        mv.visitLabel(first);
+        mv.visitFrame(Opcodes.F_FULL, 3, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitInsn(Type.getType(element).getOpcode(Opcodes.IALOAD));
+        callHelper(mv, element);
+        mv.visitIincInsn(2, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, loop);
+        mv.visitLabel(end);
+        mv.visitFrame(Opcodes.F_FULL, 3, locals, 0, new Object[0]);
+        appendLiteral(mv, 0, "]");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(4, 3);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void json$(Appendable out, Iterable values)}
+     */
+    private void addIterableWriter() {
+        MethodVisitor mv = visitHelper(ITERABLE);
+        Label iterate = new Label();
+        Label indexed = new Label();
+        Label indexedFirst = new Label();
+        Label indexedEnd = new Label();
+        Label loop = new Label();
+        Label first = new Label();
+        Label end = new Label();
+        Object[] listLocals = { APPENDABLE, "java/lang/Iterable", "java/util/List", Opcodes.INTEGER, Opcodes.INTEGER };
+        Object[] iteratorLocals = { APPENDABLE, "java/lang/Iterable", "java/util/Iterator", Opcodes.INTEGER };
+
+        mv.visitCode();
+        addNullCheck(mv, iteratorLocals);
+        appendLiteral(mv, 0, "[");
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.INSTANCEOF, "java/util/RandomAccess");
+        mv.visitJumpInsn(Opcodes.IFEQ, iterate);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.INSTANCEOF, "java/util/List");
+        mv.visitJumpInsn(Opcodes.IFEQ, iterate);
+
+        // for (int i = 0; i < list.size(); i++)
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, "java/util/List");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/List", "size", "()I", true);
+        mv.visitVarInsn(Opcodes.ISTORE, 3);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 4);
+        mv.visitLabel(indexed);
+        mv.visitFrame(Opcodes.F_FULL, 5, listLocals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, indexedEnd);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitJumpInsn(Opcodes.IFEQ, indexedFirst);
+        appendLiteral(mv, 0, ",");
+        mv.visitLabel(indexedFirst);
+        mv.visitFrame(Opcodes.F_FULL, 5, listLocals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitVarInsn(Opcodes.ILOAD, 4);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/List", "get", "(I)" + OBJECT, true);
+        callHelper(mv, OBJECT);
+        mv.visitIincInsn(4, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, indexed);
+        mv.visitLabel(indexedEnd);
+        mv.visitFrame(Opcodes.F_FULL, 5, listLocals, 0, new Object[0]);
+        appendLiteral(mv, 0, "]");
+        mv.visitInsn(Opcodes.RETURN);
+
+        // for (Iterator i = values.iterator(); i.hasNext();), local 3 true
+        // until the first element is written
+        mv.visitLabel(iterate);
+        mv.visitFrame(Opcodes.F_FULL, 2, iteratorLocals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/lang/Iterable", "iterator", "()Ljava/util/Iterator;", true);
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitVarInsn(Opcodes.ISTORE, 3);
+        mv.visitLabel(loop);
+        mv.visitFrame(Opcodes.F_FULL, 4, iteratorLocals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Iterator", "hasNext", "()Z", true);
+        mv.visitJumpInsn(Opcodes.IFEQ, end);
+        addSeparator(mv, first);
+        mv.visitLabel(first);
+        mv.visitFrame(Opcodes.F_FULL, 4, iteratorLocals, 0, new Object[0]);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 3);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Iterator", "next", "()" + OBJECT, true);
+        callHelper(mv, OBJECT);
+        mv.visitJumpInsn(Opcodes.GOTO, loop);
+        mv.visitLabel(end);
+        mv.visitFrame(Opcodes.F_FULL, 4, iteratorLocals, 0, new Object[0]);
+        appendLiteral(mv, 0, "]");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(3, 5);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void json$(Appendable out, Map values)}
+     */
+    private void addMapWriter() {
+        MethodVisitor mv = visitHelper(MAP);
+        Label loop = new Label();
+        Label first = new Label();
+        Label end = new Label();
+        Object[] locals = { APPENDABLE, "java/util/Map", "java/util/Iterator", Opcodes.INTEGER, "java/util/Map$Entry" };
+
+        mv.visitCode();
+        addNullCheck(mv, locals);
+        appendLiteral(mv, 0, "{");
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Map", "entrySet", "()Ljava/util/Set;", true);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Set", "iterator", "()Ljava/util/Iterator;", true);
+        mv.visitVarInsn(Opcodes.ASTORE, 2);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitVarInsn(Opcodes.ISTORE, 3);
+        mv.visitLabel(loop);
+        mv.visitFrame(Opcodes.F_FULL, 4, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Iterator", "hasNext", "()Z", true);
+        mv.visitJumpInsn(Opcodes.IFEQ, end);
+        addSeparator(mv, first);
+        mv.visitLabel(first);
+        mv.visitFrame(Opcodes.F_FULL, 4, locals, 0, new Object[0]);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 3);
+        mv.visitVarInsn(Opcodes.ALOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Iterator", "next", "()" + OBJECT, true);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, "java/util/Map$Entry");
+        mv.visitVarInsn(Opcodes.ASTORE, 4);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 4);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Map$Entry", "getKey", "()" + OBJECT, true);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/String", "valueOf", "(" + OBJECT + ")Ljava/lang/String;", false);
+        callHelper(mv, CHAR_SEQUENCE);
+        appendLiteral(mv, 0, ":");
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 4);
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/Map$Entry", "getValue", "()" + OBJECT, true);
+        callHelper(mv, OBJECT);
+        mv.visitJumpInsn(Opcodes.GOTO, loop);
+        mv.visitLabel(end);
+        mv.visitFrame(Opcodes.F_FULL, 4, locals, 0, new Object[0]);
+        appendLiteral(mv, 0, "}");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(2, 5);
+        mv.visitEnd();
+    }
+
+    /**
+     * {@code private static void json$(Appendable out, Object value)}, which
+     * picks the writer by the value's class.
+     */
+    private void addObjectWriter() {
+        MethodVisitor mv = visitHelper(OBJECT);
+        Object[] locals = { APPENDABLE, "java/lang/Object" };
+
+        mv.visitCode();
+        addNullCheck(mv, locals);
+        dispatch(mv, locals, "java/lang/CharSequence", null, CHAR_SEQUENCE);
+        dispatch(mv, locals, "java/lang/Boolean", "booleanValue", "Z");
+        dispatch(mv, locals, "java/lang/Character", "charValue", "C");
+        dispatch(mv, locals, "java/lang/Float", "floatValue", "F");
+        dispatch(mv, locals, "java/lang/Double", "doubleValue", "D");
+        for (String integral : new String[] { "java/lang/Long", "java/lang/Integer", "java/lang/Short", "java/lang/Byte" }) {
+            dispatch(mv, locals, integral, "longValue", "J");
+        }
+        dispatch(mv, locals, "java/util/Map", null, MAP);
+        dispatch(mv, locals, "java/lang/Iterable", null, ITERABLE);
+        dispatch(mv, locals, OBJECT_ARRAY, null, OBJECT_ARRAY);
+
+        // other numbers, e.g. BigDecimal, as they print themselves
+        Label other = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.INSTANCEOF, "java/lang/Number");
+        mv.visitJumpInsn(Opcodes.IFEQ, other);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "toString", "()Ljava/lang/String;", false);
+        appendCharSequence(mv);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitLabel(other);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Object", "toString", "()Ljava/lang/String;", false);
+        callHelper(mv, CHAR_SEQUENCE);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(3, 2);
+        mv.visitEnd();
+    }
+
+    /**
+     * If the value in local 1 is an instance of {@code type}, writes it with
+     * the helper for {@code helperDesc}, unboxed by {@code unbox} if not
+     * {@code null}, and returns.
+     */
+    private void dispatch(MethodVisitor mv, Object[] locals, String type, String unbox, String helperDesc) {
+        Label next = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitTypeInsn(Opcodes.INSTANCEOF, type);
+        mv.visitJumpInsn(Opcodes.IFEQ, next);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        if (unbox != null) {
+            String owner = unbox.equals("longValue") ? "java/lang/Number" : type;
+            mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, unbox, "()" + helperDesc, false);
+        } else {
+            mv.visitTypeInsn(Opcodes.CHECKCAST, Type.getType(helperDesc).getInternalName());
+        }
+        callHelper(mv, helperDesc);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitLabel(next);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+    }
+
+    private MethodVisitor visitHelper(String desc) {
+        return cv.visitMethod(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC, HELPER,
+                "(" + APPENDABLE_DESC + desc + ")V", null, new String[] { IO_EXCEPTION });
+    }
+
+    /**
+     * Calls the helper for a value of type {@code desc} on the stack above
+     * the {@code Appendable}, widening integral values to {@code long}.
+     */
+    private void callHelper(MethodVisitor mv, String desc) {
+        String helperDesc = helperDesc(desc);
+        if (helperDesc.equals("J") && !desc.equals("J")) {
+            mv.visitInsn(Opcodes.I2L);
+        }
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, name, HELPER, "(" + APPENDABLE_DESC + helperDesc + ")V", false);
+    }
+
+    /**
+     * Writes {@code null} and returns if local 1 is {@code null}.
+     */
+    private void addNullCheck(MethodVisitor mv, Object[] locals) {
+        Label notNull = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitJumpInsn(Opcodes.IFNONNULL, notNull);
+        appendLiteral(mv, 0, "null");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitLabel(notNull);
+        mv.visitFrame(Opcodes.F_FULL, 2, locals, 0, new Object[0]);
+    }
+
+    /**
+     * Writes a comma unless local 3 says no element has been written yet.
+     */
+    private void addSeparator(MethodVisitor mv, Label first) {
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitJumpInsn(Opcodes.IFNE, first);
+        appendLiteral(mv, 0, ",");
+    }
+
+    /**
+     * Appends the constant {@code text} to the {@code Appendable} in local
+     * {@code out}.
+     */
+    private static void appendLiteral(MethodVisitor mv, int out, String text) {
+        mv.visitVarInsn(Opcodes.ALOAD, out);
+        if (text.length() == 1) {
+            mv.visitIntInsn(Opcodes.BIPUSH, text.charAt(0));
+            appendChar(mv);
+        } else {
+            mv.visitLdcInsn(text);
+            appendCharSequence(mv);
+        }
+    }
+
+    private static void appendChar(MethodVisitor mv) {
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, APPENDABLE, "append", "(C)" + APPENDABLE_DESC, true);
+        mv.visitInsn(Opcodes.POP);
+    }
+
+    private static void appendCharSequence(MethodVisitor mv) {
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, APPENDABLE, "append", "(" + CHAR_SEQUENCE + ")" + APPENDABLE_DESC, true);
+        mv.visitInsn(Opcodes.POP);
+    }
+}
@@ -0,0 +1,99 @@
+package com.weaselogic.getset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Source text of a large schema file read through a memory mapping.
+ * <p>
+ * Schema files are almost always plain ASCII. When they are, and the source
+ * charset encodes ASCII as itself, the mapped bytes are used as characters
+ * directly and nothing is decoded or copied. Anything else is decoded once.
+ */
+final class MappedSource {
+    private static final long NON_ASCII_BITS = 0x8080808080808080L;
+
+    private MappedSource() {
+    }
+
+    static CharSequence open(Path file, Charset charset) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+                throw new IOException("Source file too large: " + file);
+            }
+            MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (encodesAsciiAsItself(charset) && isAscii(mapped)) {
+                return new AsciiSequence(mapped, 0, mapped.limit());
+            }
+            return charset.decode(mapped);
+        }
+    }
+
+    private static boolean encodesAsciiAsItself(Charset charset) {
+        return charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isAscii(ByteBuffer bytes) {
+        int limit = bytes.limit();
+        int i = 0;
+        for (; i + 8 <= limit; i += 8) {
+            if ((bytes.getLong(i) & NON_ASCII_BITS) != 0) {
+                return false;
+            }
+        }
+        for (; i < limit; i++) {
+            if (bytes.get(i) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * ASCII bytes seen as characters. Only absolute reads are used, so one
+     * instance can be scanned by several threads.
+     */
+    static final class AsciiSequence implements CharSequence {
+        private final ByteBuffer bytes;
+        private final int offset;
+        private final int length;
+
+        AsciiSequence(ByteBuffer bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) bytes.get(offset + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiSequence(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            byte[] ascii = new byte[length];
+            for (int i = 0; i < length; i++) {
+                ascii[i] = bytes.get(offset + i);
+            }
+            return new String(ascii, StandardCharsets.US_ASCII);
+        }
+    }
+}
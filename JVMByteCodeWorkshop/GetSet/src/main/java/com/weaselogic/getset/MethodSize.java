@@ -0,0 +1,171 @@
+package com.weaselogic.getset;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * The bytecode size of one method of a generated class, measured against the
+ * limits HotSpot's JIT uses by default to decide what to inline.
+ * <p>
+ * A method no longer than {@link #MAX_INLINE_SIZE} bytes is inlined wherever
+ * it is called; a longer one only at call sites hot enough to be compiled,
+ * and only up to {@link #FREQ_INLINE_SIZE} bytes. Both limits can be changed
+ * with {@code -XX:MaxInlineSize} and {@code -XX:FreqInlineSize}. A method
+ * over {@link #HUGE_METHOD_LIMIT} bytes is not compiled at all unless
+ * {@code -XX:-DontCompileHugeMethods} is given, and runs interpreted.
+ */
+public final class MethodSize {
+    /** HotSpot's default {@code -XX:MaxInlineSize}. */
+    public static final int MAX_INLINE_SIZE = 35;
+
+    /** HotSpot's default {@code -XX:FreqInlineSize} on x86_64. */
+    public static final int FREQ_INLINE_SIZE = 325;
+
+    /** HotSpot's {@code HugeMethodLimit}, a develop flag fixed in product VMs. */
+    public static final int HUGE_METHOD_LIMIT = 8000;
+
+    private final String className;
+    private final String name;
+    private final String desc;
+    private final int codeLength;
+    private final int maxStack;
+    private final int maxLocals;
+    private final int constantPoolSize;
+
+    MethodSize(String className, String name, String desc, int codeLength, int maxStack, int maxLocals,
+               int constantPoolSize) {
+        this.className = className;
+        this.name = name;
+        this.desc = desc;
+        this.codeLength = codeLength;
+        this.maxStack = maxStack;
+        this.maxLocals = maxLocals;
+        this.constantPoolSize = constantPoolSize;
+    }
+
+    /**
+     * @return the sizes of the methods of {@code classFile} that have code,
+     *         in class file order
+     */
+    static List<MethodSize> of(byte[] classFile) {
+        ClassReader cr = new ClassReader(classFile);
+        char[] buf = new char[cr.getMaxStringLength()];
+        String className = cr.getClassName().replace('/', '.');
+
+        // access, this, super, then the interfaces
+        int u = cr.header + 6;
+        u += 2 + 2 * cr.readUnsignedShort(u);
+        // the fields, skipped attribute by attribute
+        int fields = cr.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < fields; i++) {
+            u = skipAttributes(cr, u + 6);
+        }
+        List<MethodSize> sizes = new ArrayList<>();
+        int methods = cr.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < methods; i++) {
+            String name = cr.readUTF8(u + 2, buf);
+            String desc = cr.readUTF8(u + 4, buf);
+            int attributes = cr.readUnsignedShort(u + 6);
+            u += 8;
+            for (int j = 0; j < attributes; j++) {
+                int length = cr.readInt(u + 2);
+                if ("Code".equals(cr.readUTF8(u, buf))) {
+                    sizes.add(new MethodSize(className, name, desc,
+                            cr.readInt(u + 10), cr.readUnsignedShort(u + 6), cr.readUnsignedShort(u + 8),
+                            cr.getItemCount()));
+                }
+                u += 6 + length;
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * @param u the offset of an attribute count
+     * @return the offset just past the attributes
+     */
+    private static int skipAttributes(ClassReader cr, int u) {
+        int attributes = cr.readUnsignedShort(u);
+        u += 2;
+        for (int i = 0; i < attributes; i++) {
+            u += 6 + cr.readInt(u + 2);
+        }
+        return u;
+    }
+
+    /**
+     * @return the binary name of the class, with dots
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDesc() {
+        return desc;
+    }
+
+    /**
+     * @return the length of the method's bytecode, the size the JIT compares
+     *         against its inlining limits
+     */
+    public int getCodeLength() {
+        return codeLength;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public int getMaxLocals() {
+        return maxLocals;
+    }
+
+    /**
+     * @return the constant pool count of the method's class, which every
+     *         method of the class shares
+     */
+    public int getConstantPoolSize() {
+        return constantPoolSize;
+    }
+
+    public boolean isConstructor() {
+        return "<init>".equals(name);
+    }
+
+    /**
+     * @return true if the method is only inlined at hot call sites
+     */
+    public boolean isOverMaxInlineSize() {
+        return codeLength > MAX_INLINE_SIZE;
+    }
+
+    /**
+     * @return true if the method is not inlined even at hot call sites
+     */
+    public boolean isOverFreqInlineSize() {
+        return codeLength > FREQ_INLINE_SIZE;
+    }
+
+    /**
+     * @return true if the method is never JIT compiled by default
+     */
+    public boolean isOverHugeMethodLimit() {
+        return codeLength > HUGE_METHOD_LIMIT;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s.%s%s: %d bytes%s", className, name, desc, codeLength,
+                isOverHugeMethodLimit() ? " (over HugeMethodLimit)"
+                        : isOverFreqInlineSize() ? " (over FreqInlineSize)"
+                        : isOverMaxInlineSize() ? " (over MaxInlineSize)" : "");
+    }
+}
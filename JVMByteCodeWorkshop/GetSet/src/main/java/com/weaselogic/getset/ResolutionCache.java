@@ -0,0 +1,98 @@
+package com.weaselogic.getset;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Type resolution results shared by every {@link Compiler} in a process.
+ * <p>
+ * How a simple name resolves depends only on the on-demand imports in effect
+ * and on what the classpath holds, so results are kept per import context and
+ * reused by every source with the same on-demand imports. Names that do not
+ * resolve are cached too; ambiguous ones are not, so each use reports them.
+ * Explicitly imported names never reach the cache.
+ * <p>
+ * Results found by loading classes are also kept per class loader, so
+ * compilers resolving through different loaders can share a cache. A cache
+ * must only be shared by compilers that resolve against the same
+ * {@link ClassIndex}, if any.
+ */
+public class ResolutionCache {
+
+    /** Cached in place of a binary name for names known not to resolve. */
+    static final String UNRESOLVED = "";
+
+    private static final char CONTEXT_SEPARATOR = ',';
+
+    /**
+     * The resolutions for one set of on-demand imports.
+     */
+    public class Context {
+        private final ConcurrentMap<String, String> names = new ConcurrentHashMap<>();
+
+        /**
+         * @return the binary name {@code name} resolves to, {@link #UNRESOLVED}
+         *         if it is known not to resolve, or {@code null} if it has not
+         *         been looked up yet
+         */
+        String get(String name) {
+            String fqn = names.get(name);
+            if (fqn == null) {
+                misses.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            return fqn;
+        }
+
+        void put(String name, String fqn) {
+            names.put(name, fqn == null ? UNRESOLVED : fqn);
+        }
+    }
+
+    private final ConcurrentMap<List<Object>, Context> contexts = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param loader          the loader types are resolved through, or
+     *                        {@code null} when they are looked up in a
+     *                        {@link ClassIndex}
+     * @param wildcardImports the on-demand import packages in lookup order
+     */
+    public Context context(ClassLoader loader, List<String> wildcardImports) {
+        StringBuilder sb = new StringBuilder();
+        for (String p : wildcardImports) {
+            sb.append(p).append(CONTEXT_SEPARATOR);
+        }
+        // loaders compare by identity
+        List<Object> key = Arrays.<Object>asList(loader, sb.toString());
+
+        Context context = contexts.get(key);
+        if (context == null) {
+            Context created = new Context();
+            context = contexts.putIfAbsent(key, created);
+            if (context == null) {
+                context = created;
+            }
+        }
+        return context;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d misses, %d import contexts",
+                getHits(), getMisses(), contexts.size());
+    }
+}
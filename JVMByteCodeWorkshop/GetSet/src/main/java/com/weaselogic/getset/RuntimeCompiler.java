@@ -0,0 +1,168 @@
+package com.weaselogic.getset;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Compiles schemas held in memory straight to loaded classes.
+ * <p>
+ * Results are memoized on the normalized schema text, so asking again for a
+ * schema that only differs in comments, blank lines or spacing returns the
+ * same {@code Class} without recompiling. Concurrent requests for the same
+ * schema wait for a single compilation. Failed compilations are not cached.
+ * <p>
+ * Every distinct schema is defined in its own class loader, so two schemas
+ * may declare the same class name. Classes generated alongside a schema's
+ * class, such as its flyweight, are defined in the same loader and can be
+ * loaded through it.
+ */
+public class RuntimeCompiler {
+
+    private static class SchemaClassLoader extends ClassLoader {
+        SchemaClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] code) {
+            return defineClass(name, code, 0, code.length);
+        }
+    }
+
+    private final ClassLoader parent;
+    private final ResolutionCache resolutionCache = new ResolutionCache();
+    private final ConcurrentMap<String, FutureTask<Class<?>>> classes = new ConcurrentHashMap<>();
+
+    public RuntimeCompiler() {
+        this(RuntimeCompiler.class.getClassLoader());
+    }
+
+    /**
+     * @param parent the loader schema types are resolved through, and that
+     *               generated classes load their dependencies from
+     */
+    public RuntimeCompiler(ClassLoader parent) {
+        this.parent = parent;
+    }
+
+    public Class<?> compile(Reader schema) throws CompileException {
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[4096];
+        try {
+            int n;
+            while ((n = schema.read(buf)) >= 0) {
+                sb.append(buf, 0, n);
+            }
+        } catch (IOException e) {
+            throw new CompileException("Unable to read schema", e);
+        }
+        return compile(sb);
+    }
+
+    public Class<?> compile(CharSequence schema) throws CompileException {
+        final String text = schema.toString();
+        String key = normalize(text);
+
+        FutureTask<Class<?>> task = classes.get(key);
+        if (task == null) {
+            FutureTask<Class<?>> created = new FutureTask<>(new Callable<Class<?>>() {
+                @Override
+                public Class<?> call() throws CompileException {
+                    return define(text);
+                }
+            });
+            task = classes.putIfAbsent(key, created);
+            if (task == null) {
+                task = created;
+                task.run();
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException x) {
+            classes.remove(key, task);
+            if (x.getCause() instanceof CompileException) {
+                throw (CompileException) x.getCause();
+            }
+            throw new CompileException("Unable to compile schema", x.getCause());
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw new CompileException("Interrupted while compiling schema", x);
+        }
+    }
+
+    public ResolutionCache getResolutionCache() {
+        return resolutionCache;
+    }
+
+    /**
+     * @return the number of distinct schemas compiled so far
+     */
+    public int size() {
+        return classes.size();
+    }
+
+    private Class<?> define(String text) throws CompileException {
+        Compiler cmp = new Compiler(null, new StringReader(text), new StreamingClassBuilder());
+        cmp.setClassLoader(parent);
+        cmp.setResolutionCache(resolutionCache);
+        byte[] code;
+        try {
+            code = cmp.compile();
+        } catch (RuntimeException x) {
+            throw new CompileException("Unable to compile schema", x);
+        }
+        try {
+            SchemaClassLoader loader = new SchemaClassLoader(parent);
+            for (Map.Entry<String, byte[]> companion : cmp.getCompanionClasses().entrySet()) {
+                loader.define(companion.getKey(), companion.getValue());
+            }
+            return loader.define(cmp.getClassName(), code);
+        } catch (LinkageError x) {
+            throw new CompileException("Unable to define " + cmp.getClassName(), x);
+        }
+    }
+
+    /**
+     * Reduces a schema to what the compiler actually reads: comment and blank
+     * lines are dropped, lines are trimmed and runs of whitespace collapsed.
+     */
+    static String normalize(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String line = text.substring(start, end).trim();
+            start = end + 1;
+
+            if (line.isEmpty() || line.startsWith(Compiler.COMMENT)) {
+                continue;
+            }
+            boolean space = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    space = true;
+                    continue;
+                }
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,248 @@
+package com.weaselogic.getset;
+
+/**
+ * Character level scanner over a schema source buffer.
+ * <p>
+ * The lexer walks the buffer once, line by line. Blank and comment lines are
+ * skipped by {@link #nextLine()}; within a line the caller pulls tokens. Only
+ * names that the caller keeps are turned into strings; everything else is
+ * matched in place. Positions are tracked so errors can name the exact line
+ * and column.
+ */
+class SchemaLexer {
+    static final char EOF = '\uFFFF';
+
+    private static final String[] PRIMITIVE_NAMES =
+        { "boolean", "byte", "char", "double", "float", "int", "long", "short" };
+
+    private static final char[] PRIMITIVE_DESCRIPTORS =
+        { 'Z', 'B', 'C', 'D', 'F', 'I', 'J', 'S' };
+
+    private final CharSequence buf;
+    private final int end;
+
+    private int pos;
+    private int line;
+    private int lineStart;
+    private boolean started;
+
+    SchemaLexer(CharSequence buf) {
+        this(buf, 0, buf.length(), 1);
+    }
+
+    /**
+     * Scans {@code buf} from {@code start} to {@code end}; {@code start} must be
+     * the beginning of line number {@code firstLine}.
+     */
+    SchemaLexer(CharSequence buf, int start, int end, int firstLine) {
+        this.buf = buf;
+        this.end = end;
+        this.pos = start;
+        this.line = firstLine;
+        this.lineStart = start;
+    }
+
+    /**
+     * Moves to the first significant character of the next line that is neither
+     * blank nor a comment. The current line must have been consumed up to its end.
+     *
+     * @return false at the end of the input
+     */
+    boolean nextLine() {
+        if (started) {
+            skipBlanks();
+            if (pos < end && buf.charAt(pos) == '\n') {
+                newLine();
+            }
+        }
+        started = true;
+
+        while (pos < end) {
+            skipBlanks();
+            if (pos == end) {
+                break;
+            }
+            char c = buf.charAt(pos);
+            if (c == '\n') {
+                newLine();
+            } else if (c == Compiler.COMMENT.charAt(0)) {
+                while (pos < end && buf.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the offset in the buffer the lexer has reached
+     */
+    int position() {
+        return pos;
+    }
+
+    int line() {
+        return line;
+    }
+
+    int column() {
+        return pos - lineStart + 1;
+    }
+
+    /**
+     * @return the next non-blank character on this line without consuming it,
+     *         {@code '\n'} at the end of the line or {@link #EOF}
+     */
+    char peek() {
+        skipBlanks();
+        return pos < end ? buf.charAt(pos) : EOF;
+    }
+
+    boolean atLineEnd() {
+        char c = peek();
+        return c == '\n' || c == EOF;
+    }
+
+    /**
+     * Consumes {@code c} if it is the next non-blank character.
+     */
+    boolean consume(char c) {
+        if (peek() == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Consumes {@code s} if the line continues with it after any blanks.
+     */
+    boolean consume(String s) {
+        skipBlanks();
+        if (!lookingAt(s)) {
+            return false;
+        }
+        pos += s.length();
+        return true;
+    }
+
+    void expect(char c) throws CompileException {
+        if (!consume(c)) {
+            throw syntaxError(String.format("Expected '%c'", c));
+        }
+    }
+
+    void expectLineEnd() throws CompileException {
+        if (!atLineEnd()) {
+            throw syntaxError(String.format("Unexpected '%c'", peek()));
+        }
+    }
+
+    /**
+     * Consumes a Java identifier.
+     */
+    String identifier() throws CompileException {
+        skipBlanks();
+        int start = pos;
+        if (pos == end || !Character.isJavaIdentifierStart(buf.charAt(pos))) {
+            throw syntaxError("Expected a name");
+        }
+        pos++;
+        while (pos < end && Character.isJavaIdentifierPart(buf.charAt(pos))) {
+            pos++;
+        }
+        return buf.subSequence(start, pos).toString();
+    }
+
+    /**
+     * Consumes identifiers separated by dots, without blanks in between. A dot
+     * not followed by an identifier is left in place.
+     */
+    String qualifiedName() throws CompileException {
+        skipBlanks();
+        int start = pos;
+        identifier();
+        while (pos + 1 < end && buf.charAt(pos) == '.'
+                && Character.isJavaIdentifierStart(buf.charAt(pos + 1))) {
+            pos++;
+            identifier();
+        }
+        return buf.subSequence(start, pos).toString();
+    }
+
+    /**
+     * Consumes a primitive type keyword without allocating it.
+     *
+     * @return its descriptor character, or 0 if the next token is not one
+     */
+    char primitive() {
+        skipBlanks();
+        for (int i = 0; i < PRIMITIVE_NAMES.length; i++) {
+            String name = PRIMITIVE_NAMES[i];
+            int after = pos + name.length();
+            if (lookingAt(name)
+                    && (after == end || !Character.isJavaIdentifierPart(buf.charAt(after)))) {
+                pos = after;
+                return PRIMITIVE_DESCRIPTORS[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Consumes a run of {@code []} pairs.
+     *
+     * @return how many there were
+     */
+    int arrayDimensions() throws CompileException {
+        int dims = 0;
+        while (consume('[')) {
+            expect(']');
+            dims++;
+        }
+        return dims;
+    }
+
+    CompileException syntaxError(String detail) {
+        return error("Syntax error", detail);
+    }
+
+    CompileException error(String kind, String detail) {
+        return error(kind, line, column(), detail);
+    }
+
+    static CompileException error(String kind, int line, int column, String detail) {
+        return new CompileException(String.format("%s on line %d, column %d: %s",
+                kind, line, column, detail));
+    }
+
+    private boolean lookingAt(String s) {
+        if (pos + s.length() > end) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (buf.charAt(pos + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipBlanks() {
+        while (pos < end) {
+            char c = buf.charAt(pos);
+            if (c == '\n' || !Character.isWhitespace(c)) {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private void newLine() {
+        pos++;
+        line++;
+        lineStart = pos;
+    }
+}
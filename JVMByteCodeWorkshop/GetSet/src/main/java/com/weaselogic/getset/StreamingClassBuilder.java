@@ -0,0 +1,64 @@
+package com.weaselogic.getset;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * A {@link ClassBuilder} that writes fields and accessors straight into a
+ * {@link ClassWriter} as each attribute is added, instead of keeping the whole
+ * class as a tree and replaying it at the end.
+ * <p>
+ * Only the class header and the constructors are held back: the header so the
+ * compiler can still fill in details such as the source file on the node
+ * returned by {@link #createClass(String, String)}, the constructor because
+ * never-null attributes, and every attribute of an immutable class, keep adding
+ * code to it, and the static initializer because each volatile attribute adds
+ * its field updater to it. All are written by {@link #toByteArray()}, so the
+ * constructors come after the accessors in the class file rather than first,
+ * followed by any methods the never-null initialization was split into.
+ */
+public class StreamingClassBuilder extends ClassBuilder {
+    private final ClassWriter cw = new ClassWriter(0);
+
+    private ClassNode header;
+    private boolean started;
+
+    @Override
+    public ClassNode createClass(String name, String signature) {
+        header = super.createClass(name, signature);
+        // the constructor is only complete once every attribute has been added
+        header.methods.clear();
+        return header;
+    }
+
+    @Override
+    protected ClassVisitor classVisitor() {
+        if (!started) {
+            started = true;
+            cw.visit(header.version, header.access, header.name, header.signature,
+                    header.superName, null);
+            if (header.sourceFile != null) {
+                cw.visitSource(header.sourceFile, null);
+            }
+        }
+        return cw;
+    }
+
+    /**
+     * Completes the class and returns its binary form.
+     */
+    public byte[] toByteArray() {
+        ClassVisitor cv = classVisitor();
+        constructor.accept(cv);
+        for (MethodNode init : initChunks) {
+            init.accept(cv);
+        }
+        if (staticInitializer.instructions.size() > 1) {
+            staticInitializer.accept(cv);
+        }
+        cv.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -0,0 +1,226 @@
+package com.weaselogic.getset;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BatchCompilerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testCompileTree() throws Exception {
+        Path out = tmp.newFolder("classes").toPath();
+
+        BatchCompiler batch = new BatchCompiler(out, 4);
+        batch.addSource(Paths.get("src", "test", "resources"));
+        BatchCompiler.Result result = batch.compile();
+        batch.shutdown();
+
+        assertEquals(24, batch.getSourceCount());
+        assertEquals(24, result.getCompiled());
+        assertTrue(result.getFailures().isEmpty());
+        assertTrue(Files.isRegularFile(out.resolve("pkg1").resolve("IntHolder.class")));
+        assertTrue(Files.isRegularFile(out.resolve("pkg1").resolve("NeverNullArray.class")));
+        assertTrue(Files.isRegularFile(out.resolve("pkg1").resolve("TickFlyweight.class")));
+        assertTrue(Files.isRegularFile(out.resolve("pkg1").resolve("TradeColumns$Cursor.class")));
+
+        assertEquals(24, result.getInstanceLayouts().size());
+        Path intHolder = Paths.get("src", "test", "resources", "pkg1", "IntHolder.gs");
+        assertEquals("pkg1.IntHolder: 1 fields, 16 bytes (compressed oops), 24 bytes (uncompressed)",
+                result.getInstanceLayouts().get(intHolder).toString());
+    }
+
+    @Test
+    public void testFailuresDoNotStopBatch() throws Exception {
+        Path src = tmp.newFolder("src").toPath();
+        Path out = tmp.newFolder("classes").toPath();
+        Files.write(src.resolve("Good.gs"),
+                ">> pkg2\nGood\nvalue : int\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(src.resolve("Bad.gs"),
+                ">> pkg2\nBad\nvalue : NoSuchType\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(src.resolve("Ugly.gs"),
+                "Ugly\nvalue : int\n".getBytes(StandardCharsets.UTF_8));
+
+        BatchCompiler batch = new BatchCompiler(out, 2);
+        batch.addSource(src);
+        BatchCompiler.Result result = batch.compile();
+        batch.shutdown();
+
+        assertEquals(1, result.getCompiled());
+        assertEquals(2, result.getFailures().size());
+        assertTrue(result.getFailures().containsKey(src.resolve("Bad.gs")));
+        assertTrue(result.getFailures().containsKey(src.resolve("Ugly.gs")));
+        assertTrue(Files.isRegularFile(out.resolve("Good.class")));
+    }
+
+    @Test
+    public void testIncrementalSkipsUnchangedSources() throws Exception {
+        Path src = tmp.newFolder("src").toPath();
+        Path out = tmp.newFolder("classes").toPath();
+        Files.write(src.resolve("One.gs"), ">> pkg2\nOne\nvalue : int\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(src.resolve("Two.gs"), ">> pkg2\nTwo\nvalue : String\n".getBytes(StandardCharsets.UTF_8));
+
+        BatchCompiler.Result first = incrementalBuild(src, out);
+        assertEquals(2, first.getCompiled());
+        assertEquals(0, first.getSkipped());
+        byte[] two = Files.readAllBytes(out.resolve("Two.class"));
+
+        BatchCompiler.Result noop = incrementalBuild(src, out);
+        assertEquals(0, noop.getCompiled());
+        assertEquals(2, noop.getSkipped());
+
+        Files.write(src.resolve("One.gs"), ">> pkg2\nOne\nvalue : long\n".getBytes(StandardCharsets.UTF_8));
+        Files.delete(out.resolve("Two.class"));
+        BatchCompiler.Result changed = incrementalBuild(src, out);
+        assertEquals(2, changed.getCompiled());
+        assertEquals(0, changed.getSkipped());
+        assertTrue(Arrays.equals(two, Files.readAllBytes(out.resolve("Two.class"))));
+    }
+
+    @Test
+    public void testIncrementalRegeneratesMissingCompanions() throws Exception {
+        Path src = tmp.newFolder("src").toPath();
+        Path out = tmp.newFolder("classes").toPath();
+        Files.write(src.resolve("Ticks.gs"), ">> pkg2\nflyweight Ticks\nprice : double\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(1, incrementalBuild(src, out).getCompiled());
+        byte[] flyweight = Files.readAllBytes(out.resolve("TicksFlyweight.class"));
+        assertEquals(1, incrementalBuild(src, out).getSkipped());
+
+        Files.delete(out.resolve("TicksFlyweight.class"));
+        BatchCompiler.Result rebuilt = incrementalBuild(src, out);
+        assertEquals(1, rebuilt.getCompiled());
+        assertEquals(0, rebuilt.getSkipped());
+        assertTrue(Arrays.equals(flyweight, Files.readAllBytes(out.resolve("TicksFlyweight.class"))));
+    }
+
+    @Test
+    public void testInliningReport() throws Exception {
+        Path src = tmp.newFolder("src").toPath();
+        Path out = tmp.newFolder("classes").toPath();
+        Files.write(src.resolve("Small.gs"), ">> pkg2\nSmall\nvalue ! String\n".getBytes(StandardCharsets.UTF_8));
+        // 7 bytes per attribute once the constant pool needs ldc_w, split over several methods
+        StringBuilder wide = new StringBuilder(">> pkg2\nWide\n");
+        for (int i = 0; i < 1200; i++) {
+            wide.append('s').append(i).append(" !! String\n");
+        }
+        Files.write(src.resolve("Wide.gs"), wide.toString().getBytes(StandardCharsets.UTF_8));
+
+        BatchCompiler batch = new BatchCompiler(out, 2);
+        batch.setInliningReport(true);
+        batch.addSource(src);
+        BatchCompiler.Result result = batch.compile();
+        batch.shutdown();
+
+        InliningReport report = result.getInliningReport();
+        assertEquals(2, report.getMethodSizes().size());
+        List<MethodSize> small = report.getMethodSizes().get(src.resolve("Small.gs"));
+        assertEquals(3, small.size());
+        for (MethodSize size : small) {
+            assertEquals("pkg2.Small", size.getClassName());
+            assertFalse(size.toString(), size.isOverMaxInlineSize());
+            assertTrue(size.getConstantPoolSize() > 0);
+        }
+
+        assertTrue(report.getHugeConstructors().isEmpty());
+        List<MethodSize> wideSizes = report.getMethodSizes().get(src.resolve("Wide.gs"));
+        assertTrue(wideSizes.size() > 1 + 2 * 1200);
+
+        StringBuilder tsv = new StringBuilder();
+        report.write(tsv);
+        String[] lines = tsv.toString().split("\n");
+        assertEquals(InliningReport.HEADER, lines[0]);
+        assertEquals(1 + small.size() + wideSizes.size(), lines.length);
+        int columns = InliningReport.HEADER.split("\t").length;
+        for (String line : lines) {
+            assertEquals(line, columns, line.split("\t").length);
+        }
+        MethodSize ctor = null;
+        for (MethodSize size : wideSizes) {
+            if (size.isConstructor()) {
+                ctor = size;
+            }
+        }
+        assertFalse(ctor.isOverHugeMethodLimit());
+        assertTrue(tsv.toString().contains("\tpkg2.Wide\t<init>\t()V\t" + ctor.getCodeLength() + "\t"
+                + ctor.getMaxStack() + "\t1\t" + ctor.getConstantPoolSize() + "\t"));
+
+        // constructors the compiler can't split, such as hand-written ones, are still flagged
+        int hugeLength = MethodSize.HUGE_METHOD_LIMIT + 1;
+        MethodSize huge = new MethodSize("pkg2.Huge", "<init>", "()V", hugeLength, 4, 1, 100);
+        MethodSize hugeMethod = new MethodSize("pkg2.Huge", "run", "()V", hugeLength, 4, 1, 100);
+        InliningReport flagged = new InliningReport(
+                Collections.singletonMap(src.resolve("Huge.gs"), Arrays.asList(huge, hugeMethod)));
+        assertEquals(Arrays.asList(huge), flagged.getHugeConstructors());
+        StringBuilder hugeTsv = new StringBuilder();
+        flagged.write(hugeTsv);
+        assertTrue(hugeTsv.toString().contains("\tpkg2.Huge\t<init>\t()V\t8001\t4\t1\t100\ttrue\ttrue\ttrue\n"));
+
+        BatchCompiler plain = new BatchCompiler(out, 1);
+        plain.addSource(src);
+        assertNull(plain.compile().getInliningReport());
+        plain.shutdown();
+
+        // an incremental build measures unchanged sources, companions included, from their class files
+        Path trades = tmp.newFolder("trades").toPath();
+        Files.copy(Paths.get("src", "test", "resources", "pkg1", "Trade.gs"), trades.resolve("Trade.gs"));
+        Files.copy(src.resolve("Small.gs"), trades.resolve("Small.gs"));
+        Path tradesOut = tmp.newFolder("trades-classes").toPath();
+        BatchCompiler.Result compiled = incrementalInliningBuild(trades, tradesOut);
+        assertEquals(2, compiled.getCompiled());
+        BatchCompiler.Result skipped = incrementalInliningBuild(trades, tradesOut);
+        assertEquals(0, skipped.getCompiled());
+        assertEquals(2, skipped.getSkipped());
+        StringBuilder compiledTsv = new StringBuilder();
+        compiled.getInliningReport().write(compiledTsv);
+        StringBuilder skippedTsv = new StringBuilder();
+        skipped.getInliningReport().write(skippedTsv);
+        assertEquals(compiledTsv.toString(), skippedTsv.toString());
+        assertTrue(skippedTsv.toString().contains("\tpkg1.TradeColumns$Cursor\t"));
+    }
+
+    @Test
+    public void testOutputIsDeterministic() throws Exception {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "GenericObjectHolder.gs");
+
+        byte[] first = new Compiler(p, new ClassBuilder()).compile();
+        byte[] second = new Compiler(p, new ClassBuilder()).compile();
+
+        assertTrue(Arrays.equals(first, second));
+    }
+
+    private BatchCompiler.Result incrementalInliningBuild(Path src, Path out) throws Exception {
+        BatchCompiler batch = new BatchCompiler(out, 2);
+        batch.setManifest(BuildManifest.load(out.resolve(BuildManifest.FILE_NAME)));
+        batch.setInliningReport(true);
+        batch.addSource(src);
+        try {
+            return batch.compile();
+        } finally {
+            batch.shutdown();
+        }
+    }
+
+    private BatchCompiler.Result incrementalBuild(Path src, Path out) throws Exception {
+        BatchCompiler batch = new BatchCompiler(out, 2);
+        batch.setManifest(BuildManifest.load(out.resolve(BuildManifest.FILE_NAME)));
+        batch.addSource(src);
+        try {
+            return batch.compile();
+        } finally {
+            batch.shutdown();
+        }
+    }
+}
@@ -2,24 +2,45 @@ package com.weaselogic.getset;
 
 import static org.junit.Assert.*;
 
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.runners.MockitoJUnitRunner;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 
 @RunWith(MockitoJUnitRunner.class)
 public class ClassGenTest {
@@ -201,6 +222,793 @@ public class ClassGenTest {
 
     }
     
+    @Test
+    public void testFinalHolder() throws Throwable {
+        for (Class<?> c : compileAndLoadBoth("pkg1", "FinalHolder")) {
+            Object o = c.newInstance();
+            assertEquals(4, c.getDeclaredMethods().length);
+            assertEquals(Modifier.PUBLIC | Modifier.FINAL, c.getModifiers());
+            for (Method m : c.getDeclaredMethods()) {
+                assertTrue(m.getName(), Modifier.isFinal(m.getModifiers()));
+            }
+
+            exerciseMethod(c, o, "getValue", "setValue", int.class, 0, 123);
+            exerciseMethod(c, o, "getName", "setName", String.class, null, "Final!");
+        }
+    }
+
+    @Test
+    public void testValueHolder() throws Throwable {
+        for (Class<?> c : compileAndLoadBoth("pkg1", "ValueHolder")) {
+            Object a = standardClassChecks(c, 28);
+            Object b = c.newInstance();
+            assertEquals(a, b);
+            assertEquals(a.hashCode(), b.hashCode());
+            assertFalse(a.equals(null));
+            assertFalse(a.equals(new Object()));
+
+            Object[][] values = {
+                    { "setFlag", boolean.class, true },
+                    { "setB", byte.class, (byte) -3 },
+                    { "setC", char.class, 'x' },
+                    { "setS", short.class, (short) 300 },
+                    { "setI", int.class, 70000 },
+                    { "setL", long.class, 1L << 40 },
+                    { "setF", float.class, Float.NaN },
+                    { "setD", double.class, -0.0d },
+                    { "setString", String.class, "value" },
+                    { "setInts", int[].class, new int[] { 1, 2, 3 } },
+                    { "setStrings", String[].class, new String[] { "a", null } },
+                    { "setGrid", long[][].class, new long[][] { { 1L }, { 2L, 3L } } },
+                    { "setList", List.class, Arrays.asList("x", "y") } };
+            for (Object[] v : values) {
+                Method set = c.getMethod((String) v[0], (Class<?>) v[1]);
+                set.invoke(a, v[2]);
+                assertFalse((String) v[0], a.equals(b));
+                // equal content in distinct instances
+                set.invoke(b, copy(v[2]));
+                assertEquals((String) v[0], a, b);
+                assertEquals((String) v[0], a.hashCode(), b.hashCode());
+            }
+
+            assertEquals(Arrays.hashCode(new Object[] { true, (byte) -3, 'x', (short) 300, 70000, 1L << 40,
+                    Float.NaN, -0.0d, "value", Arrays.hashCode(new int[] { 1, 2, 3 }),
+                    Arrays.hashCode(new String[] { "a", null }),
+                    Arrays.deepHashCode(new long[][] { { 1L }, { 2L, 3L } }), Arrays.asList("x", "y") }),
+                    a.hashCode());
+        }
+    }
+
+    @Test
+    public void testImmutablePoint() throws Throwable {
+        for (Class<?> c : compileAndLoadBoth("pkg1", "ImmutablePoint")) {
+            assertEquals(1, c.getConstructors().length);
+            Constructor<?> ctor = c.getConstructor(int.class, long.class, String.class, Object.class);
+            assertEquals("pkg1.ImmutablePoint(int,long,java.lang.String,T)", ctor.toGenericString().replace("public ", ""));
+
+            for (Field f : c.getDeclaredFields()) {
+                assertTrue(f.getName(), Modifier.isFinal(f.getModifiers()) || f.getName().equals("hashCode$"));
+            }
+            for (Method m : c.getDeclaredMethods()) {
+                assertFalse(m.getName(), m.getName().startsWith("set"));
+            }
+
+            Object tag = new Object();
+            Object a = ctor.newInstance(1, 2L, "a", tag);
+            assertEquals(1, c.getMethod("getX").invoke(a));
+            assertEquals(2L, c.getMethod("getY").invoke(a));
+            assertEquals("a", c.getMethod("getLabel").invoke(a));
+            assertSame(tag, c.getMethod("getTag").invoke(a));
+
+            Object b = c.getMethod("withX", int.class).invoke(a, 5);
+            assertNotSame(a, b);
+            assertEquals(1, c.getMethod("getX").invoke(a));
+            assertEquals(5, c.getMethod("getX").invoke(b));
+            assertEquals(2L, c.getMethod("getY").invoke(b));
+            assertSame(tag, c.getMethod("getTag").invoke(b));
+            assertFalse(a.equals(b));
+            assertEquals(a, c.getMethod("withX", int.class).invoke(b, 1));
+
+            Object d = c.getMethod("withY", long.class).invoke(a, 7L);
+            assertEquals(7L, c.getMethod("getY").invoke(d));
+            assertEquals("pkg1.ImmutablePoint<T> pkg1.ImmutablePoint.withTag(T)",
+                    c.getMethod("withTag", Object.class).toGenericString().replace("public ", ""));
+
+            int expected = Arrays.hashCode(new Object[] { 1, 2L, "a", tag });
+            assertEquals(expected, a.hashCode());
+            Field cache = c.getDeclaredField("hashCode$");
+            cache.setAccessible(true);
+            assertEquals(expected, cache.getInt(a));
+            assertEquals(expected, a.hashCode());
+
+            try {
+                ctor.newInstance(1, 2L, null, tag);
+                fail("Expected a NullPointerException");
+            } catch (InvocationTargetException x) {
+                assertTrue(x.getCause() instanceof NullPointerException);
+            }
+            try {
+                c.getMethod("withLabel", String.class).invoke(a, (Object) null);
+                fail("Expected a NullPointerException");
+            } catch (InvocationTargetException x) {
+                assertTrue(x.getCause() instanceof NullPointerException);
+            }
+            assertNull(c.getMethod("getTag").invoke(c.getMethod("withTag", Object.class).invoke(a, (Object) null)));
+        }
+    }
+
+    @Test
+    public void testPackedFields() throws Throwable {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "PrimitiveHolder.gs");
+        for (ClassBuilder cb : Arrays.asList(new ClassBuilder(), new StreamingClassBuilder())) {
+            Compiler cmp = cb instanceof StreamingClassBuilder
+                    ? new Compiler(p, (StreamingClassBuilder) cb) : new Compiler(p, cb);
+            cmp.setPackedFields(true);
+            byte[] code = cmp.compile();
+
+            ClassNode cn = new ClassNode();
+            new ClassReader(code).accept(cn, 0);
+            StringBuilder order = new StringBuilder();
+            for (FieldNode fn : cn.fields) {
+                order.append(fn.desc);
+            }
+            // widest first, schema order within a width
+            assertEquals("JDIFSCZB", order.toString());
+
+            Class<?> c = loadBinaryClass("pkg1.PrimitiveHolder", code);
+            Object o = standardClassChecks(c, 16);
+            exerciseMethod(c, o, "getValue", "setValue", long.class, 0L, Long.MAX_VALUE);
+            exerciseMethod(c, o, "isValue", "setValue", boolean.class, false, true);
+
+            InstanceLayout layout = cmp.getInstanceLayout();
+            assertEquals("pkg1.PrimitiveHolder", layout.getClassName());
+            assertEquals(8, layout.getFieldCount());
+            assertEquals(48, layout.getCompressedSize());
+            assertEquals(48, layout.getUncompressedSize());
+        }
+    }
+
+    @Test
+    public void testInstanceLayout() throws Exception {
+        assertLayout("Nothing", 16, 16);
+        assertLayout("IntHolder", 16, 24);
+        assertLayout("ObjectHolder", 24, 32);
+        // int, long, two references and the cached hash
+        assertLayout("ImmutablePoint", 40, 48);
+    }
+
+    private void assertLayout(String cName, int compressed, int uncompressed) throws Exception {
+        Compiler cmp = new Compiler(Paths.get("src", "test", "resources", "pkg1", cName + ".gs"),
+                new ClassBuilder());
+        cmp.compile();
+        assertEquals(cName, compressed, cmp.getInstanceLayout().getCompressedSize());
+        assertEquals(cName, uncompressed, cmp.getInstanceLayout().getUncompressedSize());
+    }
+
+    @Test
+    public void testFlyweight() throws Throwable {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "Tick.gs");
+        for (ClassBuilder cb : Arrays.asList(new ClassBuilder(), new StreamingClassBuilder())) {
+            Compiler cmp = cb instanceof StreamingClassBuilder
+                    ? new Compiler(p, (StreamingClassBuilder) cb) : new Compiler(p, cb);
+            Class<?> bean = loadBinaryClass("pkg1.Tick", cmp.compile());
+            standardClassChecks(bean, 16);
+
+            assertEquals(Arrays.asList("pkg1.TickFlyweight"), new ArrayList<>(cmp.getCompanionClasses().keySet()));
+            Class<?> c = loadBinaryClass("pkg1.TickFlyweight", cmp.getCompanionClasses().get("pkg1.TickFlyweight"));
+            assertEquals(Modifier.PUBLIC | Modifier.FINAL, c.getModifiers());
+            // 8 + 8 + 4 + 4 + 2 + 2 + 1 + 1, rounded up to the widest attribute
+            assertEquals(32, c.getField("SIZE").getInt(null));
+
+            ByteBuffer buffer = (ByteBuffer) c.getMethod("allocate", int.class).invoke(null, 3);
+            assertTrue(buffer.isDirect());
+            assertEquals(ByteOrder.nativeOrder(), buffer.order());
+            assertEquals(3 * 32, buffer.capacity());
+
+            Object o = c.newInstance();
+            Method wrap = c.getMethod("wrap", ByteBuffer.class, int.class);
+            for (int i = 0; i < 3; i++) {
+                assertSame(o, wrap.invoke(o, buffer, i));
+                c.getMethod("setLive", boolean.class).invoke(o, i % 2 == 0);
+                c.getMethod("setSide", byte.class).invoke(o, (byte) -i);
+                c.getMethod("setVenue", char.class).invoke(o, (char) ('A' + i));
+                c.getMethod("setSize", short.class).invoke(o, (short) (1000 * i));
+                c.getMethod("setId", int.class).invoke(o, i);
+                c.getMethod("setTime", long.class).invoke(o, Long.MAX_VALUE - i);
+                c.getMethod("setPrice", float.class).invoke(o, i + 0.5f);
+                c.getMethod("setValue", double.class).invoke(o, i * 1e10);
+            }
+            for (int i = 0; i < 3; i++) {
+                wrap.invoke(o, buffer, i);
+                assertEquals(i % 2 == 0, c.getMethod("isLive").invoke(o));
+                assertEquals((byte) -i, c.getMethod("getSide").invoke(o));
+                assertEquals((char) ('A' + i), c.getMethod("getVenue").invoke(o));
+                assertEquals((short) (1000 * i), c.getMethod("getSize").invoke(o));
+                assertEquals(i, c.getMethod("getId").invoke(o));
+                assertEquals(Long.MAX_VALUE - i, c.getMethod("getTime").invoke(o));
+                assertEquals(i + 0.5f, c.getMethod("getPrice").invoke(o));
+                assertEquals(i * 1e10, c.getMethod("getValue").invoke(o));
+            }
+            // widest first: time, value, id, price, size, venue, live, side
+            assertEquals(Long.MAX_VALUE - 1, buffer.getLong(32));
+            assertEquals(1, buffer.getInt(32 + 16));
+
+            wrap.invoke(o, buffer, 3);
+            try {
+                c.getMethod("getId").invoke(o);
+                fail("Expected an IndexOutOfBoundsException");
+            } catch (InvocationTargetException x) {
+                assertTrue(x.getCause() instanceof IndexOutOfBoundsException);
+            }
+        }
+    }
+
+    @Test
+    public void testColumns() throws Throwable {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "Trade.gs");
+        for (ClassBuilder cb : Arrays.asList(new ClassBuilder(), new StreamingClassBuilder())) {
+            Compiler cmp = cb instanceof StreamingClassBuilder
+                    ? new Compiler(p, (StreamingClassBuilder) cb) : new Compiler(p, cb);
+            Map<String, byte[]> classes = new HashMap<>();
+            classes.put("pkg1.Trade", cmp.compile());
+            classes.putAll(cmp.getCompanionClasses());
+            assertEquals(3, classes.size());
+            ClassLoader loader = new BundleClassLoader(classes);
+
+            Class<?> bean = loader.loadClass("pkg1.Trade");
+            Class<?> c = loader.loadClass("pkg1.TradeColumns");
+            Class<?> cursorClass = loader.loadClass("pkg1.TradeColumns$Cursor");
+            assertEquals(c, cursorClass.getDeclaringClass());
+            assertEquals("Cursor", cursorClass.getSimpleName());
+
+            // one array per attribute, no per-row objects
+            Field[] columns = c.getDeclaredFields();
+            assertEquals(long[].class, c.getDeclaredField("id").getType());
+            assertEquals(boolean[].class, c.getDeclaredField("buy").getType());
+            assertEquals(String[].class, c.getDeclaredField("symbol").getType());
+            assertEquals(int[][].class, c.getDeclaredField("fills").getType());
+            assertEquals(7, columns.length);
+
+            Object rows = c.getConstructor(int.class).newInstance(1);
+            Object trade = bean.newInstance();
+            bean.getMethod("setSymbol", String.class).invoke(trade, "ACME");
+            for (int i = 0; i < 40; i++) {
+                bean.getMethod("setId", long.class).invoke(trade, 1000L + i);
+                bean.getMethod("setPrice", double.class).invoke(trade, i / 4.0);
+                bean.getMethod("setBuy", boolean.class).invoke(trade, i % 3 == 0);
+                bean.getMethod("setFills", int[].class).invoke(trade, new int[] { i });
+                assertEquals(i, c.getMethod("add", bean).invoke(rows, trade));
+            }
+            assertEquals(40, c.getMethod("size").invoke(rows));
+            assertEquals(1017L, c.getMethod("getId", int.class).invoke(rows, 17));
+            assertEquals(17 / 4.0, c.getMethod("getPrice", int.class).invoke(rows, 17));
+            assertEquals(false, c.getMethod("isBuy", int.class).invoke(rows, 17));
+            assertEquals("ACME", c.getMethod("getSymbol", int.class).invoke(rows, 17));
+            assertArrayEquals(new int[] { 17 }, (int[]) c.getMethod("getFills", int.class).invoke(rows, 17));
+
+            long[] ids = (long[]) c.getMethod("idColumn").invoke(rows);
+            assertTrue(ids.length >= 40);
+            assertEquals(1039L, ids[39]);
+
+            c.getMethod("setPrice", int.class, double.class).invoke(rows, 3, 99.5);
+            assertEquals(99.5, c.getMethod("getPrice", int.class).invoke(rows, 3));
+            assertIndexOutOfBounds(c.getMethod("getId", int.class), rows, 40);
+            assertIndexOutOfBounds(c.getMethod("setId", int.class, long.class), rows, 40, 0L);
+            try {
+                c.getMethod("setSymbol", int.class, String.class).invoke(rows, 0, null);
+                fail("Expected a NullPointerException");
+            } catch (InvocationTargetException x) {
+                assertTrue(x.getCause() instanceof NullPointerException);
+            }
+
+            Object cursor = c.getMethod("cursor").invoke(rows);
+            Method next = cursorClass.getMethod("next");
+            long sum = 0;
+            int count = 0;
+            while ((Boolean) next.invoke(cursor)) {
+                assertEquals(count, cursorClass.getMethod("index").invoke(cursor));
+                sum += (Long) cursorClass.getMethod("getId").invoke(cursor);
+                count++;
+            }
+            assertEquals(40, count);
+            assertEquals(40 * 1000L + 39 * 40 / 2, sum);
+            cursorClass.getMethod("at", int.class).invoke(cursor, 5);
+            cursorClass.getMethod("setSymbol", String.class).invoke(cursor, "XYZ");
+            assertEquals("XYZ", c.getMethod("getSymbol", int.class).invoke(rows, 5));
+
+            Object more = c.getConstructor().newInstance();
+            c.getMethod("addAll", c).invoke(more, rows);
+            c.getMethod("addAll", c).invoke(more, more);
+            assertEquals(80, c.getMethod("size").invoke(more));
+            assertEquals(1039L, c.getMethod("getId", int.class).invoke(more, 79));
+            assertEquals("XYZ", c.getMethod("getSymbol", int.class).invoke(more, 45));
+
+            c.getMethod("clear").invoke(rows);
+            assertEquals(0, c.getMethod("size").invoke(rows));
+            assertEquals(0, c.getMethod("add").invoke(rows));
+            assertEquals(0L, c.getMethod("getId", int.class).invoke(rows, 0));
+            assertNull(c.getMethod("getSymbol", int.class).invoke(rows, 0));
+        }
+    }
+
+    @Test
+    public void testCodec() throws Throwable {
+        for (Class<?> c : compileAndLoadBoth("pkg1", "Message")) {
+            assertEquals(1, c.getConstructors().length);
+            Object m = c.newInstance();
+            c.getMethod("setId", long.class).invoke(m, Long.MIN_VALUE + 3);
+            c.getMethod("setFlags", short.class).invoke(m, (short) -2);
+            c.getMethod("setRatio", float.class).invoke(m, 0.75f);
+            c.getMethod("setUrgent", boolean.class).invoke(m, true);
+            c.getMethod("setGrade", char.class).invoke(m, '\u00e9');
+            c.getMethod("setBody", String.class).invoke(m, "h\u00e9llo");
+            c.getMethod("setPayload", byte[].class).invoke(m, new byte[] { 1, -1, 127 });
+            c.getMethod("setGrid", int[][].class).invoke(m, (Object) new int[][] { { 1, 2 }, null, {} });
+            c.getMethod("setTags", String[].class).invoke(m, (Object) new String[] { "a", null, "" });
+
+            for (ByteOrder order : Arrays.asList(ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN)) {
+                ByteBuffer buffer = ByteBuffer.allocate(256).order(order);
+                buffer.put((byte) 42);
+                c.getMethod("writeTo", ByteBuffer.class).invoke(m, buffer);
+                int end = buffer.position();
+                buffer.flip().position(1);
+                Object copy = c.getMethod("readFrom", ByteBuffer.class).invoke(null, buffer);
+                assertEquals(end, buffer.position());
+
+                assertEquals(Long.MIN_VALUE + 3, c.getMethod("getId").invoke(copy));
+                assertEquals((short) -2, c.getMethod("getFlags").invoke(copy));
+                assertEquals(0.75f, c.getMethod("getRatio").invoke(copy));
+                assertEquals(true, c.getMethod("isUrgent").invoke(copy));
+                assertEquals('\u00e9', c.getMethod("getGrade").invoke(copy));
+                assertEquals("h\u00e9llo", c.getMethod("getBody").invoke(copy));
+                assertNull(c.getMethod("getSubject").invoke(copy));
+                assertArrayEquals(new byte[] { 1, -1, 127 }, (byte[]) c.getMethod("getPayload").invoke(copy));
+                int[][] grid = (int[][]) c.getMethod("getGrid").invoke(copy);
+                assertArrayEquals(new int[] { 1, 2 }, grid[0]);
+                assertNull(grid[1]);
+                assertEquals(0, grid[2].length);
+                assertArrayEquals(new String[] { "a", null, "" }, (String[]) c.getMethod("getTags").invoke(copy));
+            }
+
+            // a bean with nothing set but its never-null grid
+            Object empty = c.newInstance();
+            c.getMethod("setGrid", int[][].class).invoke(empty, (Object) new int[0][]);
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            c.getMethod("writeTo", ByteBuffer.class).invoke(empty, buffer);
+            // bitmap, long, short, float, boolean, char, grid length
+            assertEquals(1 + 8 + 2 + 4 + 1 + 2 + 4, buffer.position());
+            buffer.flip();
+            Object copy = c.getMethod("readFrom", ByteBuffer.class).invoke(null, buffer);
+            assertNull(c.getMethod("getBody").invoke(copy));
+            assertNull(c.getMethod("getPayload").invoke(copy));
+            assertEquals(0, ((int[][]) c.getMethod("getGrid").invoke(copy)).length);
+        }
+    }
+
+    @Test
+    public void testCodecRejectsBadInput() throws Throwable {
+        Class<?> c = compileAndLoad("pkg1", "Message");
+        Method readFrom = c.getMethod("readFrom", ByteBuffer.class);
+
+        // a body of one char and a grid of one null row, then lengths past the end of the buffer,
+        // which fail before anything is allocated
+        assertEquals("a", c.getMethod("getBody").invoke(readFrom.invoke(null, withLengths(1, 1))));
+        for (int[] lengths : new int[][] { { Integer.MAX_VALUE, 1 }, { 6, 1 }, { 1, Integer.MAX_VALUE }, { 1, 2 } }) {
+            try {
+                readFrom.invoke(null, withLengths(lengths[0], lengths[1]));
+                fail(Arrays.toString(lengths));
+            } catch (InvocationTargetException x) {
+                assertTrue(Arrays.toString(lengths), x.getCause() instanceof BufferUnderflowException);
+            }
+        }
+    }
+
+    @Test
+    public void testCodecUnsetNotNullRoundTrips() throws Throwable {
+        Compiler cmp = new Compiler("Unset.gs", new StringReader(
+                ">> pkg1\ncodec Unset\nid : int\nname ! String\nlabel !! String\n"), new ClassBuilder());
+        Class<?> c = loadBinaryClass("pkg1.Unset", cmp.compile());
+
+        // a ! attribute is null until it is first set, and is written that way
+        Object fresh = c.newInstance();
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        c.getMethod("writeTo", ByteBuffer.class).invoke(fresh, buffer);
+        buffer.flip();
+        Object copy = c.getMethod("readFrom", ByteBuffer.class).invoke(null, buffer);
+        assertNull(c.getMethod("getName").invoke(copy));
+        assertEquals("", c.getMethod("getLabel").invoke(copy));
+        assertFalse(buffer.hasRemaining());
+
+        // the label bit is clear, but a !! attribute is never null
+        ByteBuffer missing = ByteBuffer.allocate(64);
+        missing.put((byte) 0).putInt(1);
+        missing.flip();
+        try {
+            c.getMethod("readFrom", ByteBuffer.class).invoke(null, missing);
+            fail();
+        } catch (InvocationTargetException x) {
+            assertTrue(x.getCause() instanceof NullPointerException);
+        }
+    }
+
+    /**
+     * @return a {@code Message} with only body and grid, claiming the given lengths
+     */
+    private static ByteBuffer withLengths(int body, int grid) {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.put((byte) 0x09).putLong(1).putShort((short) 2).putFloat(3).put((byte) 1).putChar('x');
+        buffer.putInt(body).putChar('a').putInt(grid).putInt(-1);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Test
+    public void testCodecImmutableWideBitmap() throws Throwable {
+        StringBuilder source = new StringBuilder(">> pkg1\nimmutable codec Wide\n");
+        for (int i = 0; i < 10; i++) {
+            source.append("s").append(i).append(" : String\n");
+        }
+        source.append("n : int\n");
+        Compiler cmp = new Compiler("Wide.gs", new StringReader(source.toString()), new ClassBuilder());
+        Class<?> c = loadBinaryClass("pkg1.Wide", cmp.compile());
+
+        Class<?>[] types = new Class<?>[11];
+        Object[] values = new Object[11];
+        for (int i = 0; i < 10; i++) {
+            types[i] = String.class;
+            values[i] = i % 3 == 0 ? null : "v" + i;
+        }
+        types[10] = int.class;
+        values[10] = -7;
+        Object w = c.getConstructor(types).newInstance(values);
+
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        c.getMethod("writeTo", ByteBuffer.class).invoke(w, buffer);
+        buffer.flip();
+        assertEquals(0xb6, buffer.get(0) & 0xff);
+        assertEquals(0x01, buffer.get(1));
+        Object copy = c.getMethod("readFrom", ByteBuffer.class).invoke(null, buffer);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(values[i], c.getMethod("getS" + i).invoke(copy));
+        }
+        assertEquals(-7, c.getMethod("getN").invoke(copy));
+    }
+
+    @Test
+    public void testCodecWriteDoesNotAllocate() throws Exception {
+        ClassNode cn = readClass(new Compiler(
+                Paths.get("src", "test", "resources", "pkg1", "Message.gs"), new ClassBuilder()).compile());
+
+        // writeTo, then String, byte[], int[], int[][] and String[]
+        assertEquals(1, assertNoAllocation(cn, "writeTo"));
+        assertEquals(5, assertNoAllocation(cn, "write$"));
+    }
+
+    @Test
+    public void testJson() throws Throwable {
+        for (Class<?> c : compileAndLoadBoth("pkg1", "Quote")) {
+            Object q = c.newInstance();
+            Method writeJson = c.getMethod("writeJson", Appendable.class);
+            StringBuilder out = new StringBuilder();
+            writeJson.invoke(q, out);
+            assertEquals("{\"id\":0,\"size\":0,\"bid\":0.0,\"open\":false,\"side\":\"\\u0000\",\"symbol\":null,"
+                    + "\"venue\":null,\"levels\":null,\"notes\":null,\"sources\":null,\"fields\":null}", out.toString());
+
+            c.getMethod("setId", long.class).invoke(q, Long.MIN_VALUE);
+            c.getMethod("setSize", int.class).invoke(q, 1200);
+            c.getMethod("setBid", double.class).invoke(q, Double.NaN);
+            c.getMethod("setOpen", boolean.class).invoke(q, true);
+            c.getMethod("setSide", char.class).invoke(q, '"');
+            c.getMethod("setSymbol", String.class).invoke(q, "A\\B\n\u00e9");
+            c.getMethod("setLevels", int[].class).invoke(q, new int[] { -1, 0, 9, 10 });
+            c.getMethod("setNotes", String[].class).invoke(q, (Object) new String[] { "x", null });
+            c.getMethod("setSources", List.class).invoke(q, new LinkedList<>(Arrays.asList("a", "b")));
+            Map<String, Object> fields = new LinkedHashMap<>();
+            fields.put("n", 3);
+            fields.put("f", 1.5f);
+            fields.put("list", Arrays.asList(true, 'c', null));
+            fields.put("array", new Object[] { 7L, new BigDecimal("2.50") });
+            fields.put("date", new Date(0) {
+                @Override
+                public String toString() {
+                    return "epoch";
+                }
+            });
+            c.getMethod("setFields", Map.class).invoke(q, fields);
+
+            // any Appendable, not only StringBuilder
+            StringWriter writer = new StringWriter();
+            writeJson.invoke(q, writer);
+            c.getMethod("setBid", double.class).invoke(q, 101.25);
+            out.setLength(0);
+            writeJson.invoke(q, out);
+            String expected = "{\"id\":-9223372036854775808,\"size\":1200,\"bid\":%s,\"open\":true,\"side\":\"\\\"\","
+                    + "\"symbol\":\"A\\\\B\\u000a\u00e9\",\"venue\":null,\"levels\":[-1,0,9,10],\"notes\":[\"x\",null],"
+                    + "\"sources\":[\"a\",\"b\"],\"fields\":{\"n\":3,\"f\":1.5,\"list\":[true,\"c\",null],"
+                    + "\"array\":[7,2.50],\"date\":\"epoch\"}}";
+            assertEquals(String.format(expected, "null"), writer.toString());
+            assertEquals(String.format(expected, "101.25"), out.toString());
+        }
+    }
+
+    @Test
+    public void testJsonDoesNotAllocate() throws Exception {
+        Compiler cmp = new Compiler("Counter.gs", new StringReader(
+                ">> pkg1\njson Counter\ncount : long\nsmall : byte\nflag : boolean\nunit : char\n"), new ClassBuilder());
+        byte[] code = cmp.compile();
+        ClassNode cn = readClass(code);
+
+        // writeJson, then long, boolean and char, and escaping
+        String[] allowed = { "java/lang/Appendable", "java/lang/String.charAt", cn.name };
+        assertEquals(1, assertNoAllocation(cn, "writeJson", allowed));
+        assertEquals(3, assertNoAllocation(cn, "json$", allowed));
+        assertEquals(1, assertNoAllocation(cn, "escape$", allowed));
+
+        Class<?> c = loadBinaryClass("pkg1.Counter", code);
+        Object counter = c.newInstance();
+        c.getMethod("setCount", long.class).invoke(counter, Long.MAX_VALUE);
+        c.getMethod("setSmall", byte.class).invoke(counter, (byte) -128);
+        c.getMethod("setUnit", char.class).invoke(counter, '\u001f');
+        StringBuilder out = new StringBuilder();
+        c.getMethod("writeJson", Appendable.class).invoke(counter, out);
+        assertEquals("{\"count\":9223372036854775807,\"small\":-128,\"flag\":false,\"unit\":\"\\u001f\"}",
+                out.toString());
+    }
+
+    @Test
+    public void testVolatile() throws Throwable {
+        for (Class<?> c : compileAndLoadBoth("pkg1", "Stats")) {
+            for (String name : Arrays.asList("hits", "active", "open", "last")) {
+                assertTrue(name, Modifier.isVolatile(c.getDeclaredField(name).getModifiers()));
+            }
+            assertFalse(Modifier.isVolatile(c.getDeclaredField("name").getModifiers()));
+            assertEquals(AtomicLongFieldUpdater.class, c.getDeclaredField("hits$updater").getType());
+            assertTrue(Modifier.isStatic(c.getDeclaredField("hits$updater").getModifiers()));
+            // getters and setters, four atomic accessors each for hits and
+            // active, two for last and none for open, which has no updater
+            assertEquals(10 + 4 + 4 + 2, c.getDeclaredMethods().length);
+            final Object stats = c.newInstance();
+
+            Method cas = c.getMethod("compareAndSetHits", long.class, long.class);
+            assertTrue((Boolean) cas.invoke(stats, 0L, 5L));
+            assertFalse((Boolean) cas.invoke(stats, 0L, 6L));
+            assertEquals(5L, c.getMethod("getAndSetHits", long.class).invoke(stats, 7L));
+            assertEquals(7L, c.getMethod("getAndAddHits", long.class).invoke(stats, 3L));
+            assertEquals(11L, c.getMethod("incrementAndGetHits").invoke(stats));
+            assertEquals(1, c.getMethod("incrementAndGetActive").invoke(stats));
+            assertEquals(1, c.getMethod("getAndAddActive", int.class).invoke(stats, -1));
+            assertEquals(0, c.getMethod("getActive").invoke(stats));
+
+            assertTrue((Boolean) c.getMethod("compareAndSetLast", String.class, String.class)
+                    .invoke(stats, null, "a"));
+            assertFalse((Boolean) c.getMethod("compareAndSetLast", String.class, String.class)
+                    .invoke(stats, "b", "c"));
+            assertEquals("a", c.getMethod("getAndSetLast", String.class).invoke(stats, "d"));
+            assertEquals("d", c.getMethod("getLast").invoke(stats));
+
+            final MethodHandle increment = MethodHandles.publicLookup().findVirtual(c, "incrementAndGetHits",
+                    MethodType.methodType(long.class));
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            for (int n = 0; n < 10000; n++) {
+                                increment.invoke(stats);
+                            }
+                        } catch (Throwable x) {
+                            throw new AssertionError(x);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertEquals(11L + 40000, c.getMethod("getHits").invoke(stats));
+        }
+    }
+
+    @Test
+    public void testLazyDefaults() throws Throwable {
+        assertEquals(1, assertNoAllocation(readClass(new Compiler(
+                Paths.get("src", "test", "resources", "pkg1", "LazyDefaults.gs"), new ClassBuilder()).compile()),
+                "<init>"));
+
+        for (Class<?> c : compileAndLoadBoth("pkg1", "LazyDefaults")) {
+            Object unread = c.newInstance();
+            for (String name : Arrays.asList("name", "items", "grid")) {
+                Field f = c.getDeclaredField(name);
+                f.setAccessible(true);
+                assertNull(name, f.get(unread));
+            }
+
+            Object read = c.newInstance();
+            assertEquals("", c.getMethod("getName").invoke(read));
+            Object items = c.getMethod("getItems").invoke(read);
+            assertEquals(new ArrayList<String>(), items);
+            assertSame(items, c.getMethod("getItems").invoke(read));
+            assertEquals(0, ((int[][]) c.getMethod("getGrid").invoke(read)).length);
+
+            // reading an attribute doesn't change what the bean is equal to
+            assertEquals(read, unread);
+            assertEquals(unread, read);
+            assertEquals(read.hashCode(), c.newInstance().hashCode());
+            StringBuilder out = new StringBuilder();
+            c.getMethod("writeJson", Appendable.class).invoke(c.newInstance(), out);
+            assertEquals("{\"name\":\"\",\"items\":[],\"grid\":[],\"count\":0}", out.toString());
+
+            c.getMethod("setName", String.class).invoke(unread, "set");
+            assertEquals("set", c.getMethod("getName").invoke(unread));
+            try {
+                c.getMethod("setName", String.class).invoke(unread, (Object) null);
+                fail("Expected a NullPointerException");
+            } catch (InvocationTargetException x) {
+                assertTrue(x.getCause() instanceof NullPointerException);
+            }
+        }
+    }
+
+    @Test
+    public void testSharedDefaults() throws Throwable {
+        for (Class<?> c : compileAndLoadBoth("pkg1", "NeverNullArray")) {
+            Object a = c.newInstance();
+            Object b = c.newInstance();
+            assertSame(c.getMethod("getStrings").invoke(a), c.getMethod("getStrings").invoke(b));
+            assertSame(c.getMethod("getInts").invoke(a), c.getMethod("getInts").invoke(b));
+            assertEquals(0, ((int[][]) c.getMethod("getInts").invoke(a)).length);
+            Field empty = c.getDeclaredField("strings$default");
+            assertTrue(Modifier.isStatic(empty.getModifiers()) && Modifier.isFinal(empty.getModifiers()));
+        }
+
+        Object s = compileAndLoad("pkg1", "NeverNull").newInstance();
+        assertSame("", s.getClass().getMethod("getString").invoke(s));
+
+        // one empty array per type, created once, and nothing allocated per instance
+        Compiler cmp = new Compiler("Shared.gs", new StringReader(
+                ">> pkg1\nShared\na !! int[]\nb !! int[]\nc !! String\n"), new ClassBuilder());
+        ClassNode cn = readClass(cmp.compile());
+        assertEquals(1, cn.fields.size() - 3);
+        assertEquals(1, assertNoAllocation(cn, "<init>"));
+        for (MethodNode mn : cn.methods) {
+            if (mn.name.equals("<clinit>")) {
+                assertEquals(1, countAllocations(mn, new String[0]));
+            }
+        }
+    }
+
+    @Test
+    public void testSetterSize() throws Exception {
+        for (Compiler cmp : Arrays.asList(
+                new Compiler(Paths.get("src", "test", "resources", "pkg1", "NeverNull.gs"), new ClassBuilder()),
+                new Compiler(Paths.get("src", "test", "resources", "pkg1", "NeverNull.gs"), new StreamingClassBuilder()))) {
+            ClassNode cn = new ClassNode();
+            new ClassReader(cmp.compile()).accept(cn, 0);
+            List<MethodSize> sizes = cmp.getMethodSizes();
+            assertEquals(cn.methods.size(), sizes.size());
+            for (int i = 0; i < sizes.size(); i++) {
+                MethodNode mn = cn.methods.get(i);
+                MethodSize size = sizes.get(i);
+                assertEquals("pkg1.NeverNull", size.getClassName());
+                assertEquals(mn.name + mn.desc, size.getName() + size.getDesc());
+                assertEquals(mn.maxStack, size.getMaxStack());
+                assertEquals(mn.maxLocals, size.getMaxLocals());
+                if (mn.name.startsWith("set")) {
+                    // no throw path in the setter itself: load, check, store
+                    for (AbstractInsnNode insn : mn.instructions.toArray()) {
+                        assertTrue(mn.name, insn.getOpcode() != Opcodes.NEW && insn.getOpcode() != Opcodes.ATHROW);
+                    }
+                    assertEquals(mn.name, 11, size.getCodeLength());
+                    assertFalse(size.isOverMaxInlineSize());
+                }
+            }
+        }
+
+        Compiler cmp = new Compiler(Paths.get("src", "test", "resources", "pkg1", "Trade.gs"), new ClassBuilder());
+        cmp.compile();
+        Set<String> classes = new HashSet<>();
+        for (MethodSize size : cmp.getMethodSizes()) {
+            classes.add(size.getClassName());
+        }
+        assertEquals(cmp.getCompanionClasses().size() + 1, classes.size());
+    }
+
+    @Test
+    public void testWideConstructor() throws Exception {
+        // 11 bytes of constructor code each, over 64KB in one method
+        StringBuilder schema = new StringBuilder(">> pkg1\nWide\n");
+        for (int i = 0; i < 6000; i++) {
+            schema.append('b').append(i).append(" !! StringBuilder\n");
+        }
+        for (Compiler cmp : Arrays.asList(
+                new Compiler("Wide.gs", new StringReader(schema.toString()), new ClassBuilder()),
+                new Compiler("Wide.gs", new StringReader(schema.toString()), new StreamingClassBuilder()))) {
+            Class<?> c = loadBinaryClass("pkg1.Wide", cmp.compile());
+            Object o = c.newInstance();
+            Object first = c.getMethod("getB0").invoke(o);
+            Object last = c.getMethod("getB5999").invoke(o);
+            assertNotNull(first);
+            assertNotNull(last);
+            assertNotSame(first, last);
+
+            int chunks = 0;
+            for (MethodSize size : cmp.getMethodSizes()) {
+                assertFalse(size.toString(), size.isOverHugeMethodLimit());
+                if (size.getName().startsWith("init$")) {
+                    assertFalse(size.toString(), size.isOverFreqInlineSize());
+                    chunks++;
+                }
+            }
+            assertTrue(chunks > 200);
+        }
+    }
+
+    private static void assertIndexOutOfBounds(Method m, Object o, Object... args) throws Exception {
+        try {
+            m.invoke(o, args);
+            fail("Expected an IndexOutOfBoundsException");
+        } catch (InvocationTargetException x) {
+            assertTrue(x.getCause() instanceof IndexOutOfBoundsException);
+        }
+    }
+
+    @Test
+    public void testValueHolderDoesNotAllocate() throws Exception {
+        ClassNode cn = readClass(new Compiler(
+                Paths.get("src", "test", "resources", "pkg1", "ValueHolder.gs"), new ClassBuilder()).compile());
+
+        assertEquals(1, assertNoAllocation(cn, "equals"));
+        assertEquals(1, assertNoAllocation(cn, "hashCode"));
+    }
+
+    private static Object copy(Object value) {
+        if (value instanceof int[]) {
+            return ((int[]) value).clone();
+        } else if (value instanceof String[]) {
+            return ((String[]) value).clone();
+        } else if (value instanceof long[][]) {
+            long[][] grid = (long[][]) value;
+            long[][] copy = new long[grid.length][];
+            for (int i = 0; i < grid.length; i++) {
+                copy[i] = grid[i].clone();
+            }
+            return copy;
+        } else if (value instanceof String) {
+            return new String((String) value);
+        } else if (value instanceof List) {
+            return new ArrayList<>((List<?>) value);
+        }
+        return value;
+    }
+
+    @Test
+    public void testStreamingBuilder() throws Throwable {
+        Class<?> c = compileAndLoadStreaming("pkg1", "PrimitiveHolder");
+        Object o = standardClassChecks(c, 16);
+        exerciseMethod(c, o, "getValue", "setValue", long.class, 0L, Long.MAX_VALUE);
+        exerciseMethod(c, o, "getValue", "setValue", double.class, 0.0d, Double.MAX_VALUE);
+
+        c = compileAndLoadStreaming("pkg1", "GenericObjectHolder");
+        o = standardClassChecks(c, 6);
+        exerciseMethod(c, o, "getList", "setList", List.class, null, Arrays.asList(1, 2, 3));
+        assertEquals("java.util.List<java.lang.Integer>",
+                c.getMethod("getList").getGenericReturnType().toString());
+
+        c = compileAndLoadStreaming("pkg1", "NeverNull");
+        o = standardClassChecks(c, 2);
+        exerciseMethod(c, o, "getString", "setString", String.class, "", "NeverNull!");
+        MethodHandle set = MethodHandles.lookup().findVirtual(c, "setString",
+                MethodType.methodType(void.class, String.class));
+        try {
+            set.invoke(o, null);
+            fail("Expected NPE");
+        } catch(NullPointerException x) {
+            // success
+        }
+    }
+
     private Class<?> compileAndLoad(String pkg, String cName) throws Exception {
         Path p = Paths.get("src", "test", "resources", pkg, cName + ".gs");
         
@@ -208,6 +1016,70 @@ public class ClassGenTest {
         
         return loadBinaryClass(pkg + '.' + cName, cmp.compile());
     }
+
+    private Class<?> compileAndLoadStreaming(String pkg, String cName) throws Exception {
+        Path p = Paths.get("src", "test", "resources", pkg, cName + ".gs");
+
+        Compiler cmp = new Compiler(p, new StreamingClassBuilder());
+
+        return loadBinaryClass(pkg + '.' + cName, cmp.compile());
+    }
+
+    /**
+     * @return the class compiled by each builder, the tree one first
+     */
+    private List<Class<?>> compileAndLoadBoth(String pkg, String cName) throws Exception {
+        return Arrays.<Class<?>>asList(compileAndLoad(pkg, cName), compileAndLoadStreaming(pkg, cName));
+    }
+
+    private static ClassNode readClass(byte[] code) {
+        ClassNode cn = new ClassNode();
+        new ClassReader(code).accept(cn, 0);
+        return cn;
+    }
+
+    /**
+     * Fails if a method of {@code cn} named {@code methodName} allocates: with
+     * {@code new}, any array creation, or boxing through {@code valueOf}.
+     *
+     * @param allowedCalls if any are given, the only methods it may call, as
+     *                     an owner's internal name or {@code owner.name}
+     * @return how many methods of that name were checked
+     */
+    private static int assertNoAllocation(ClassNode cn, String methodName, String... allowedCalls) {
+        int checked = 0;
+        for (MethodNode mn : cn.methods) {
+            if (mn.name.equals(methodName)) {
+                assertEquals(mn.name + mn.desc, 0, countAllocations(mn, allowedCalls));
+                checked++;
+            }
+        }
+        return checked;
+    }
+
+    /**
+     * @return how many instructions of {@code mn} allocate, failing on a call
+     *         not in {@code allowedCalls} if any are given
+     */
+    private static int countAllocations(MethodNode mn, String[] allowedCalls) {
+        int allocations = 0;
+        for (AbstractInsnNode insn : mn.instructions.toArray()) {
+            int opcode = insn.getOpcode();
+            if (opcode == Opcodes.NEW || opcode == Opcodes.NEWARRAY || opcode == Opcodes.ANEWARRAY
+                    || opcode == Opcodes.MULTIANEWARRAY) {
+                allocations++;
+            } else if (insn instanceof MethodInsnNode) {
+                MethodInsnNode call = (MethodInsnNode) insn;
+                if (call.name.equals("valueOf")) {
+                    allocations++;
+                }
+                List<String> allowed = Arrays.asList(allowedCalls);
+                assertTrue(mn.name + mn.desc + " calls " + call.owner + "." + call.name, allowed.isEmpty()
+                        || allowed.contains(call.owner) || allowed.contains(call.owner + "." + call.name));
+            }
+        }
+        return allocations;
+    }
     
 
     
@@ -243,6 +1115,17 @@ public class ClassGenTest {
     	return o;
     }
 
+    /**
+     * Defines a bean and its companion classes together.
+     */
+    public static class BundleClassLoader extends ClassLoader {
+        public BundleClassLoader(Map<String, byte[]> classes) {
+            for (Map.Entry<String, byte[]> c : classes.entrySet()) {
+                defineClass(c.getKey(), c.getValue(), 0, c.getValue().length);
+            }
+        }
+    }
+
     public static class ThingyClassLoader extends ClassLoader {
         private final String name;
         private final byte[] code;
@@ -0,0 +1,67 @@
+package com.weaselogic.getset;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testScanDirectoryAndLookup() throws Exception {
+        Path classes = tmp.newFolder("classes").toPath();
+        Files.createDirectories(classes.resolve("a/b"));
+        Files.write(classes.resolve("a/b/Thing.class"), new byte[0]);
+        Files.write(classes.resolve("a/b/Thing$Inner.class"), new byte[0]);
+        Files.write(classes.resolve("a/b/package-info.class"), new byte[0]);
+        Files.write(classes.resolve("a/b/notes.txt"), new byte[0]);
+
+        SortedSet<String> names = ClassIndex.scan(Collections.singletonList(classes), false);
+        assertEquals(Arrays.asList("a.b.Thing", "a.b.Thing$Inner"), Arrays.asList(names.toArray()));
+
+        Path file = tmp.getRoot().toPath().resolve("classes.idx");
+        ClassIndex.write(file, names);
+        ClassIndex index = ClassIndex.open(file);
+
+        assertEquals(2, index.size());
+        assertTrue(index.contains("a.b.Thing"));
+        assertTrue(index.contains("a.b.Thing$Inner"));
+        assertFalse(index.contains("a.b.Thin"));
+        assertFalse(index.contains("a.b.Things"));
+    }
+
+    @Test
+    public void testCompileAgainstIndex() throws Exception {
+        List<String> names = Arrays.asList("java.lang.Integer", "java.lang.String", "java.util.Date",
+                "java.util.List", "java.util.Map");
+        Path file = tmp.getRoot().toPath().resolve("jdk.idx");
+        ClassIndex.write(file, names);
+
+        Compiler cmp = new Compiler(Paths.get("src", "test", "resources", "pkg1", "WildcardHolder.gs"),
+                new ClassBuilder());
+        cmp.setClassIndex(ClassIndex.open(file));
+        cmp.compile();
+
+        assertEquals(Arrays.asList("java.lang.String", "java.util.Date", "java.util.List"),
+                Arrays.asList(cmp.getResolvedTypes().toArray()));
+    }
+
+    @Test
+    public void testIndexRuntime() throws Exception {
+        SortedSet<String> names = ClassIndex.scan(Collections.<Path>emptyList(), true);
+        assertTrue(names.contains("java.lang.String"));
+        assertTrue(names.contains("java.util.Map$Entry"));
+    }
+}
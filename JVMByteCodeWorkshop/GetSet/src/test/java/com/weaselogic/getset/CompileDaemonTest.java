@@ -0,0 +1,217 @@
+package com.weaselogic.getset;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompileDaemonTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testCompileOverSocket() throws Exception {
+        Path src = tmp.newFolder("src").toPath();
+        Path out = tmp.newFolder("classes").toPath();
+        Path one = src.resolve("One.gs");
+        Files.write(one, ">> pkg2\nOne\nvalue : int\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(src.resolve("Ticks.gs"),
+                ">> pkg2\nflyweight Ticks\nprice : double\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(src.resolve("Bad.gs"), ">> pkg2\nBad\nvalue : NoSuchType\n".getBytes(StandardCharsets.UTF_8));
+
+        CompileDaemon daemon = new CompileDaemon(0, 2, 1, tmp.newFolder("state").toPath());
+        Thread server = start(daemon);
+
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+            assertEquals("ok", request(in, w, auth(daemon)));
+            String first = request(in, w, "compile " + one + " " + out);
+            assertTrue(first, first.startsWith("ok pkg2.One "));
+            byte[] compiled = Files.readAllBytes(out.resolve("pkg2").resolve("One.class"));
+            Files.delete(out.resolve("pkg2").resolve("One.class"));
+
+            // unchanged, so from the cache
+            assertTrue(request(in, w, "compile " + one + " " + out).startsWith("ok pkg2.One "));
+            assertTrue(Arrays.equals(compiled, Files.readAllBytes(out.resolve("pkg2").resolve("One.class"))));
+            assertTrue(request(in, w, "stats").contains(" 1 output cache hits"));
+
+            // next to the source without an output dir, companions included
+            assertTrue(request(in, w, "compile " + src.resolve("Ticks.gs")).startsWith("ok pkg2.Ticks "));
+            assertTrue(Files.isRegularFile(src.resolve("Ticks.class")));
+            assertTrue(Files.isRegularFile(src.resolve("TicksFlyweight.class")));
+
+            // a cache of one: the unchanged One was evicted by Ticks, so it is compiled again
+            assertTrue(request(in, w, "compile " + one + " " + out).startsWith("ok pkg2.One "));
+            assertTrue(request(in, w, "stats").contains(" 1 cached outputs, 1 output cache hits"));
+            assertTrue(request(in, w, "compile " + one + " " + out).startsWith("ok pkg2.One "));
+            assertTrue(request(in, w, "stats").contains(" 1 cached outputs, 2 output cache hits"));
+
+            // a changed source is never served from the cache
+            Files.write(one, ">> pkg2\nOne\nvalue : long\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(request(in, w, "compile " + one + " " + out).startsWith("ok pkg2.One "));
+            assertFalse(Arrays.equals(compiled, Files.readAllBytes(out.resolve("pkg2").resolve("One.class"))));
+            assertTrue(request(in, w, "stats").contains(" 2 output cache hits"));
+
+            // a companion the source no longer has is deleted
+            Files.write(src.resolve("Ticks.gs"), ">> pkg2\nTicks\nprice : double\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(request(in, w, "compile " + src.resolve("Ticks.gs")).startsWith("ok pkg2.Ticks "));
+            assertTrue(Files.isRegularFile(src.resolve("Ticks.class")));
+            assertFalse(Files.exists(src.resolve("TicksFlyweight.class")));
+
+            assertTrue(request(in, w, "compile " + src.resolve("Bad.gs")).startsWith("error "));
+            assertTrue(request(in, w, "compile " + src.resolve("Missing.gs")).startsWith("error Unable to read"));
+            assertEquals("error Unknown request make", request(in, w, "make"));
+            assertEquals("ok", request(in, w, "shutdown"));
+        }
+
+        server.join(10000);
+        assertFalse(server.isAlive());
+        daemon.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    @Test(timeout = 10000)
+    public void testIdleConnectionDoesNotBlockOthers() throws Exception {
+        CompileDaemon daemon = new CompileDaemon(0, 1, 4, tmp.newFolder("state").toPath());
+        Thread server = start(daemon);
+
+        try (Socket idle = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+             BufferedReader idleIn = new BufferedReader(
+                     new InputStreamReader(idle.getInputStream(), StandardCharsets.UTF_8));
+             Writer idleOut = new OutputStreamWriter(idle.getOutputStream(), StandardCharsets.UTF_8)) {
+            assertEquals("ok", request(idleIn, idleOut, auth(daemon)));
+            assertTrue(request(idleIn, idleOut, "stats").startsWith("ok "));
+
+            // the first connection stays open while a second one is served on the single worker
+            try (Socket s = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                 Writer w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+                assertEquals("ok", request(in, w, auth(daemon)));
+                assertTrue(request(in, w, "stats").startsWith("ok "));
+                assertEquals("ok", request(in, w, "shutdown"));
+            }
+        }
+
+        server.join(5000);
+        assertFalse(server.isAlive());
+    }
+
+    @Test(timeout = 10000)
+    public void testRequiresToken() throws Exception {
+        Path state = tmp.newFolder("state").toPath().resolve("daemon");
+        Path secret = tmp.newFile("Secret.gs").toPath();
+        CompileDaemon daemon = new CompileDaemon(0, 1, 4, state);
+        Thread server = start(daemon);
+
+        Path tokenFile = daemon.getTokenFile();
+        assertEquals(state, tokenFile.getParent());
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(tokenFile));
+            assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(state));
+        }
+
+        for (String first : Arrays.asList("compile " + secret, "auth wrong", "auth")) {
+            try (Socket s = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                 Writer w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+                assertEquals("error Not authorized", request(in, w, first));
+                assertNull(in.readLine());
+            }
+        }
+        assertFalse(Files.exists(secret.resolveSibling("Secret.class")));
+
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+            assertEquals("ok", request(in, w, auth(daemon)));
+            assertEquals("ok", request(in, w, "shutdown"));
+        }
+        server.join(5000);
+        assertFalse(Files.exists(tokenFile));
+    }
+
+    @Test(timeout = 10000)
+    public void testUnauthenticatedConnectionsAreClosed() throws Exception {
+        CompileDaemon daemon = new CompileDaemon(0, 1, 4, tmp.newFolder("state").toPath());
+        daemon.setAuthTimeout(200);
+        Thread server = start(daemon);
+
+        // sends nothing
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8))) {
+            assertEquals("error Not authorized", in.readLine());
+            assertNull(in.readLine());
+        }
+
+        // sends one endless line; the daemon stops reading and closes, which may reset the connection
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+            char[] chunk = new char[4096];
+            Arrays.fill(chunk, 'a');
+            try {
+                for (int i = 0; i < 1024; i++) {
+                    w.write(chunk);
+                    w.flush();
+                }
+                fail("Expected the daemon to close the connection");
+            } catch (SocketException x) {
+                // closed while still sending
+            }
+        }
+
+        // an authenticated connection may stay idle past the timeout
+        try (Socket s = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort());
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)) {
+            assertEquals("ok", request(in, w, auth(daemon)));
+            Thread.sleep(400);
+            assertEquals("ok", request(in, w, "shutdown"));
+        }
+        server.join(5000);
+        assertFalse(server.isAlive());
+    }
+
+    private static String auth(CompileDaemon daemon) throws Exception {
+        return "auth " + new String(Files.readAllBytes(daemon.getTokenFile()), StandardCharsets.US_ASCII);
+    }
+
+    private static Thread start(final CompileDaemon daemon) {
+        Thread server = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    daemon.run();
+                } catch (Exception x) {
+                    throw new IllegalStateException(x);
+                }
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static String request(BufferedReader in, Writer w, String line) throws Exception {
+        w.write(line);
+        w.write('\n');
+        w.flush();
+        return in.readLine();
+    }
+}
@@ -1,16 +1,24 @@
 package com.weaselogic.getset;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
@@ -36,6 +44,9 @@ public class CompilerParserTest {
 	@Mock
 	ClassBuilder cb;
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
 	@Before
 	public void setUp() throws Exception {
 		when(cb.createClass(any(String.class), any(String.class))).thenReturn(makeDummyClassNode());
@@ -192,6 +203,114 @@ public class CompilerParserTest {
 
     }
     
+    @Test
+    public void testFinalHolder() throws Exception {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "FinalHolder.gs");
+
+        Compiler cmp = new Compiler(p, cb);
+
+        cmp.compile();
+
+        verify(cb).createClass(nameCaptor.capture(), signatureCaptor.capture());
+        assertEquals("pkg1.FinalHolder", nameCaptor.getValue());
+
+        verify(cb).setClassOptions(EnumSet.of(Compiler.Options.FINAL));
+        verify(cb, times(2)).addAttribute(any(String.class), any(String.class),
+                any(List.class), any(Set.class));
+        verify(cb).endClass();
+        verifyNoMoreInteractions(cb);
+    }
+
+    @Test
+    public void testImmutablePoint() throws Exception {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "ImmutablePoint.gs");
+
+        Compiler cmp = new Compiler(p, cb);
+
+        cmp.compile();
+
+        verify(cb).createClass(nameCaptor.capture(), signatureCaptor.capture());
+        assertEquals("pkg1.ImmutablePoint", nameCaptor.getValue());
+
+        verify(cb).setClassOptions(EnumSet.of(Compiler.Options.EQUALS, Compiler.Options.IMMUTABLE));
+        verify(cb, times(4)).addAttribute(any(String.class), any(String.class),
+                any(List.class), any(Set.class));
+        verify(cb).endClass();
+        verifyNoMoreInteractions(cb);
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "Stats.gs");
+
+        Compiler cmp = new Compiler(p, cb);
+
+        cmp.compile();
+
+        verify(cb).createClass(nameCaptor.capture(), signatureCaptor.capture());
+        assertEquals("pkg1.Stats", nameCaptor.getValue());
+
+        ArgumentCaptor<Set> optionsCaptor = ArgumentCaptor.forClass(Set.class);
+        verify(cb, times(5)).addAttribute(attrNameCaptor.capture(), attrSigCaptor.capture(),
+                any(List.class), optionsCaptor.capture());
+        assertEquals(Arrays.asList("hits", "active", "open", "last", "name"), attrNameCaptor.getAllValues());
+        assertEquals(EnumSet.of(Compiler.Options.VOLATILE), optionsCaptor.getAllValues().get(0));
+        assertEquals(EnumSet.of(Compiler.Options.VOLATILE), optionsCaptor.getAllValues().get(3));
+        assertEquals(EnumSet.noneOf(Compiler.Options.class), optionsCaptor.getAllValues().get(4));
+        verifyNoMoreInteractions(cb);
+    }
+
+    @Test
+    public void testNestedGenericHolder() throws Exception {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "NestedGenericHolder.gs");
+
+        Compiler cmp = new Compiler(p, cb);
+
+        cmp.compile();
+
+        verify(cb, times(2)).addAttribute(attrNameCaptor.capture(), attrSigCaptor.capture(),
+                any(List.class), any(Set.class));
+
+        assertEquals("index", attrNameCaptor.getAllValues().get(0));
+        assertEquals("Ljava/util/Map<Ljava/lang/String;Ljava/util/List<Ljava/lang/Integer;>;>;",
+                attrSigCaptor.getAllValues().get(0));
+        assertEquals("grid", attrNameCaptor.getAllValues().get(1));
+        assertEquals("[Ljava/util/List<Ljava/util/List<[I>;>;", attrSigCaptor.getAllValues().get(1));
+    }
+
+    @Test
+    public void testErrorPosition() throws Exception {
+        assertCompileError(">> pkg1\nBroken\n\n# comment\nvalue : java.util.Map<String, Integer\n",
+                "Syntax error on line 5, column 38: Expected '>'");
+        assertCompileError(">> pkg1\nBroken\nvalue = int\n",
+                "Syntax error on line 3, column 7: Expected :, !, !! or ~ after the attribute name");
+        assertCompileError(">> pkg1\nBroken\n  value : NoSuchType[]\n",
+                "Type not resolved on line 3, column 11: NoSuchType");
+        assertCompileError(">> pkg1\nfinal sealed Broken\n",
+                "Syntax error on line 2, column 7: Unknown class modifier sealed");
+        assertCompileError(">> pkg1\nflyweight Broken\nid : long\nname : String\n",
+                "Syntax error on line 4, column 8: Flyweight attribute name must have a primitive type");
+        assertCompileError(">> pkg1\nflyweight Broken\nids : long[]\n",
+                "Syntax error on line 3, column 7: Flyweight attribute ids must have a primitive type");
+        assertCompileError(">> pkg1\ncodec Broken\nwhen : java.util.Date[]\n",
+                "Syntax error on line 3, column 8: Codec attribute when must be a primitive, String or array of those");
+        assertCompileError(">> pkg1\nimmutable Broken\ncount ~ long\n",
+                "Syntax error on line 3, column 7: Immutable attribute count can't be volatile");
+    }
+
+    @Test
+    public void testPrimitiveNullConstraint() throws Exception {
+        assertCompileError(">> pkg1\nBroken\ncount !! int\n",
+                "Syntax error on line 3, column 7: Primitive attribute count can't have a null constraint");
+        assertCompileError(">> pkg1\nimmutable Broken\nflag ! boolean\n",
+                "Syntax error on line 3, column 6: Primitive attribute flag can't have a null constraint");
+
+        // arrays of primitives are references and may have one
+        new Compiler("Fine.gs", new StringReader(">> pkg1\nFine\ncounts !! int[]\n"), cb).compile();
+        verify(cb).addAttribute(attrNameCaptor.capture(), attrSigCaptor.capture(), any(List.class), any(Set.class));
+        assertEquals("[I", attrSigCaptor.getValue());
+    }
+
     @Test
     public void testNeverNullArray() throws Exception {
         Path p = Paths.get("src", "test", "resources", "pkg1", "NeverNullArray.gs");
@@ -214,6 +333,164 @@ public class CompilerParserTest {
 
     }
     
+    @Test
+    public void testWildcardImport() throws Exception {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "WildcardHolder.gs");
+
+        Compiler cmp = new Compiler(p, cb);
+
+        cmp.compile();
+
+        verify(cb, times(2)).addAttribute(attrNameCaptor.capture(), attrSigCaptor.capture(),
+                any(List.class), any(Set.class));
+
+        assertEquals("Ljava/util/Date;", attrSigCaptor.getAllValues().get(0));
+        assertEquals("Ljava/util/List<Ljava/lang/String;>;", attrSigCaptor.getAllValues().get(1));
+    }
+
+    @Test
+    public void testAmbiguousWildcardImport() throws Exception {
+        String source = ">> pkg1\n<< java.util.*\n<< java.sql.*\nBroken\nwhen : Date\n";
+        ResolutionCache cache = new ResolutionCache();
+        for (int i = 0; i < 2; i++) {
+            Compiler cmp = new Compiler("Broken.gs", new StringReader(source), cb);
+            cmp.setResolutionCache(cache);
+            try {
+                cmp.compile();
+                fail("Expected an ambiguous type");
+            } catch (CompileException x) {
+                assertEquals("Type not resolved on line 5, column 8: ambiguous type Date: java.util.Date, java.sql.Date",
+                        x.getMessage());
+            }
+        }
+
+        // an explicit import picks one
+        new Compiler("Fixed.gs", new StringReader(">> pkg1\n<< java.util.*\n<< java.sql.*\n<< java.sql.Date\n"
+                + "Fixed\nwhen : Date\n"), cb).compile();
+        verify(cb).addAttribute(attrNameCaptor.capture(), attrSigCaptor.capture(), any(List.class), any(Set.class));
+        assertEquals("Ljava/sql/Date;", attrSigCaptor.getValue());
+    }
+
+    @Test
+    public void testSharedResolutionCache() throws Exception {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "ObjectHolder.gs");
+        ResolutionCache cache = new ResolutionCache();
+
+        Compiler first = new Compiler(p, cb);
+        first.setResolutionCache(cache);
+        first.compile();
+
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        Compiler second = new Compiler(p, cb);
+        second.setResolutionCache(cache);
+        second.compile();
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(first.getResolvedTypes(), second.getResolvedTypes());
+    }
+
+    @Test
+    public void testUnresolvedNamesAreCached() throws Exception {
+        Path p = Paths.get("src", "test", "resources", "pkg1", "BasicGenericHolder.gs");
+        ResolutionCache cache = new ResolutionCache();
+
+        for (int i = 0; i < 2; i++) {
+            Compiler cmp = new Compiler(p, cb);
+            cmp.setResolutionCache(cache);
+            cmp.compile();
+        }
+
+        verify(cb, times(4)).addAttribute(attrNameCaptor.capture(), attrSigCaptor.capture(),
+                any(List.class), any(Set.class));
+        assertEquals("TT;", attrSigCaptor.getAllValues().get(2));
+        assertEquals("Ljava/util/List<TL;>;", attrSigCaptor.getAllValues().get(3));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testChunkedParseKeepsSourceOrder() throws Exception {
+        Compiler cmp = new Compiler("Large.gs", new StringReader(largeSource(2000, null)), cb);
+        cmp.setLargeSourceThresholds(Compiler.LARGE_SOURCE_SIZE, 256);
+
+        cmp.compile();
+
+        verify(cb, times(2000)).addAttribute(attrNameCaptor.capture(), attrSigCaptor.capture(),
+                any(List.class), any(Set.class));
+        for (int i = 0; i < 2000; i++) {
+            assertEquals("value" + i, attrNameCaptor.getAllValues().get(i));
+            assertEquals(i % 2 == 0 ? "I" : "Ljava/util/Map<Ljava/lang/String;Ljava/util/List<Ljava/lang/Long;>;>;",
+                    attrSigCaptor.getAllValues().get(i));
+        }
+    }
+
+    @Test
+    public void testChunkedParseReportsErrorLine() throws Exception {
+        String source = largeSource(2000, null).replace("value1500 : int", "value1500 : NoSuchType");
+
+        Compiler cmp = new Compiler("Large.gs", new StringReader(source), cb);
+        cmp.setLargeSourceThresholds(Compiler.LARGE_SOURCE_SIZE, 256);
+        try {
+            cmp.compile();
+            fail("Expected an unresolved type");
+        } catch (CompileException x) {
+            assertEquals("Type not resolved on line 1506, column 13: NoSuchType", x.getMessage());
+        }
+    }
+
+    @Test
+    public void testMappedSource() throws Exception {
+        String nonAscii = "gr\u00f6\u00dfe : int";
+        List<String> extras = Charset.defaultCharset().newEncoder().canEncode(nonAscii)
+                ? Arrays.asList(null, nonAscii) : Arrays.<String>asList((String) null);
+        for (String extra : extras) {
+            Path p = tmp.newFile().toPath();
+            Files.write(p, largeSource(500, extra).getBytes(Charset.defaultCharset()));
+
+            ClassBuilder builder = mock(ClassBuilder.class);
+            when(builder.createClass(any(String.class), any(String.class))).thenReturn(makeDummyClassNode());
+            Compiler cmp = new Compiler(p, builder);
+            cmp.setLargeSourceThresholds(1024, 512);
+
+            cmp.compile();
+
+            ArgumentCaptor<String> names = ArgumentCaptor.forClass(String.class);
+            verify(builder, times(extra == null ? 500 : 501)).addAttribute(names.capture(), any(String.class),
+                    any(List.class), any(Set.class));
+            assertEquals("value499", names.getAllValues().get(499));
+            if (extra != null) {
+                assertEquals("gr\u00f6\u00dfe", names.getAllValues().get(500));
+            }
+        }
+    }
+
+    /**
+     * @return a schema with {@code count} attributes alternating between a
+     *         primitive and a nested generic type, plus {@code extra} if given
+     */
+    private String largeSource(int count, String extra) {
+        StringBuilder sb = new StringBuilder(">> pkg1\n<< java.util.*\nLarge\n\n# attributes\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("value").append(i).append(i % 2 == 0 ? " : int\n" : " : Map<String, List<Long>>\n");
+        }
+        if (extra != null) {
+            sb.append(extra).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void assertCompileError(String source, String message) {
+        try {
+            new Compiler("Broken.gs", new StringReader(source), cb).compile();
+            fail("Expected " + message);
+        } catch (CompileException x) {
+            assertEquals(message, x.getMessage());
+        }
+    }
+
     private ClassNode makeDummyClassNode() {
         ClassNode cn = new ClassNode();
         
@@ -0,0 +1,159 @@
+package com.weaselogic.getset;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+public class RuntimeCompilerTest {
+
+    private static final String INT_HOLDER = ">> rt\nRtHolder\nvalue : int\n";
+
+    @Test
+    public void testCompileFromText() throws Exception {
+        RuntimeCompiler rc = new RuntimeCompiler();
+
+        Class<?> c = rc.compile(INT_HOLDER);
+        assertEquals("rt.RtHolder", c.getName());
+
+        Object o = c.newInstance();
+        c.getMethod("setValue", int.class).invoke(o, 42);
+        assertEquals(42, c.getMethod("getValue").invoke(o));
+    }
+
+    @Test
+    public void testSameSchemaReturnsSameClass() throws Exception {
+        RuntimeCompiler rc = new RuntimeCompiler();
+
+        Class<?> first = rc.compile(INT_HOLDER);
+        Class<?> second = rc.compile(new StringReader(
+                "# comments and spacing do not matter\n\n>> rt\n  RtHolder\nvalue   :  int\n"));
+
+        assertSame(first, second);
+        assertEquals(1, rc.size());
+    }
+
+    @Test
+    public void testDifferentSchemasWithSameName() throws Exception {
+        RuntimeCompiler rc = new RuntimeCompiler();
+
+        Class<?> ints = rc.compile(INT_HOLDER);
+        Class<?> longs = rc.compile(">> rt\nRtHolder\nvalue : long\n");
+
+        assertNotSame(ints, longs);
+        assertEquals(long.class, longs.getMethod("getValue").getReturnType());
+    }
+
+    @Test
+    public void testFlyweightIsLoadable() throws Exception {
+        RuntimeCompiler rc = new RuntimeCompiler();
+
+        Class<?> c = rc.compile(">> rt\nflyweight RtPoint\nx : int\ny : int\n");
+        Class<?> flyweight = c.getClassLoader().loadClass("rt.RtPointFlyweight");
+
+        assertEquals(8, flyweight.getField("SIZE").getInt(null));
+        assertSame(c.getClassLoader(), flyweight.getClassLoader());
+    }
+
+    @Test
+    public void testResolvesThroughParent() throws Exception {
+        String wallet = ">> rt\n<< app.*\nWallet\nbalance : Money\n";
+        ClassLoader parent = new MoneyClassLoader();
+        RuntimeCompiler rc = new RuntimeCompiler(parent);
+
+        Class<?> c = rc.compile(wallet);
+        Class<?> money = c.getMethod("getBalance").getReturnType();
+        assertEquals("app.Money", money.getName());
+        assertSame(parent, money.getClassLoader());
+
+        // results for one loader are not used for another sharing the cache
+        Compiler cmp = new Compiler(null, new StringReader(wallet), new StreamingClassBuilder());
+        cmp.setResolutionCache(rc.getResolutionCache());
+        try {
+            cmp.compile();
+            fail("app.Money is not visible to the compiler's own loader");
+        } catch (CompileException x) {
+            assertTrue(x.getMessage(), x.getMessage().contains("Money"));
+        }
+    }
+
+    @Test
+    public void testImmutableParameterLimit() throws Exception {
+        RuntimeCompiler rc = new RuntimeCompiler();
+
+        // 254 slots and this: the widest constructor the JVM accepts
+        StringBuilder widest = new StringBuilder(">> rt\nimmutable Widest\nd : double\n");
+        for (int i = 0; i < 252; i++) {
+            widest.append('v').append(i).append(" : int\n");
+        }
+        assertEquals(253, rc.compile(widest).getConstructors()[0].getParameterTypes().length);
+
+        StringBuilder wide = new StringBuilder(">> rt\nimmutable Wide\n");
+        for (int i = 0; i < 300; i++) {
+            wide.append('v').append(i).append(" : int\n");
+        }
+        assertParameterLimit(rc, wide, "v254");
+
+        StringBuilder longs = new StringBuilder(">> rt\nimmutable Longs\n");
+        for (int i = 0; i < 128; i++) {
+            longs.append('l').append(i).append(" : long\n");
+        }
+        assertParameterLimit(rc, longs, "l127");
+    }
+
+    private static void assertParameterLimit(RuntimeCompiler rc, CharSequence schema, String attribute) {
+        try {
+            rc.compile(schema);
+            fail("Expected the parameter limit to be reached at " + attribute);
+        } catch (CompileException x) {
+            assertEquals("Immutable attribute " + attribute
+                    + " takes the constructor past the JVM limit of 255 parameter slots", x.getMessage());
+        }
+    }
+
+    /**
+     * Defines an empty {@code app.Money}, which no other loader can see.
+     */
+    private static class MoneyClassLoader extends ClassLoader {
+        MoneyClassLoader() {
+            super(RuntimeCompilerTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (!name.equals("app.Money")) {
+                throw new ClassNotFoundException(name);
+            }
+            ClassWriter cw = new ClassWriter(0);
+            cw.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC + Opcodes.ACC_SUPER, "app/Money", null,
+                    "java/lang/Object", null);
+            MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+            mv.visitCode();
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(1, 1);
+            mv.visitEnd();
+            cw.visitEnd();
+            byte[] code = cw.toByteArray();
+            return defineClass(name, code, 0, code.length);
+        }
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws Exception {
+        RuntimeCompiler rc = new RuntimeCompiler();
+
+        try {
+            rc.compile("RtBroken\nvalue : int\n");
+            fail("Expected CompileException");
+        } catch (CompileException x) {
+            // success
+        }
+        assertEquals(0, rc.size());
+    }
+}
@@ -0,0 +1,8 @@
+# A bean whose class and accessors are final
+
+>> pkg1
+
+final FinalHolder
+
+value : int
+name ! String
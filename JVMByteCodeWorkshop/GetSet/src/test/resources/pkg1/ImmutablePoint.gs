@@ -0,0 +1,10 @@
+# An immutable value with equals, a cached hashCode and copy methods
+
+>> pkg1
+
+immutable equals ImmutablePoint<T>
+
+x : int
+y : long
+label ! String
+tag : T
@@ -0,0 +1,12 @@
+# Never-null attributes whose defaults are only made if they are read unset
+
+>> pkg1
+
+<< java.util.ArrayList
+
+lazy equals json LazyDefaults
+
+name !! String
+items !! ArrayList<String>
+grid !! int[][]
+count : int
@@ -0,0 +1,16 @@
+# A bean that writes itself to and reads itself from a ByteBuffer
+
+>> pkg1
+
+codec Message
+
+id : long
+flags : short
+ratio : float
+urgent : boolean
+grade : char
+body : String
+subject : String
+payload : byte[]
+grid ! int[][]
+tags : String[]
@@ -0,0 +1,12 @@
+# This is a simple bean that holds nested generic types
+
+>> pkg1
+
+<< java.util.List
+<< java.util.Map
+
+NestedGenericHolder
+
+# type arguments may themselves be generic
+index : Map<String, List<Integer>>
+grid : List<List<int[]>>[]
@@ -0,0 +1,19 @@
+# A bean that writes itself as JSON
+
+>> pkg1
+<< java.util.List
+<< java.util.Map
+
+json Quote
+
+id : long
+size : int
+bid : double
+open : boolean
+side : char
+symbol : String
+venue : String
+levels : int[]
+notes : String[]
+sources : List<String>
+fields : Map<String, Object>
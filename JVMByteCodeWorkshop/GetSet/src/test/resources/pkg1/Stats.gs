@@ -0,0 +1,11 @@
+# A bean whose counters are updated from many threads without locks
+
+>> pkg1
+
+Stats
+
+hits ~ long
+active ~ int
+open ~ boolean
+last ~ String
+name : String
@@ -0,0 +1,14 @@
+# A market data record that can also live in a ByteBuffer
+
+>> pkg1
+
+flyweight Tick
+
+live : boolean
+side : byte
+venue : char
+size : short
+id : int
+time : long
+price : float
+value : double
@@ -0,0 +1,11 @@
+# A bean that is also stored in bulk, one array per attribute
+
+>> pkg1
+
+columns Trade
+
+id : long
+price : double
+buy : boolean
+symbol ! String
+fills : int[]
@@ -0,0 +1,21 @@
+# A bean with equals and hashCode over every kind of attribute
+
+>> pkg1
+
+<< java.util.List
+
+equals ValueHolder
+
+flag : boolean
+b : byte
+c : char
+s : short
+i : int
+l : long
+f : float
+d : double
+string : String
+ints : int[]
+strings : String[]
+grid : long[][]
+list : List<String>
@@ -0,0 +1,11 @@
+# This is a simple bean that uses on-demand imports
+
+>> pkg1
+
+<< java.util.*
+
+WildcardHolder
+
+# Attributes
+date : Date
+list : List<String>